@@ -0,0 +1,33 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+/**
+ * Sends the messages of the core classes to logcat
+ */
+public final class AndroidLogPrinter implements CoreLog.Printer {
+
+
+    private static final AndroidLogPrinter INSTANCE = new AndroidLogPrinter();
+
+
+    /**
+     * Make this the printer of {@link CoreLog}, safe to call more than once
+     */
+    public static void install() {
+        CoreLog.setPrinter(INSTANCE);
+    }
+
+
+    private AndroidLogPrinter() {
+    }
+
+
+    @Override
+    public void println(int priority, String tag, String message, Throwable tr) {
+        if (tr != null) {
+            message = message + '\n' + Log.getStackTraceString(tr);
+        }
+        Log.println(priority, tag, message);
+    }
+}
@@ -24,27 +24,31 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * 1. Need to say the EarthquakeActivity implements the LoaderCallbacks interface and specify what
  * it will return
  */
-public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Earthquake>> {
+public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<EarthquakeTable> {
 
 
     private static final String TAG = EarthquakeActivity.class.getName();
@@ -56,15 +60,57 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     private static final int EARTHQUAKE_LOADER_ID = 1;
 
 
+    /**
+     * Loaders for the following pages use this id plus their page number
+     */
+    private static final int PAGE_LOADER_ID_BASE = 100;
+
+
+    /**
+     * Bundle key for the url of a page loader
+     */
+    private static final String ARG_PAGE_URL = "page_url";
+
+
+    /**
+     * Never have more than this many pages loading at the same time
+     */
+    private static final int MAX_PAGES_IN_FLIGHT = 2;
+
+
+    /**
+     * Largest page size USGS accepts for a single query
+     */
+    private static final int MAX_PAGE_SIZE = 20000;
+
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+
+    /**
+     * {@link Metrics} histogram of applying a loader result to the list
+     */
+    private static final String METRIC_UI_UPDATE = "ui.update";
+
+
     private static final String USGS_REQUEST_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query";
 
 
+    /**
+     * Format of the list queries. The list only shows what CSV carries, in well under half the
+     * bytes of GeoJSON.
+     */
+    private static final WireFormat LIST_FORMAT = WireFormat.CSV;
+
+
     /**
      * UI Elements
      */
     private ListView earthquakeListView;
     private ProgressBar progressBar;
     private TextView textView;
+    private TextView metricsOverlay;
+    private TextView statsView;
     private Button reloadButton;
 
     /**
@@ -73,12 +119,58 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     private EarthquakeEventAdapter earthquakeEventAdapter;
 
 
+    /**
+     * Paging state. Page 0 comes from the {@link EarthquakeLoader}, the pages after it are
+     * prefetched by {@link EarthquakePageLoader}s as the list scrolls towards the end.
+     */
+    private int mPageSize;
+    // next page number that has not been requested yet
+    private int mNextPageToRequest;
+    // next page number to append, pages can finish out of order
+    private int mNextPageToAppend;
+    // pages that finished before the page in front of them
+    private final SparseArray<EarthquakeTable> mPendingPages = new SparseArray<>();
+    private int mPagesInFlight;
+    private boolean mLastPageReached;
+    // a time range is loaded in one go, so it is never paged
+    private boolean mTimeRangeQuery;
+    // rows in page 0, the following pages start after them
+    private int mFirstPageRows;
+    // the result page 0 was last built from, a refresh is compared against it
+    private EarthquakeTable mFirstPage;
+    // shown at a cold start until the first loader result arrives
+    private EarthquakeTable mSnapshot;
+
+    /**
+     * The query shown, and whether it was answered from already loaded data. A local answer
+     * is a subset of what the {@link EarthquakeQueryEngine} remembers, so it is not remembered.
+     */
+    private EarthquakeQueryEngine.Query mQuery;
+    private boolean mLocalAnswer;
+    // ids already in the adapter, pages can overlap when the catalog changes underneath us
+    private final HashSet<String> mShownIds = new HashSet<>();
+
+
+    /**
+     * Merges live activity from the summary feeds into the list while it is on screen
+     */
+    private EarthquakeFeedPoller mFeedPoller;
+
+
+    /**
+     * Statistics of the events in the list, kept up to date with every change to it
+     */
+    private SeismicityStats mStats;
+
+
     /**
      * These two methods are to inflate the menu
      */
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+        // the metrics overlay is a debugging aid
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -90,6 +182,13 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
             startActivity(settingsIntent);
             return true;
         }
+        if (id == R.id.action_metrics) {
+            boolean show = metricsOverlay.getVisibility() != View.VISIBLE;
+            metricsOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
+            item.setChecked(show);
+            updateMetricsOverlay();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
@@ -102,18 +201,33 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity_list);
 
+        // the fetch and parse code logs through CoreLog, send it to logcat
+        AndroidLogPrinter.install();
+
         // Find a reference to the views in the layout
         progressBar = (ProgressBar) findViewById(R.id.progressBar);
         textView = (TextView) findViewById(R.id.textView);
+        metricsOverlay = (TextView) findViewById(R.id.metrics_overlay);
+        statsView = (TextView) findViewById(R.id.stats);
         earthquakeListView = (ListView) findViewById(R.id.list);
 
         reloadButton = (Button) findViewById(R.id.Button_Reload);
         if (reloadButton != null) {
             reloadButton.setVisibility(View.GONE);
+            // try again after a failed load
+            reloadButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    reloadButton.setVisibility(View.GONE);
+                    textView.setVisibility(View.GONE);
+                    progressBar.setVisibility(View.VISIBLE);
+                    getLoaderManager().restartLoader(EARTHQUAKE_LOADER_ID, null, EarthquakeActivity.this);
+                }
+            });
         }
 
         // Create a new adapter that takes an empty list of earthquakes as input
-        earthquakeEventAdapter = new EarthquakeEventAdapter(this, new ArrayList<Earthquake>());
+        earthquakeEventAdapter = new EarthquakeEventAdapter(this, new EarthquakeTable());
 
         // Set the adapter on the {@link ListView}
         // so the list can be populated in the user interface
@@ -122,13 +236,27 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         // Set the empty state textView
         earthquakeListView.setEmptyView(findViewById(R.id.textView));
 
+        // prefetch the next page once the user gets within half a page of the end
+        earthquakeListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (totalItemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount - mPageSize / 2) {
+                    requestNextPage();
+                }
+            }
+        });
+
         // Set an item click listener on the ListView, which sends an intent to a web browser
         // to open a website with more information about the selected earthquake.
         earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 // Find the current earthquake that was clicked on
-                Earthquake currentEarthquake = earthquakeEventAdapter.getItem(position);
+                EarthquakeTable.Row currentEarthquake = earthquakeEventAdapter.getItem(position);
 
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
                 Uri earthquakeUri = Uri.parse(currentEarthquake.getLink());
@@ -152,11 +280,138 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         // get a reference to the LoaderManager, in order to interact with loaders.
         LoaderManager loaderManager = getLoaderManager();
 
+        mStats = createStats();
+
+        // on a cold start show the last result right away, the loader refreshes it behind it
+        if (loaderManager.getLoader(EARTHQUAKE_LOADER_ID) == null) {
+            showSnapshot();
+        }
+
         // initialize the loader. Pass in the int ID constant defined above and pass in null for
         // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
         // because this activity implements the LoaderCallbacks interface).
         loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
 
+        mFeedPoller = new EarthquakeFeedPoller(this, new EarthquakeFeedPoller.OnEarthquakesChangedListener() {
+            @Override
+            public void onEarthquakesChanged(EarthquakeTable changes) {
+                mergeLiveChanges(changes);
+            }
+        });
+
+    }
+
+
+    /**
+     * Show the snapshot of the last result for the user's settings, if there is one
+     */
+    private void showSnapshot() {
+
+        if (readTimeRangeDays() > 0) return;
+
+        long start = SystemClock.elapsedRealtime();
+        mPageSize = readPageSize();
+        EarthquakeTable snapshot = EarthquakeSnapshot.read(EarthquakeSnapshot.getFile(getCacheDir()), buildFirstPageUrl());
+        if (snapshot == null || snapshot.isEmpty()) return;
+
+        Log.v(TAG, "Showing a snapshot of " + snapshot.size() + " earthquakes after "
+                + (SystemClock.elapsedRealtime() - start) + " ms.");
+        mSnapshot = snapshot;
+        mFirstPage = snapshot;
+        // the refresh is applied as a diff to this page, so paging starts here and not there
+        resetPaging();
+        mFirstPageRows = snapshot.size();
+        mLastPageReached = snapshot.size() < mPageSize;
+        displayEarthquakes(snapshot);
+        updateStatsView();
+    }
+
+
+    /**
+     * Statistics over the time range of the user's settings, the loader's statistics window
+     * when there is none. Ranges of more than a week are counted per day instead of per hour.
+     */
+    private SeismicityStats createStats() {
+        int days = readTimeRangeDays();
+        if (days <= 0) {
+            return new SeismicityStats((int) (EarthquakeLoader.STATS_WINDOW_MS / SeismicityStats.HOUR_MS),
+                    SeismicityStats.HOUR_MS);
+        }
+        if (days <= 7) return new SeismicityStats(days * 24, SeismicityStats.HOUR_MS);
+        return new SeismicityStats(days, SeismicityStats.DAY_MS);
+    }
+
+
+    /**
+     * Show the statistics of the query's window above the list. A time range is loaded
+     * completely, without one the {@link EarthquakeLoader} adds the stored events of its window
+     * that are not paged in yet.
+     */
+    private void updateStatsView() {
+
+        mStats.advanceTo(System.currentTimeMillis());
+        if (mStats.getCount() == 0) {
+            statsView.setVisibility(View.GONE);
+            return;
+        }
+
+        long windowMs = mStats.getWindowMs();
+        String window = mStats.getSlotMs() == SeismicityStats.DAY_MS
+                ? getString(R.string.stats_window_days, windowMs / SeismicityStats.DAY_MS)
+                : getString(R.string.stats_window_hours, windowMs / SeismicityStats.HOUR_MS);
+        double b = mStats.getBValue();
+        String bValue = Double.isNaN(b)
+                ? getString(R.string.stats_b_value_unknown)
+                : getString(R.string.stats_b_value, b, mStats.getBValueError());
+        statsView.setText(getString(R.string.stats_summary,
+                mStats.getCount(), window, mStats.getRatePerHour(), bValue));
+        statsView.setVisibility(View.VISIBLE);
+    }
+
+
+    /**
+     * Apply the difference between two versions of the list to the statistics
+     */
+    private void updateStats(EarthquakeDiff diff) {
+        for (int row : diff.removed) {
+            mStats.remove(diff.oldTable.getId(row));
+        }
+        for (int row : diff.inserted) {
+            mStats.add(diff.newTable, row);
+        }
+        for (int row : diff.changed) {
+            mStats.add(diff.newTable, row);
+        }
+    }
+
+
+    /**
+     * onStart method, follow live activity while we are visible
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mFeedPoller.start();
+    }
+
+
+    /**
+     * onStop method, persist the HTTP cache while we are in the background and let go of
+     * cached results that are too old to be served anyway. The query is prefetched while we
+     * are gone, unless it is a time range, which is not kept in the store.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mFeedPoller.stop();
+        if (readTimeRangeDays() > 0) {
+            EarthquakePrefetch.cancel(this);
+        } else {
+            EarthquakePrefetch.schedule(this, buildFirstPageUrl());
+        }
+        HttpCache.flush();
+        EarthquakeResultCache.getInstance().trim();
+        Metrics.getInstance().log();
     }
 
 
@@ -174,31 +429,244 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
      * @return {@link EarthquakeLoader}
      */
     @Override
-    public Loader<List<Earthquake>> onCreateLoader(int i, Bundle bundle) {
+    public Loader<EarthquakeTable> onCreateLoader(int i, Bundle bundle) {
 
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        // later pages already know their url
+        if (i != EARTHQUAKE_LOADER_ID) {
+            return new EarthquakePageLoader(this, bundle.getString(ARG_PAGE_URL));
+        }
+
+        mPageSize = readPageSize();
+        int days = readTimeRangeDays();
+        mTimeRangeQuery = days > 0;
+        mQuery = new EarthquakeQueryEngine.Query(readMinMagnitude(), readOrderBy(), days);
+
+        // a narrower view of what is already loaded does not need the network
+        mLocalAnswer = EarthquakeQueryEngine.getInstance().canAnswer(mQuery);
+        if (mLocalAnswer) {
+            Log.v(TAG, "Answering the new settings from loaded data.");
+            return new EarthquakeQueryLoader(this, mQuery);
+        }
+
+        // a time range is loaded completely, split into windows USGS can answer
+        if (mTimeRangeQuery) {
+            long now = System.currentTimeMillis();
+            EarthquakeRangeLoader rangeLoader = new EarthquakeRangeLoader(
+                    this, buildQueryUri().toString(), now - days * DAY_MS, now);
+            rangeLoader.setOnProgressListener(new EarthquakeRangeLoader.OnProgressListener() {
+                @Override
+                public void onProgress(int windowsDone, int windowsTotal, int earthquakesLoaded) {
+                    textView.setText(getString(R.string.range_progress,
+                            windowsDone, windowsTotal, earthquakesLoaded));
+                }
+            });
+            return rangeLoader;
+        }
+
+        EarthquakeLoader loader = new EarthquakeLoader(this, buildFirstPageUrl());
+        // a snapshot on screen is refreshed like an earlier result of the same loader
+        loader.setShown(mSnapshot);
+        mSnapshot = null;
+        return loader;
+    }
+
+
+    /**
+     * Url of the first page of the user's settings, when it comes from the network
+     */
+    private String buildFirstPageUrl() {
+        return buildQueryUri()
+                .appendQueryParameter("limit", String.valueOf(mPageSize))
+                .toString();
+    }
+
+
+    /**
+     * Build the query shared by all pages from the user's settings
+     */
+    private Uri.Builder buildQueryUri() {
 
         // get minimum magnitude from shared preferences
-        String minMagnitude = sharedPrefs.getString(
+        String minMagnitude = readMinMagnitudeString();
+
+        // get order by from shared preferences
+        String orderBy = readOrderBy();
+
+        Uri baseUri = Uri.parse(USGS_REQUEST_URL);
+        Uri.Builder uriBuilder = baseUri.buildUpon();
+
+        uriBuilder.appendQueryParameter("format", LIST_FORMAT.getValue());
+        uriBuilder.appendQueryParameter("minmag", minMagnitude);
+        uriBuilder.appendQueryParameter("orderby", orderBy);
+
+        return uriBuilder;
+    }
+
+
+    /**
+     * Read the minimum magnitude from shared preferences, as entered
+     */
+    private String readMinMagnitudeString() {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        return sharedPrefs.getString(
                 getString(R.string.settings_min_magnitude_key),
                 getString(R.string.settings_min_magnitude_default)
         );
+    }
 
-        // get order by from shared preferences
-        String orderBy = sharedPrefs.getString(
+
+    /**
+     * Read the minimum magnitude from shared preferences as a number
+     */
+    private double readMinMagnitude() {
+        try {
+            return Double.parseDouble(readMinMagnitudeString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Read the order from shared preferences
+     */
+    private String readOrderBy() {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        return sharedPrefs.getString(
                 getString(R.string.settings_order_by_key),
                 getString(R.string.settings_order_by_default)
         );
+    }
 
-        Uri baseUri = Uri.parse(USGS_REQUEST_URL);
-        Uri.Builder uriBuilder = baseUri.buildUpon();
 
-        uriBuilder.appendQueryParameter("format", "geojson");
-        uriBuilder.appendQueryParameter("limit", "20");
-        uriBuilder.appendQueryParameter("minmag", minMagnitude);
-        uriBuilder.appendQueryParameter("orderby", orderBy);
+    /**
+     * Read the page size from shared preferences, kept within what USGS accepts
+     */
+    private int readPageSize() {
+
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        String pageSize = sharedPrefs.getString(
+                getString(R.string.settings_page_size_key),
+                getString(R.string.settings_page_size_default)
+        );
+
+        try {
+            return Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(pageSize)));
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(getString(R.string.settings_page_size_default));
+        }
+    }
+
+
+    /**
+     * Read the time range from shared preferences, in days, 0 for the latest events only
+     */
+    private int readTimeRangeDays() {
+
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        String days = sharedPrefs.getString(
+                getString(R.string.settings_time_range_key),
+                getString(R.string.settings_time_range_default)
+        );
+
+        try {
+            return Integer.parseInt(days);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Start loading the next page, unless we are at the end or enough pages are loading already
+     */
+    private void requestNextPage() {
+
+        if (mLastPageReached || mNextPageToRequest == 0 || mPagesInFlight >= MAX_PAGES_IN_FLIGHT) {
+            return;
+        }
+
+        int page = mNextPageToRequest++;
+        mPagesInFlight++;
+
+        // USGS offsets start counting at 1
+        int offset = mFirstPageRows + (page - 1) * mPageSize + 1;
+        Bundle args = new Bundle();
+        args.putString(ARG_PAGE_URL, buildQueryUri()
+                .appendQueryParameter("offset", String.valueOf(offset))
+                .appendQueryParameter("limit", String.valueOf(mPageSize))
+                .toString());
 
-        return new EarthquakeLoader(this, uriBuilder.toString());
+        Log.v(TAG, "Prefetching page " + page);
+        getLoaderManager().restartLoader(PAGE_LOADER_ID_BASE + page, args, this);
+    }
+
+
+    /**
+     * Append a finished page once every page before it has been appended
+     */
+    private void onPageLoaded(int page, EarthquakeTable earthquakes) {
+
+        // left over from before the first page was reloaded
+        if (page < mNextPageToAppend || page >= mNextPageToRequest) {
+            return;
+        }
+
+        mPagesInFlight--;
+        getLoaderManager().destroyLoader(PAGE_LOADER_ID_BASE + page);
+
+        // a failed page ends paging, scrolling to the end again will not retry it
+        mPendingPages.put(page, earthquakes == null ? new EarthquakeTable() : earthquakes);
+
+        EarthquakeTable next;
+        while ((next = mPendingPages.get(mNextPageToAppend)) != null) {
+            mPendingPages.remove(mNextPageToAppend);
+            mNextPageToAppend++;
+            if (next.size() < mPageSize) {
+                mLastPageReached = true;
+            }
+            EarthquakeTable appended = appendEarthquakes(next);
+            if (!mLocalAnswer) {
+                EarthquakeQueryEngine.getInstance().append(appended, mLastPageReached);
+            }
+        }
+    }
+
+
+    /**
+     * Forget all paging state, the first page is about to be shown again
+     */
+    private void resetPaging() {
+
+        for (int page = mNextPageToAppend; page < mNextPageToRequest; page++) {
+            getLoaderManager().destroyLoader(PAGE_LOADER_ID_BASE + page);
+        }
+        mPendingPages.clear();
+        mPagesInFlight = 0;
+        mNextPageToRequest = 1;
+        mNextPageToAppend = 1;
+        mLastPageReached = false;
+        mShownIds.clear();
+    }
+
+
+    /**
+     * Add earthquakes to the end of the list, skipping any that are shown already
+     *
+     * @return the earthquakes that were added
+     */
+    private EarthquakeTable appendEarthquakes(EarthquakeTable earthquakes) {
+
+        EarthquakeTable newEarthquakes = new EarthquakeTable(earthquakes.size());
+        for (int row = 0; row < earthquakes.size(); row++) {
+            String id = earthquakes.getId(row);
+            if (id == null || mShownIds.add(id)) {
+                newEarthquakes.addRow(earthquakes, row);
+            }
+        }
+        earthquakeEventAdapter.addAll(newEarthquakes);
+        mStats.addAll(newEarthquakes);
+        return newEarthquakes;
     }
 
 
@@ -207,17 +675,277 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
      * by updating the earthquake list in the adapter
      */
     @Override
-    public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> earthquakes) {
+    public void onLoadFinished(Loader<EarthquakeTable> loader, EarthquakeTable earthquakes) {
 
         Log.v(TAG, "onLoadFinished() called.");
 
+        // the adapter update only, the list lays itself out after we return
+        long start = System.nanoTime();
+        showLoadResult(loader, earthquakes);
+        Metrics.getInstance().recordSince(METRIC_UI_UPDATE, start);
+
+        // the list only holds the pages loaded so far, the statistics count the whole window
+        if (loader instanceof EarthquakeLoader) {
+            EarthquakeTable window = ((EarthquakeLoader) loader).getStatsWindow();
+            if (window != null) mStats.addAll(window);
+        }
+
+        updateStatsView();
+        updateMetricsOverlay();
+    }
+
+
+    /**
+     * Put the result of a loader in the list
+     */
+    private void showLoadResult(Loader<EarthquakeTable> loader, EarthquakeTable earthquakes) {
+
+        // a failure is told apart from a query without results
+        FetchException error = getLoadError(loader, earthquakes);
+
+        // a prefetched page, add it to the end of the list
+        if (loader.getId() != EARTHQUAKE_LOADER_ID) {
+            if (error != null) {
+                Toast.makeText(this, getString(R.string.error_more, describeError(error)), Toast.LENGTH_LONG).show();
+            }
+            onPageLoaded(loader.getId() - PAGE_LOADER_ID_BASE, earthquakes);
+            return;
+        }
+
         textView.setVisibility(View.GONE);
+        if (error != null && earthquakes != null && !earthquakes.isEmpty()) {
+            Toast.makeText(this, getString(R.string.error_showing_saved, describeError(error)), Toast.LENGTH_LONG).show();
+        }
+
+        // a refresh of the page on screen only applies what changed
+        EarthquakeDiff diff = loader instanceof EarthquakeLoader
+                ? ((EarthquakeLoader) loader).getDiff(earthquakes)
+                : null;
+        if (diff != null && diff.oldTable == mFirstPage && !earthquakeEventAdapter.isEmpty()) {
+            applyDiff(diff);
+            return;
+        }
+        mFirstPage = earthquakes;
 
-        // clear the adapter of previous earthquake data
+        // clear the adapter of previous earthquake data and start paging over
         earthquakeEventAdapter.clear();
+        resetPaging();
+        // the settings may have changed the time range
+        mStats = createStats();
+        mFirstPageRows = earthquakes == null ? 0 : earthquakes.size();
+        if (loader instanceof EarthquakeQueryLoader) {
+            mLastPageReached = mTimeRangeQuery || ((EarthquakeQueryLoader) loader).isComplete();
+        } else {
+            mLastPageReached = mTimeRangeQuery || earthquakes == null || earthquakes.size() < mPageSize;
+            // remember the result so later settings changes can be answered from it
+            if (earthquakes != null && !earthquakes.isEmpty()) {
+                EarthquakeQueryEngine.getInstance().remember(mQuery, earthquakes, mLastPageReached);
+            }
+        }
 
         // call display earthquakes to update the UI
-        displayEarthquakes(earthquakes);
+        displayEarthquakes(earthquakes, error);
+    }
+
+
+    /**
+     * Return why the result of a loader is not a fresh answer from USGS, or null if it is
+     */
+    private static FetchException getLoadError(Loader<EarthquakeTable> loader, EarthquakeTable earthquakes) {
+        if (loader instanceof EarthquakeLoader) {
+            return ((EarthquakeLoader) loader).getError(earthquakes);
+        }
+        if (loader instanceof EarthquakePageLoader) {
+            return ((EarthquakePageLoader) loader).getError(earthquakes);
+        }
+        if (loader instanceof EarthquakeRangeLoader) {
+            return ((EarthquakeRangeLoader) loader).getError(earthquakes);
+        }
+        return null;
+    }
+
+
+    /**
+     * Say what went wrong, in words for the user
+     */
+    private String describeError(FetchException error) {
+        switch (error.getKind()) {
+            case TIMEOUT:
+                return getString(R.string.error_timeout);
+            case SERVER:
+                return getString(R.string.error_server, error.getResponseCode());
+            case CLIENT:
+                return getString(R.string.error_client, error.getResponseCode());
+            case PARSE:
+                return getString(R.string.error_parse);
+            case CIRCUIT_OPEN:
+                return getString(R.string.error_unavailable);
+            default:
+                return getString(R.string.error_network);
+        }
+    }
+
+
+    /**
+     * Bring the list up to date with a refreshed first page, touching only what changed and
+     * keeping the pages appended after it and the scroll position
+     */
+    private void applyDiff(EarthquakeDiff diff) {
+
+        EarthquakeTable earthquakes = diff.newTable;
+        mFirstPage = earthquakes;
+
+        if (diff.isEmpty()) {
+            // still remembered below, the result may be the first the engine sees
+            Log.v(TAG, "Refresh changed nothing.");
+        } else if (!diff.isStructural()) {
+            // same events in the same places, rebind only the updated ones
+            Log.v(TAG, "Refresh updated " + diff.changed.length + " earthquakes in place.");
+            updateStats(diff);
+            for (int row : diff.changed) {
+                earthquakeEventAdapter.updateRow(earthquakeListView, row, earthquakes, row);
+            }
+        } else {
+            Log.v(TAG, "Refresh inserted " + diff.inserted.length + ", removed " + diff.removed.length
+                    + " and moved " + diff.moved.length + " earthquakes.");
+
+            // the new first page, what it pushed off its end and then the appended pages
+            EarthquakeTable shown = earthquakeEventAdapter.getEvents();
+            FirstPageMerge merge = FirstPageMerge.merge(shown, mFirstPageRows, earthquakes,
+                    earthquakes.size() >= mPageSize, readOrderBy());
+            EarthquakeTable merged = merge.merged;
+            mShownIds.clear();
+            for (int row = 0; row < merged.size(); row++) {
+                mShownIds.add(merged.getId(row));
+            }
+
+            // the diff only covers the first page, the stats cover the whole list
+            updateStats(EarthquakeDiff.compute(shown, merged));
+            replaceShown(merged);
+            mFirstPageRows = merge.firstPageRows;
+        }
+
+        if (!mLocalAnswer) {
+            EarthquakeQueryEngine.getInstance().remember(mQuery, earthquakeEventAdapter.getEvents(), mLastPageReached);
+        }
+    }
+
+
+    /**
+     * Merge events that are new or were updated, as reported by the {@link EarthquakeFeedPoller},
+     * into the list by event id. New events are only added where they fall between the rows
+     * already loaded, the ones sorting after them belong to pages still to come. Events revised
+     * below the minimum magnitude leave the list.
+     */
+    private void mergeLiveChanges(EarthquakeTable changes) {
+
+        EarthquakeTable shown = earthquakeEventAdapter.getEvents();
+        if (shown.isEmpty()) return;
+
+        String orderBy = readOrderBy();
+        double minMagnitude = readMinMagnitude();
+
+        // rows of the changes by event id, whatever is left over afterwards is new
+        HashMap<String, Integer> changedRows = new HashMap<>();
+        for (int row = 0; row < changes.size(); row++) {
+            changedRows.put(changes.getId(row), row);
+        }
+
+        EarthquakeTable merged = new EarthquakeTable(shown.size() + changes.size());
+        int dropped = 0;
+        for (int row = 0; row < shown.size(); row++) {
+            Integer changed = changedRows.remove(shown.getId(row));
+            if (changed != null && changes.getMagnitude(changed) < minMagnitude) {
+                // the query would no longer return it
+                mShownIds.remove(shown.getId(row));
+                dropped++;
+            } else if (changed != null) {
+                merged.addRow(changes, changed);
+            } else {
+                merged.addRow(shown, row);
+            }
+        }
+
+        double lastKey = shown.sortKey(shown.size() - 1, orderBy);
+        int added = 0;
+        for (int row : changedRows.values()) {
+            if (changes.getMagnitude(row) >= minMagnitude
+                    && (mLastPageReached || changes.sortKey(row, orderBy) <= lastKey)) {
+                merged.addRow(changes, row);
+                mShownIds.add(changes.getId(row));
+                added++;
+            }
+        }
+        if (added > 0) {
+            int[] rows = new int[merged.size()];
+            for (int row = 0; row < rows.length; row++) {
+                rows[row] = row;
+            }
+            merged.sortRows(rows, orderBy);
+            merged = merged.select(rows);
+        }
+
+        // the statistics cover the window, not only the rows shown
+        for (int row = 0; row < changes.size(); row++) {
+            if (changes.getMagnitude(row) >= minMagnitude) {
+                mStats.add(changes, row);
+            } else {
+                mStats.remove(changes.getId(row));
+            }
+        }
+        updateStatsView();
+
+        EarthquakeDiff diff = EarthquakeDiff.compute(shown, merged);
+        if (diff.isEmpty()) return;
+
+        if (!diff.isStructural()) {
+            Log.v(TAG, "Live update changed " + diff.changed.length + " earthquakes in place.");
+            for (int row : diff.changed) {
+                earthquakeEventAdapter.updateRow(earthquakeListView, row, merged, row);
+            }
+        } else {
+            Log.v(TAG, "Live update added " + added + " and dropped " + dropped + " earthquakes.");
+            replaceShown(merged);
+            // the server's offsets for the following pages moved by the events that arrived or left
+            mFirstPageRows += added - dropped;
+        }
+    }
+
+
+    /**
+     * Show a new set of rows, keeping the event at the top of the screen where it was
+     */
+    private void replaceShown(EarthquakeTable earthquakes) {
+
+        // remember which event is at the top of the screen and how far it is scrolled
+        EarthquakeTable shown = earthquakeEventAdapter.getEvents();
+        int firstVisible = earthquakeListView.getFirstVisiblePosition();
+        View topView = earthquakeListView.getChildAt(0);
+        int topOffset = topView == null ? 0 : topView.getTop();
+        String anchorId = firstVisible < shown.size() ? shown.getId(firstVisible) : null;
+
+        earthquakeEventAdapter.replaceAll(earthquakes);
+
+        // put that event back where it was
+        if (anchorId != null) {
+            for (int row = 0; row < earthquakes.size(); row++) {
+                if (anchorId.equals(earthquakes.getId(row))) {
+                    earthquakeListView.setSelectionFromTop(row, topOffset);
+                    break;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Show the current {@link Metrics} over the list, if the overlay is turned on, along with
+     * what background prefetching has cost so far
+     */
+    private void updateMetricsOverlay() {
+        if (metricsOverlay.getVisibility() == View.VISIBLE) {
+            metricsOverlay.setText(Metrics.getInstance().dump() + EarthquakePrefetch.describeCost(this));
+        }
     }
 
 
@@ -225,12 +953,18 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
      * onLoaderReset() when the loader is reset
      */
     @Override
-    public void onLoaderReset(Loader<List<Earthquake>> loader) {
+    public void onLoaderReset(Loader<EarthquakeTable> loader) {
 
         Log.v(TAG, "onLoaderReset() called.");
 
+        // a page going away does not affect what is shown
+        if (loader.getId() != EARTHQUAKE_LOADER_ID) {
+            return;
+        }
+
         // loader reset, so we can clear out our existing data.
         earthquakeEventAdapter.clear();
+        mStats.clear();
 
     }
 
@@ -240,12 +974,26 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
      *
      * @param earthquakes
      */
-    private void displayEarthquakes(List<Earthquake> earthquakes) {
+    private void displayEarthquakes(EarthquakeTable earthquakes) {
+        displayEarthquakes(earthquakes, null);
+    }
+
+
+    /**
+     * Same as {@link #displayEarthquakes(EarthquakeTable)}, but an empty result that comes
+     * with an error says what went wrong instead of that there are no earthquakes
+     */
+    private void displayEarthquakes(EarthquakeTable earthquakes, FetchException error) {
 
         if (earthquakes == null || earthquakes.isEmpty()) {
 
+            // no connection at all is said as before, other failures by what they were
+            if (error != null && CheckInternetStatus(this)) {
+                displayLoadError(error);
+            }
+
             // if we have a good internet connection
-            if (CheckInternetStatus(this)) {
+            else if (CheckInternetStatus(this)) {
                 // hide loading bar
                 progressBar.setVisibility(View.INVISIBLE);
                 // hide reload button
@@ -273,12 +1021,29 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
 
             // If there is a valid list of {@link Earthquake}s, then add them to the adapter's
             // data set. This will trigger the ListView to update.
-            earthquakeEventAdapter.addAll(earthquakes);
+            appendEarthquakes(earthquakes);
             earthquakeListView.setVisibility(View.VISIBLE);
         }
     }
 
 
+    /**
+     * displayLoadError() tells the user why nothing could be loaded and offers to try again
+     */
+    private void displayLoadError(FetchException error) {
+        // hide loading bar
+        progressBar.setVisibility(View.INVISIBLE);
+        // hide list
+        earthquakeListView.setVisibility(View.GONE);
+        // update and show status
+        Log.v(TAG, "Loading failed: " + error.getKind());
+        textView.setText(describeError(error));
+        earthquakeListView.getEmptyView().setVisibility(View.VISIBLE);
+        // show reload button
+        reloadButton.setVisibility(View.VISIBLE);
+    }
+
+
     /**
      * displayBadConnection() updates the UI to inform the user they have no internet connection
      */
@@ -0,0 +1,48 @@
+package com.example.android.quakereport;
+
+import android.provider.BaseColumns;
+
+/**
+ * Table and column names for the local earthquake database.
+ */
+public final class EarthquakeContract {
+
+
+    /**
+     * This class only holds constants, so no instances are needed.
+     */
+    private EarthquakeContract() {
+    }
+
+
+    /**
+     * One row per USGS event
+     */
+    public static final class EarthquakeEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "earthquakes";
+
+        public static final String COLUMN_EVENT_ID = "event_id";
+        public static final String COLUMN_TITLE = "title";
+        public static final String COLUMN_PLACE = "place";
+        public static final String COLUMN_LATITUDE = "latitude";
+        public static final String COLUMN_LONGITUDE = "longitude";
+        public static final String COLUMN_MAGNITUDE = "magnitude";
+        public static final String COLUMN_DEPTH = "depth";
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_FELT = "felt";
+        public static final String COLUMN_UPDATED = "updated";
+    }
+
+
+    /**
+     * One row per query url, holding the newest update time seen for it
+     */
+    public static final class SyncEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "sync_state";
+
+        public static final String COLUMN_QUERY = "query";
+        public static final String COLUMN_LAST_UPDATED = "last_updated";
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.android.quakereport.EarthquakeContract.EarthquakeEntry;
+import com.example.android.quakereport.EarthquakeContract.SyncEntry;
+
+/**
+ * Creates and upgrades the local earthquake database.
+ */
+public class EarthquakeDbHelper extends SQLiteOpenHelper {
+
+
+    private static final String DATABASE_NAME = "earthquakes.db";
+
+    /**
+     * Bump when the schema changes, the data is only a cache of USGS so upgrades start over
+     */
+    private static final int DATABASE_VERSION = 2;
+
+
+    public EarthquakeDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+
+        db.execSQL("CREATE TABLE " + EarthquakeEntry.TABLE_NAME + " ("
+                + EarthquakeEntry.COLUMN_EVENT_ID + " TEXT PRIMARY KEY, "
+                + EarthquakeEntry.COLUMN_TITLE + " TEXT, "
+                + EarthquakeEntry.COLUMN_PLACE + " TEXT, "
+                + EarthquakeEntry.COLUMN_LATITUDE + " REAL, "
+                + EarthquakeEntry.COLUMN_LONGITUDE + " REAL, "
+                + EarthquakeEntry.COLUMN_MAGNITUDE + " REAL, "
+                + EarthquakeEntry.COLUMN_DEPTH + " REAL, "
+                + EarthquakeEntry.COLUMN_TIME + " INTEGER, "
+                + EarthquakeEntry.COLUMN_FELT + " INTEGER, "
+                + EarthquakeEntry.COLUMN_UPDATED + " INTEGER);");
+
+        // the list is always ordered by one of these
+        db.execSQL("CREATE INDEX idx_magnitude ON " + EarthquakeEntry.TABLE_NAME
+                + " (" + EarthquakeEntry.COLUMN_MAGNITUDE + ");");
+        db.execSQL("CREATE INDEX idx_time ON " + EarthquakeEntry.TABLE_NAME
+                + " (" + EarthquakeEntry.COLUMN_TIME + ");");
+
+        db.execSQL("CREATE TABLE " + SyncEntry.TABLE_NAME + " ("
+                + SyncEntry.COLUMN_QUERY + " TEXT PRIMARY KEY, "
+                + SyncEntry.COLUMN_LAST_UPDATED + " INTEGER);");
+    }
+
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + EarthquakeEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + SyncEntry.TABLE_NAME);
+        onCreate(db);
+    }
+}
@@ -8,96 +8,180 @@ import android.support.v4.content.ContextCompat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
 
 
+// the adapter reads its rows straight out of an EarthquakeTable
+public class EarthquakeEventAdapter extends BaseAdapter {
 
-// have to specify that the array adapter will be taking ArrayList of earthquakeEvents
-public class EarthquakeEventAdapter extends ArrayAdapter<Earthquake> {
+    private final Context mContext;
 
-    // default constructor takes the context and an ArrayList of events
-    public EarthquakeEventAdapter(@NonNull Context context, @NonNull List<Earthquake> events) {
-        // resource is 0 (not using it)
-        super(context, 0, events);
+    // the events shown in the list
+    private final EarthquakeTable mEvents;
+
+    // reused for every bind, so binding a row does not create a row object
+    private final EarthquakeTable.Row mRow;
+
+    // magnitude circle colors, indexed by whole magnitude
+    private final int[] mMagColors;
+
+    // default constructor takes the context and a table of events
+    public EarthquakeEventAdapter(@NonNull Context context, @NonNull EarthquakeTable events) {
+        mContext = context;
+        mEvents = events;
+        mRow = events.row(0);
+        mMagColors = resolveMagColors(context);
     }
 
-    // now we override the view setup
-    @NonNull
-    @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+    // add rows to the end of the list
+    public void addAll(EarthquakeTable events) {
+        mEvents.addAll(events);
+        notifyDataSetChanged();
+    }
 
-        // get the data at this position
-        Earthquake event = getItem(position);
+    // remove every row
+    public void clear() {
+        mEvents.clear();
+        notifyDataSetChanged();
+    }
 
-        // check if an existing view is being reused, otherwise inflate the view
-        if (convertView == null) {
-            convertView = LayoutInflater.from(getContext()).inflate(R.layout.earthquake_event, parent, false);
+    // replace every row with the rows of another table
+    public void replaceAll(EarthquakeTable events) {
+        mEvents.clear();
+        mEvents.addAll(events);
+        notifyDataSetChanged();
+    }
+
+    // the rows shown, read only
+    public EarthquakeTable getEvents() {
+        return mEvents;
+    }
+
+    // overwrite a single row and rebind it if it is on screen, nothing else is rebound
+    public void updateRow(ListView listView, int position, EarthquakeTable source, int row) {
+        mEvents.setRow(position, source, row);
+        View child = listView.getChildAt(position - listView.getFirstVisiblePosition());
+        if (child != null && position >= listView.getFirstVisiblePosition()
+                && position <= listView.getLastVisiblePosition()) {
+            getView(position, child, listView);
         }
+    }
 
-        // look up the fields we want to populate
-        TextView magnitudeTextView = (TextView) convertView.findViewById(R.id.TextView_Magnitude);
-        TextView proxTextView      = (TextView) convertView.findViewById(R.id.TextView_Proximity);
-        TextView cityTextView      = (TextView) convertView.findViewById(R.id.TextView_City);
-        TextView dateTextView      = (TextView) convertView.findViewById(R.id.TextView_Date);
+    public Context getContext() {
+        return mContext;
+    }
 
-        // populate the text fields with data from our event objects
+    @Override
+    public int getCount() {
+        return mEvents.size();
+    }
 
-        // make sure decimal is only 1 decimal place
-        DecimalFormat decimalFormat = new DecimalFormat("0.0");
-        String decimalString = decimalFormat.format(event.getmMagnitude());
-        magnitudeTextView.setText(decimalString);
+    // a standalone cursor, safe to keep after the list moves on
+    @Override
+    public EarthquakeTable.Row getItem(int position) {
+        return mEvents.row(position);
+    }
 
-        // split up location into proximity and city
-        String fullLocation = event.getmPlace();
+    // ids follow the event, not the position, so the list keeps its place when rows move
+    @Override
+    public long getItemId(int position) {
+        String id = mEvents.getId(position);
+        return id == null ? position : id.hashCode();
+    }
 
-        // find proximity and city
-        String proximity;
-        String city;
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    // now we override the view setup
+    @NonNull
+    @Override
+    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
 
-        if (fullLocation.toLowerCase().contains("of")) {
-            proximity = fullLocation.substring(0, fullLocation.indexOf("of") + 3);
-            city = fullLocation.substring(fullLocation.indexOf("of") + 3, fullLocation.length());
+        // point the shared cursor at this position
+        EarthquakeTable.Row event = mRow.moveTo(position);
+
+        // check if an existing view is being reused, otherwise inflate the view and look up
+        // the fields we want to populate once
+        ViewHolder holder;
+        if (convertView == null) {
+            convertView = LayoutInflater.from(getContext()).inflate(R.layout.earthquake_event, parent, false);
+            holder = new ViewHolder(convertView);
+            convertView.setTag(holder);
         } else {
-            proximity = null;
-            city = fullLocation;
+            holder = (ViewHolder) convertView.getTag();
         }
 
-        // set the text fields
+        // populate the text fields with the strings the loader prepared
+        holder.magnitudeTextView.setText(event.getDisplayMagnitude());
+
+        // the place was split into proximity and city when the data was loaded
+        String proximity = event.getProximity();
         if (proximity == null) {
-            proxTextView.setVisibility(View.GONE);
+            holder.proxTextView.setVisibility(View.GONE);
         } else {
-            proxTextView.setText(proximity);
+            holder.proxTextView.setVisibility(View.VISIBLE);
+            holder.proxTextView.setText(proximity);
+        }
+        holder.cityTextView.setText(event.getRegion());
+        holder.dateTextView.setText(event.getDisplayDate());
+
+        // Set the proper background color on the magnitude circle, only when it changes
+        int color = findMagColor(event.getMagnitude());
+        if (color != holder.magnitudeColor) {
+            holder.magnitudeCircle.setColor(color);
+            holder.magnitudeColor = color;
         }
-        cityTextView.setText(city);
-
-        // convert int to proper date format
-        Date d = new Date(event.getmDate());
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM d, yy\nh:mm a", Locale.US);
-        dateTextView.setText(dateFormat.format(d));
-
-        // Set the proper background color on the magnitude circle.
-        // Fetch the background from the TextView, which is a GradientDrawable.
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
-        // set the color depending on the magnitude
-        magnitudeCircle.setColor(findMagColor(event.getmMagnitude()));
 
         // return the completed view to be rendered on screen
         return convertView;
 
     }
 
+    // views of one row, kept in the row's tag so they are only looked up once
+    private static class ViewHolder {
+
+        final TextView magnitudeTextView;
+        final TextView proxTextView;
+        final TextView cityTextView;
+        final TextView dateTextView;
+        // background of the magnitude TextView, which is a GradientDrawable
+        final GradientDrawable magnitudeCircle;
+        int magnitudeColor;
+
+        ViewHolder(View view) {
+            magnitudeTextView = (TextView) view.findViewById(R.id.TextView_Magnitude);
+            proxTextView      = (TextView) view.findViewById(R.id.TextView_Proximity);
+            cityTextView      = (TextView) view.findViewById(R.id.TextView_City);
+            dateTextView      = (TextView) view.findViewById(R.id.TextView_Date);
+            // mutate so setting the color does not touch the state shared with other rows
+            magnitudeCircle   = (GradientDrawable) magnitudeTextView.getBackground().mutate();
+        }
+    }
+
     // returns the color based on given magnitude
     int findMagColor(double magnitude) {
+        int mag = (int) Math.floor(magnitude);
+        return mMagColors[Math.max(0, Math.min(mMagColors.length - 1, mag))];
+    }
+
+    // resolves the color for every whole magnitude from 0 to 10+, done once per adapter
+    private static int[] resolveMagColors(Context context) {
+        int[] colors = new int[11];
+        for (int mag = 0; mag < colors.length; mag++) {
+            colors[mag] = ContextCompat.getColor(context, magColorResource(mag));
+        }
+        return colors;
+    }
+
+    // returns the color resource for a whole magnitude
+    private static int magColorResource(int mag) {
 
         int magResourceId;
-        int mag = (int) Math.floor(magnitude);
         switch (mag) {
             case 0:
             case 1:
@@ -130,7 +214,7 @@ public class EarthquakeEventAdapter extends ArrayAdapter<Earthquake> {
             default:
                 magResourceId = R.color.magnitude10plus;
         }
-        return ContextCompat.getColor(getContext(), magResourceId);
+        return magResourceId;
     }
 }
 
@@ -0,0 +1,266 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Watches for new activity by polling the small USGS summary feeds instead of re-running the
+ * full query. Each feed is requested conditionally, so an unchanged feed costs a 304. Events
+ * that are new or were updated since they were last seen are stored and handed to the
+ * listener on the main thread.
+ *
+ * The interval adapts: it is halved while recent events keep arriving and doubled, up to a
+ * limit, while the feed is quiet or the requests fail.
+ */
+public class EarthquakeFeedPoller {
+
+
+    /**
+     * Tag for log messages
+     */
+    private static final String TAG = EarthquakeFeedPoller.class.getName();
+
+
+    /**
+     * Summary feeds of all events in the past hour and the past day, both are updated by USGS
+     * every minute
+     */
+    private static final String HOUR_FEED_URL =
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/all_hour.geojson";
+    private static final String DAY_FEED_URL =
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/all_day.geojson";
+
+
+    /**
+     * Bounds of the polling interval, and where it starts
+     */
+    private static final long MIN_INTERVAL_MS = 60 * 1000;
+    private static final long MAX_INTERVAL_MS = 30 * 60 * 1000;
+    private static final long INITIAL_INTERVAL_MS = 2 * 60 * 1000;
+
+
+    /**
+     * Events that happened this recently count as live activity and tighten the interval
+     */
+    private static final long RECENT_EVENT_MS = 60 * 60 * 1000;
+
+
+    /**
+     * The hour feed only covers the past hour, after a longer gap the day feed is read instead.
+     * Reading it at least this often also lets us forget events that dropped out of it.
+     */
+    private static final long DAY_FEED_AFTER_MS = 50 * 60 * 1000;
+
+
+    /**
+     * Receives the events that changed since the last poll, on the main thread
+     */
+    public interface OnEarthquakesChangedListener {
+        void onEarthquakesChanged(EarthquakeTable changes);
+    }
+
+
+    private final Context mContext;
+    private final EarthquakeRepository mRepository;
+    private final OnEarthquakesChangedListener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+
+    /**
+     * Polls run one after the other on this thread, null while stopped. The token cancels the
+     * poll in progress when polling stops. Only touched on the main thread.
+     */
+    private HandlerThread mThread;
+    private CancellationToken mCancellation;
+
+
+    /**
+     * Poll state, guarded by mPollLock. The thread of a stopped poller may still be finishing a
+     * poll when the next start() begins another on a new thread, and a poll holds the lock for
+     * as long as it runs so the two never interleave.
+     */
+    private final Object mPollLock = new Object();
+    private long mInterval = INITIAL_INTERVAL_MS;
+    private long mLastSuccess;
+    private final QueryUtils.Validators mHourValidators = new QueryUtils.Validators();
+    private final QueryUtils.Validators mDayValidators = new QueryUtils.Validators();
+    // update time of every event we have seen, by event id
+    private final HashMap<String, Long> mSeen = new HashMap<>();
+
+
+    public EarthquakeFeedPoller(Context context, OnEarthquakesChangedListener listener) {
+        mContext = context.getApplicationContext();
+        mRepository = SqliteEarthquakeRepository.getInstance(context);
+        mListener = listener;
+    }
+
+
+    /**
+     * Start polling, right away. Call from the main thread.
+     */
+    public void start() {
+        if (mThread != null) return;
+
+        mThread = new HandlerThread("FeedPoller");
+        mThread.start();
+        mCancellation = new CancellationToken();
+        Handler pollHandler = new Handler(mThread.getLooper());
+        pollHandler.post(new Poll(pollHandler, mCancellation));
+        Log.v(TAG, "Started polling.");
+    }
+
+
+    /**
+     * Stop polling, a poll in progress is canceled and nothing it read is delivered. Call from
+     * the main thread.
+     */
+    public void stop() {
+        if (mThread == null) return;
+
+        mCancellation.cancel();
+        mThread.quit();
+        mThread = null;
+        mCancellation = null;
+        Log.v(TAG, "Stopped polling.");
+    }
+
+
+    /**
+     * Polls the feed on one poll thread until its token is canceled
+     */
+    private final class Poll implements Runnable {
+
+        private final Handler mHandler;
+        private final CancellationToken mToken;
+
+        Poll(Handler handler, CancellationToken token) {
+            mHandler = handler;
+            mToken = token;
+        }
+
+        @Override
+        public void run() {
+            long delay;
+            synchronized (mPollLock) {
+                if (mToken.isCanceled()) return;
+                delay = poll(mToken);
+            }
+            // stopped while polling, the thread is on its way out
+            if (!mToken.isCanceled()) {
+                mHandler.postDelayed(this, delay);
+            }
+        }
+    }
+
+
+    /**
+     * Read the feed, merge what changed and return how long to wait before the next poll.
+     * Called with mPollLock held.
+     */
+    private long poll(CancellationToken token) {
+
+        long now = SystemClock.elapsedRealtime();
+        boolean dayFeed = mLastSuccess == 0 || now - mLastSuccess > DAY_FEED_AFTER_MS;
+        String url = dayFeed ? DAY_FEED_URL : HOUR_FEED_URL;
+
+        HttpCache.install(mContext.getCacheDir());
+        EarthquakeTable feed = new EarthquakeTable();
+        boolean modified;
+        try {
+            modified = QueryUtils.fetchIfChanged(url, dayFeed ? mDayValidators : mHourValidators, feed,
+                    RequestScheduler.Priority.BACKGROUND, token);
+        } catch (FetchCanceledException e) {
+            if (token.isCanceled()) {
+                Log.v(TAG, "Poll of " + url + " stopped.");
+                return mInterval;
+            }
+            // preempted by a request for the screen, which is busy enough without us
+            Log.v(TAG, "Poll of " + url + " made way for a more important request.");
+            return backOff();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not poll " + url, e);
+            return backOff();
+        }
+        mLastSuccess = now;
+
+        // a feed read in full is merged even if polling stopped meanwhile, as the validators
+        // already point past it
+        if (!modified) {
+            Log.v(TAG, "Feed not modified.");
+            return backOff();
+        }
+
+        // keep only events that are new, or newer than the version we have
+        EarthquakeTable changes = new EarthquakeTable();
+        boolean recent = false;
+        long recentSince = System.currentTimeMillis() - RECENT_EVENT_MS;
+        for (int row = 0; row < feed.size(); row++) {
+            String id = feed.getId(row);
+            if (id == null) continue;
+            Long seen = mSeen.get(id);
+            if (seen == null || seen < feed.getUpdated(row)) {
+                mSeen.put(id, feed.getUpdated(row));
+                changes.addRow(feed, row);
+                recent |= feed.getTime(row) >= recentSince;
+            }
+        }
+
+        // the day feed holds everything still worth remembering
+        if (dayFeed) {
+            HashSet<String> inFeed = new HashSet<>(feed.size());
+            for (int row = 0; row < feed.size(); row++) {
+                inFeed.add(feed.getId(row));
+            }
+            mSeen.keySet().retainAll(inFeed);
+        }
+
+        if (changes.isEmpty()) {
+            Log.v(TAG, "No new or updated events in the feed.");
+            return backOff();
+        }
+
+        Log.v(TAG, "Feed has " + changes.size() + " new or updated events.");
+        mRepository.upsert(changes);
+        EarthquakeFormatter.format(changes);
+        deliver(changes, token);
+
+        // only fresh events mean something is going on, an old event being revised does not
+        if (recent) {
+            mInterval = Math.max(MIN_INTERVAL_MS, mInterval / 2);
+        }
+        return mInterval;
+    }
+
+
+    /**
+     * Nothing happening, or the request failed, wait twice as long next time
+     */
+    private long backOff() {
+        mInterval = Math.min(MAX_INTERVAL_MS, mInterval * 2);
+        return mInterval;
+    }
+
+
+    /**
+     * Hand the changes to the listener, unless polling was stopped in the meantime
+     */
+    private void deliver(final EarthquakeTable changes, final CancellationToken token) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // stop() cancels on the main thread, so this cannot change before the listener returns
+                if (!token.isCanceled()) {
+                    mListener.onEarthquakesChanged(changes);
+                }
+            }
+        });
+    }
+}
@@ -2,15 +2,20 @@ package com.example.android.quakereport;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
-import java.util.List;
-
 /**
  * Loads a list of earthquakes by using an AsyncTask to perform the
  * network request to the given URL.
+ *
+ * Results are kept in an {@link EarthquakeRepository}. The stored events are shown right away
+ * and the network request only asks USGS for events updated since the last sync of the same
+ * query, which are then merged into the store by event id.
  */
-public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
+public class EarthquakeLoader extends AsyncTaskLoader<EarthquakeTable> {
 
 
     /**
@@ -19,12 +24,105 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
     private static final String TAG = EarthquakeLoader.class.getName();
 
 
+    /**
+     * Number of events to show when the query url has no limit
+     */
+    private static final int DEFAULT_LIMIT = 20;
+
+
+    /**
+     * How far back a query without a starttime reaches, USGS uses the past 30 days
+     */
+    static final long DEFAULT_WINDOW_MS = 30L * 24 * 60 * 60 * 1000;
+
+
+    /**
+     * Events asked for per request while syncing, USGS allows up to 20000
+     */
+    static final int SYNC_PAGE_SIZE = 1000;
+
+
+    /**
+     * Window of the statistics above the list, they count every stored event in it and not
+     * only the rows paged in so far
+     */
+    static final long STATS_WINDOW_MS = 24L * 60 * 60 * 1000;
+
+
+    /**
+     * {@link Metrics} histogram of the whole load, from the stored result to the diff
+     */
+    static final String METRIC_LOAD = "loader.load";
+
+
+    /**
+     * {@link Metrics} counter of loads canceled before they delivered, by any of the loaders
+     */
+    static final String METRIC_CANCELED = "loader.canceled";
+
+
     /**
      * Query URL
      */
     private String mUrl;
 
 
+    /**
+     * Local store the query is synced into
+     */
+    private final EarthquakeRepository mRepository;
+
+
+    /**
+     * Used to hand the locally stored result to the UI before the sync has finished
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+
+    /**
+     * Last result delivered, re-delivered when the loader is started again
+     */
+    private volatile EarthquakeTable mEarthquakes;
+
+
+    /**
+     * Difference between the last two results, worked out on the background thread so the UI
+     * only has to apply it
+     */
+    private volatile EarthquakeDiff mDiff;
+
+
+    /**
+     * Every stored event of the query within {@link #STATS_WINDOW_MS}, as of the last result
+     */
+    private volatile EarthquakeTable mStatsWindow;
+
+
+    /**
+     * What the screen shows before the first result, such as a snapshot, the first result is
+     * compared against it
+     */
+    private volatile EarthquakeTable mShown;
+
+
+    /**
+     * Cancels the load that is running, null while none is
+     */
+    private volatile CancellationToken mCancellation;
+
+
+    /**
+     * Error behind the last result, null if it was fresh
+     */
+    private volatile LoadError mError;
+
+
+    /**
+     * Why the sync of the running load failed, only used on the background thread
+     */
+    private FetchException mSyncError;
+
+
     /**
      * Constructs a new {@link EarthquakeLoader}.
      *
@@ -34,6 +132,7 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
     public EarthquakeLoader(Context context, String url) {
         super(context);
         mUrl = url;
+        mRepository = SqliteEarthquakeRepository.getInstance(context);
         Log.v(TAG, "Default EarthquakeLoader constructor called.");
     }
 
@@ -43,22 +142,289 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
      */
     @Override
     protected void onStartLoading() {
+        if (mEarthquakes != null) {
+            deliverResult(mEarthquakes);
+        }
         forceLoad();
         Log.v(TAG, "Call forceLoad() from onStartLoading().");
     }
 
 
+    @Override
+    protected void onStopLoading() {
+        // nobody is looking anymore, stop downloading for them
+        cancelLoad();
+    }
+
+
+    /**
+     * Cancel a running load all the way down, aborting its request and parse instead of only
+     * dropping its result. cancelLoadInBackground() is meant for this but only exists from
+     * API 16, this works on every version.
+     */
+    @Override
+    public boolean cancelLoad() {
+        CancellationToken cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+        return super.cancelLoad();
+    }
+
+
+    @Override
+    public void onCanceled(EarthquakeTable earthquakes) {
+        super.onCanceled(earthquakes);
+        Metrics.getInstance().counter(METRIC_CANCELED).increment();
+    }
+
+
+    /**
+     * Keep the result so it can be shown again without a reload
+     */
+    @Override
+    public void deliverResult(EarthquakeTable earthquakes) {
+        mEarthquakes = earthquakes;
+        super.deliverResult(earthquakes);
+    }
+
+
+    /**
+     * Return how the given result differs from the one delivered before it, or null if that
+     * is not known
+     */
+    public EarthquakeDiff getDiff(EarthquakeTable earthquakes) {
+        EarthquakeDiff diff = mDiff;
+        return diff != null && diff.newTable == earthquakes ? diff : null;
+    }
+
+
+    /**
+     * Return every stored event of the query within {@link #STATS_WINDOW_MS}, read along with
+     * the last result, or null if none has been read yet
+     */
+    public EarthquakeTable getStatsWindow() {
+        return mStatsWindow;
+    }
+
+
+    /**
+     * Return why the given result is not a fresh answer from USGS, or null if it is
+     */
+    public FetchException getError(EarthquakeTable earthquakes) {
+        return LoadError.of(mError, earthquakes);
+    }
+
+
+    /**
+     * Tell the loader what is already on screen, so its first result is delivered as a
+     * difference from it and the stored result is not shown first
+     */
+    public void setShown(EarthquakeTable earthquakes) {
+        mShown = earthquakes;
+    }
+
+
     /**
      * This is on a background thread.
      */
     @Override
-    public List<Earthquake> loadInBackground() {
+    public EarthquakeTable loadInBackground() {
+        long start = System.nanoTime();
+        // cache USGS responses on disk so a refresh of unchanged data is only a revalidation
+        HttpCache.install(getContext().getCacheDir());
+        CancellationToken cancellation = new CancellationToken();
+        mCancellation = cancellation;
+        EarthquakeTable earthquakes;
+        mSyncError = null;
+        try {
+            earthquakes = load(cancellation);
+        } finally {
+            mCancellation = null;
+        }
+        if (earthquakes == null && cancellation.isCanceled()) {
+            return null;
+        }
+
+        // compare with what is shown, by event id and update time
+        EarthquakeTable previous = mEarthquakes != null ? mEarthquakes : mShown;
+        boolean changed = previous == null;
+        if (earthquakes != null && previous != null && earthquakes != previous) {
+            mDiff = EarthquakeDiff.compute(previous, earthquakes);
+            changed = !mDiff.isEmpty();
+        }
+
+        // keep the newest result for the next cold start
+        if (earthquakes != null && !earthquakes.isEmpty() && changed) {
+            EarthquakeSnapshot.write(EarthquakeSnapshot.getFile(getContext().getCacheDir()), mUrl, earthquakes);
+        }
+        if (earthquakes != null) {
+            mStatsWindow = queryStoredSince(mRepository, mUrl, System.currentTimeMillis() - STATS_WINDOW_MS);
+        }
+        mError = mSyncError != null ? new LoadError(earthquakes, mSyncError) : null;
+        Metrics.getInstance().recordSince(METRIC_LOAD, start);
+        return earthquakes;
+    }
+
+
+    /**
+     * Show the stored result, sync with USGS and return the refreshed result. If the sync
+     * fails the stored result is returned and the error kept in {@link #mSyncError}.
+     *
+     * @return null if canceled during the sync
+     */
+    private EarthquakeTable load(CancellationToken cancellation) {
         if (mUrl == null) {
             return null;
         }
         Log.v(TAG, "loadInBackground() called.");
-        // Perform the network request, parse the response, and extract a list of earthquakes.
-        List<Earthquake> earthquakes = QueryUtils.getEarthquakesFromURL(mUrl);
+
+        // show what we already have while the sync runs
+        final EarthquakeTable stored = queryStored(mRepository, mUrl);
+        if (!stored.isEmpty() && mEarthquakes == null && mShown == null) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isStarted() && !isAbandoned() && mEarthquakes == null) {
+                        deliverResult(stored);
+                    }
+                }
+            });
+        }
+
+        FetchResult result;
+        try {
+            result = sync(mRepository, mUrl, RequestScheduler.Priority.VISIBLE, cancellation);
+        } catch (FetchCanceledException e) {
+            Log.v(TAG, "Sync canceled.");
+            return null;
+        }
+        mSyncError = result.getError();
+        EarthquakeTable changes = result.getTable();
+        if (changes == null) {
+            Log.v(TAG, "Sync failed, showing stored earthquakes.");
+            return stored;
+        }
+        if (changes.isEmpty()) {
+            Log.v(TAG, "No changes since last sync.");
+            return stored;
+        }
+        return queryStored(mRepository, mUrl);
+    }
+
+
+    /**
+     * Return the stored earthquakes of a query url, formatted for display. Only events within
+     * the query's time window count, the store also holds older ones that USGS no longer
+     * returns for it.
+     */
+    static EarthquakeTable queryStored(EarthquakeRepository repository, String url) {
+
+        Uri uri = Uri.parse(url);
+        double minMagnitude = parseDouble(uri.getQueryParameter("minmag"), 0);
+        String orderBy = uri.getQueryParameter("orderby");
+        int limit = (int) parseDouble(uri.getQueryParameter("limit"), DEFAULT_LIMIT);
+        long startTime = parseTime(uri.getQueryParameter("starttime"),
+                System.currentTimeMillis() - DEFAULT_WINDOW_MS);
+
+        EarthquakeTable earthquakes = repository.query(minMagnitude, startTime, orderBy, limit);
+        EarthquakeFormatter.format(earthquakes);
         return earthquakes;
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Return every stored earthquake of a query url since the given time, whatever page size
+     * the url asks for. Not formatted, they are only counted.
+     */
+    static EarthquakeTable queryStoredSince(EarthquakeRepository repository, String url, long startTime) {
+        Uri uri = Uri.parse(url);
+        double minMagnitude = parseDouble(uri.getQueryParameter("minmag"), 0);
+        return repository.query(minMagnitude, startTime, "time", Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Ask USGS for the events of a query url updated since its last sync, merge them into the
+     * store and move the sync point past them. Also used by the {@link EarthquakePrefetchService}
+     * to sync while the app is not running.
+     *
+     * The sync covers the query's whole time window, not only the page the url asks for: the
+     * changes are read page by page until USGS runs out of them, and the sync point only moves
+     * once every page has been read. Pages are read oldest first, so events arriving meanwhile
+     * land after the pages still to come instead of shifting their offsets.
+     *
+     * @return the changes, an empty table if there were none. If a page fails, the changes read
+     * before it are returned as stale with its error and the sync point stays where it was.
+     * @throws FetchCanceledException if the token was canceled
+     */
+    static FetchResult sync(EarthquakeRepository repository, String url, RequestScheduler.Priority priority,
+                            CancellationToken cancellation) throws FetchCanceledException {
+
+        // the window of the query without its page, and only events updated since the last sync
+        long lastSync = repository.getLastSync(url);
+        Uri uri = Uri.parse(url);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (name.equals("limit") || name.equals("offset") || name.equals("orderby")) continue;
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        builder.appendQueryParameter("orderby", "time-asc");
+        if (lastSync > 0) {
+            builder.appendQueryParameter("updatedafter", UsgsTime.format(lastSync));
+        }
+        String syncUrl = builder.build().toString();
+
+        EarthquakeTable changes = new EarthquakeTable();
+        for (int offset = 1; ; offset += SYNC_PAGE_SIZE) {
+            String pageUrl = syncUrl + "&limit=" + SYNC_PAGE_SIZE + "&offset=" + offset;
+            FetchResult page = QueryUtils.fetchEarthquakeTable(pageUrl, priority, cancellation);
+            if (!page.isFresh()) {
+                Log.w(TAG, "Sync stopped after " + changes.size() + " changed earthquakes.");
+                return changes.isEmpty()
+                        ? FetchResult.failed(page.getError())
+                        : FetchResult.stale(changes, page.getError());
+            }
+
+            // stored right away, an upsert of the same event again is harmless
+            EarthquakeTable pageChanges = page.getTable();
+            repository.upsert(pageChanges);
+            changes.addAll(pageChanges);
+            if (pageChanges.size() < SYNC_PAGE_SIZE) break;
+        }
+        if (changes.isEmpty()) {
+            return FetchResult.fresh(changes);
+        }
+
+        // every page is in, move the sync point to the newest update we have seen
+        long newestUpdate = lastSync;
+        for (int row = 0; row < changes.size(); row++) {
+            newestUpdate = Math.max(newestUpdate, changes.getUpdated(row));
+        }
+        repository.setLastSync(url, newestUpdate);
+        Log.v(TAG, "Synced " + changes.size() + " changed earthquakes.");
+        return FetchResult.fresh(changes);
+    }
+
+
+    private static long parseTime(String value, long fallback) {
+        if (value == null) return fallback;
+        try {
+            return UsgsTime.parse(value);
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+
+    private static double parseDouble(String value, double fallback) {
+        if (value == null) return fallback;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
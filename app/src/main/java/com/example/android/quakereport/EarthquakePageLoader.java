@@ -0,0 +1,136 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Loads one page of a USGS query, i.e. a query url that already carries its offset and limit.
+ * Every page is also written to the {@link EarthquakeRepository} so it is available offline.
+ */
+public class EarthquakePageLoader extends AsyncTaskLoader<EarthquakeTable> {
+
+
+    /**
+     * Tag for log messages
+     */
+    private static final String TAG = EarthquakePageLoader.class.getName();
+
+
+    /**
+     * Page query URL
+     */
+    private final String mUrl;
+
+
+    /**
+     * Last result delivered, re-delivered when the loader is started again
+     */
+    private EarthquakeTable mEarthquakes;
+
+
+    /**
+     * Cancels the load that is running, null while none is
+     */
+    private volatile CancellationToken mCancellation;
+
+
+    /**
+     * Error behind the last result, null if it was fresh
+     */
+    private volatile LoadError mError;
+
+
+    /**
+     * Constructs a new {@link EarthquakePageLoader}.
+     *
+     * @param context of the activity
+     * @param url     of the page to load, including offset and limit
+     */
+    public EarthquakePageLoader(Context context, String url) {
+        super(context);
+        mUrl = url;
+    }
+
+
+    @Override
+    protected void onStartLoading() {
+        if (mEarthquakes != null) {
+            deliverResult(mEarthquakes);
+        } else {
+            forceLoad();
+        }
+    }
+
+
+    @Override
+    protected void onStopLoading() {
+        // nobody is looking anymore, stop downloading for them
+        cancelLoad();
+    }
+
+
+    /**
+     * Cancel a running load all the way down, aborting its request and parse instead of only
+     * dropping its result. cancelLoadInBackground() is meant for this but only exists from
+     * API 16, this works on every version.
+     */
+    @Override
+    public boolean cancelLoad() {
+        CancellationToken cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+        return super.cancelLoad();
+    }
+
+
+    @Override
+    public void onCanceled(EarthquakeTable earthquakes) {
+        super.onCanceled(earthquakes);
+        Metrics.getInstance().counter(EarthquakeLoader.METRIC_CANCELED).increment();
+    }
+
+
+    @Override
+    public void deliverResult(EarthquakeTable earthquakes) {
+        mEarthquakes = earthquakes;
+        super.deliverResult(earthquakes);
+    }
+
+
+    /**
+     * Return why the given result is not a fresh answer from USGS, or null if it is
+     */
+    public FetchException getError(EarthquakeTable earthquakes) {
+        return LoadError.of(mError, earthquakes);
+    }
+
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public EarthquakeTable loadInBackground() {
+        Log.v(TAG, "Loading page " + mUrl);
+        HttpCache.install(getContext().getCacheDir());
+        CancellationToken cancellation = new CancellationToken();
+        mCancellation = cancellation;
+        try {
+            // null when failed with nothing cached
+            FetchResult result = QueryUtils.fetchEarthquakeTable(mUrl, RequestScheduler.Priority.PREFETCH, cancellation);
+            EarthquakeTable earthquakes = result.getTable();
+            mError = result.isFresh() ? null : new LoadError(earthquakes, result.getError());
+            if (earthquakes != null) {
+                SqliteEarthquakeRepository.getInstance(getContext()).upsert(earthquakes);
+                EarthquakeFormatter.format(earthquakes);
+            }
+            return earthquakes;
+        } catch (FetchCanceledException e) {
+            // the result would be dropped anyway
+            return null;
+        } finally {
+            mCancellation = null;
+        }
+    }
+}
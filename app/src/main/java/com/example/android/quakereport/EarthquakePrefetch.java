@@ -0,0 +1,132 @@
+package com.example.android.quakereport;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.PersistableBundle;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Schedules the {@link EarthquakePrefetchService} and keeps what its runs cost. JobScheduler
+ * exists from API 21, below that nothing is prefetched. These methods live apart from the service because the service
+ * extends JobService, and a class whose superclass is missing cannot even be loaded on the
+ * older versions.
+ */
+public final class EarthquakePrefetch {
+
+
+    private static final String TAG = EarthquakePrefetch.class.getSimpleName();
+
+
+    private static final int JOB_ID = 1;
+
+
+    /**
+     * Extra of the job holding the url to prefetch
+     */
+    static final String EXTRA_URL = "url";
+
+
+    /**
+     * How often the job runs at most, it waits for the device to be idle on top of that
+     */
+    private static final long PERIOD_MS = 6 * 60 * 60 * 1000;
+
+
+    /**
+     * Preferences holding the cost of all runs so far. The job often runs in a process started
+     * for it alone, whose {@link Metrics} go away with it.
+     */
+    private static final String PREFS_NAME = "prefetch_cost";
+    private static final String PREF_RUNS = "runs";
+    private static final String PREF_TIME_MS = "time_ms";
+    private static final String PREF_CPU_MS = "cpu_ms";
+    private static final String PREF_BYTES = "bytes";
+
+
+    /**
+     * This class only holds static methods, so no instances are needed.
+     */
+    private EarthquakePrefetch() {
+    }
+
+
+    /**
+     * Prefetch the given query from now on, replacing the query prefetched so far. Does nothing
+     * if it is already scheduled for the same url, which would restart its period.
+     */
+    public static void schedule(Context context, String url) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(context, url);
+        }
+    }
+
+
+    /**
+     * Stop prefetching, for a query that is not kept in the store
+     */
+    public static void cancel(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            scheduler.cancel(JOB_ID);
+        }
+    }
+
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context, String url) {
+
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID && url.equals(pending.getExtras().getString(EXTRA_URL))) {
+                return;
+            }
+        }
+
+        PersistableBundle extras = new PersistableBundle();
+        extras.putString(EXTRA_URL, url);
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, EarthquakePrefetchService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(PERIOD_MS)
+                .setPersisted(true)
+                .setExtras(extras)
+                .build();
+        if (scheduler.schedule(job) == JobScheduler.RESULT_SUCCESS) {
+            Log.v(TAG, "Scheduled prefetching " + url);
+        } else {
+            Log.w(TAG, "Could not schedule prefetching " + url);
+        }
+    }
+
+
+    /**
+     * Add the cost of one run to the totals
+     */
+    static void recordCost(Context context, long timeMs, long cpuMs, long bytes) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit()
+                .putLong(PREF_RUNS, prefs.getLong(PREF_RUNS, 0) + 1)
+                .putLong(PREF_TIME_MS, prefs.getLong(PREF_TIME_MS, 0) + timeMs)
+                .putLong(PREF_CPU_MS, prefs.getLong(PREF_CPU_MS, 0) + cpuMs)
+                .putLong(PREF_BYTES, prefs.getLong(PREF_BYTES, 0) + bytes)
+                .commit();
+    }
+
+
+    /**
+     * @return the cost of all runs so far, as a line of the metrics overlay
+     */
+    static String describeCost(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return String.format(Locale.US, "%-16s runs=%d time=%d ms cpu=%d ms bytes=%d%n", "prefetch.total",
+                prefs.getLong(PREF_RUNS, 0), prefs.getLong(PREF_TIME_MS, 0),
+                prefs.getLong(PREF_CPU_MS, 0), prefs.getLong(PREF_BYTES, 0));
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.quakereport;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.net.TrafficStats;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Syncs the user's query in the background, so the next launch finds the store and the snapshot
+ * fresh and can show them without waiting on the network. The job only runs while the device
+ * is idle and on an unmetered network, at {@link RequestScheduler.Priority#BACKGROUND} so it
+ * makes way for the app if that starts meanwhile.
+ *
+ * The job is scheduled through {@link EarthquakePrefetch}, with the url of the activity's first
+ * page, and reads no settings of its own.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class EarthquakePrefetchService extends JobService {
+
+
+    private static final String TAG = EarthquakePrefetchService.class.getSimpleName();
+
+
+    /**
+     * Names of the {@link Metrics} of what the job costs: its wall and CPU time, and the bytes
+     * the app sent and received while it ran. Each run also logs its cost and adds it to the
+     * totals of {@link EarthquakePrefetch#recordCost}, which outlive the process.
+     */
+    static final String METRIC_RUNS = "prefetch.runs";
+    static final String METRIC_TIME = "prefetch.time";
+    static final String METRIC_CPU = "prefetch.cpu";
+    static final String METRIC_BYTES = "prefetch.bytes";
+    static final String METRIC_EARTHQUAKES = "prefetch.earthquakes";
+    static final String METRIC_FAILED = "prefetch.failed";
+    static final String METRIC_STOPPED = "prefetch.stopped";
+    static final String METRIC_TRIMMED = "prefetch.trimmed";
+
+
+    /**
+     * Most earthquakes kept in the store, about a month of events of every magnitude worldwide.
+     * The loaders only ever add to the store, so the job also keeps it within this.
+     */
+    static final int MAX_STORED_EARTHQUAKES = 20000;
+
+
+    /**
+     * Cancels the run in progress, null while none is. Only touched on the main thread.
+     */
+    private CancellationToken mCancellation;
+
+
+    /**
+     * Called on the main thread, the sync runs on a thread of its own
+     */
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+
+        final String url = params.getExtras().getString(EarthquakePrefetch.EXTRA_URL);
+        if (url == null) return false;
+
+        final CancellationToken cancellation = new CancellationToken();
+        mCancellation = cancellation;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean retry = prefetch(url, cancellation);
+                jobFinished(params, retry);
+            }
+        }, "usgs-prefetch").start();
+        return true;
+    }
+
+
+    /**
+     * The device is no longer idle or the network no longer unmetered, stop using it
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mCancellation != null) {
+            mCancellation.cancel();
+            mCancellation = null;
+        }
+        Metrics.getInstance().counter(METRIC_STOPPED).increment();
+        // the next period is soon enough
+        return false;
+    }
+
+
+    /**
+     * Sync the query into the store, snapshot its first page and trim the store
+     *
+     * @return true if the sync failed in a way a later attempt may not
+     */
+    private boolean prefetch(String url, CancellationToken cancellation) {
+
+        Metrics metrics = Metrics.getInstance();
+        metrics.counter(METRIC_RUNS).increment();
+        long start = System.nanoTime();
+        long cpuStart = Debug.threadCpuTimeNanos();
+        long bytesStart = getAppBytes();
+
+        // the process may have been started for the job alone
+        HttpCache.install(getCacheDir());
+        EarthquakeRepository repository = SqliteEarthquakeRepository.getInstance(this);
+        boolean retry = false;
+        try {
+            FetchResult result = EarthquakeLoader.sync(repository, url, RequestScheduler.Priority.BACKGROUND,
+                    cancellation);
+            if (result.isFresh()) {
+                EarthquakeTable changes = result.getTable();
+                Log.v(TAG, "Prefetched " + changes.size() + " changed earthquakes.");
+                metrics.counter(METRIC_EARTHQUAKES).add(changes.size());
+                File snapshot = EarthquakeSnapshot.getFile(getCacheDir());
+                if (!changes.isEmpty() || !snapshot.exists()) {
+                    EarthquakeTable firstPage = EarthquakeLoader.queryStored(repository, url);
+                    if (!firstPage.isEmpty()) {
+                        EarthquakeSnapshot.write(snapshot, url, firstPage);
+                    }
+                }
+            } else {
+                Log.w(TAG, "Could not prefetch " + url, result.getError());
+                metrics.counter(METRIC_FAILED).increment();
+                retry = result.getError().isRetryable();
+            }
+
+            int trimmed = repository.trim(MAX_STORED_EARTHQUAKES);
+            metrics.counter(METRIC_TRIMMED).add(trimmed);
+            if (trimmed > 0) {
+                Log.v(TAG, "Trimmed " + trimmed + " old earthquakes from the store.");
+            }
+        } catch (FetchCanceledException e) {
+            Log.v(TAG, "Prefetch stopped.");
+        } finally {
+            HttpCache.flush();
+            long cpuNanos = Debug.threadCpuTimeNanos() - cpuStart;
+            metrics.histogram(METRIC_CPU).recordNanos(cpuNanos);
+            long bytesEnd = getAppBytes();
+            long bytes = bytesStart >= 0 && bytesEnd >= 0 ? bytesEnd - bytesStart : 0;
+            metrics.counter(METRIC_BYTES).add(bytes);
+            long timeNanos = System.nanoTime() - start;
+            metrics.histogram(METRIC_TIME).recordNanos(timeNanos);
+
+            // nothing else reports them in a process started for the job alone
+            Log.i(TAG, "Prefetch took " + timeNanos / 1000000 + " ms, " + cpuNanos / 1000000
+                    + " ms of CPU and " + bytes + " bytes.");
+            metrics.log();
+            EarthquakePrefetch.recordCost(this, timeNanos / 1000000, cpuNanos / 1000000, bytes);
+        }
+        return retry;
+    }
+
+
+    /**
+     * @return the bytes the app sent and received since boot, or -1 if the device does not
+     * count them. Anything else the app transfers meanwhile is counted as well.
+     */
+    private static long getAppBytes() {
+        int uid = Process.myUid();
+        long received = TrafficStats.getUidRxBytes(uid);
+        long sent = TrafficStats.getUidTxBytes(uid);
+        if (received == TrafficStats.UNSUPPORTED || sent == TrafficStats.UNSUPPORTED) return -1;
+        return received + sent;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Answers a query from the earthquakes already loaded, through the {@link EarthquakeQueryEngine},
+ * without going to the network. Filtering and sorting a large result still takes a moment, so
+ * it is done on a background thread like any other load.
+ */
+public class EarthquakeQueryLoader extends AsyncTaskLoader<EarthquakeTable> {
+
+
+    /**
+     * Tag for log messages
+     */
+    private static final String TAG = EarthquakeQueryLoader.class.getName();
+
+
+    private final EarthquakeQueryEngine.Query mQuery;
+
+
+    /**
+     * Last result delivered, re-delivered when the loader is started again
+     */
+    private EarthquakeTable mEarthquakes;
+
+    // true if the answer holds every matching event
+    private volatile boolean mComplete;
+
+
+    public EarthquakeQueryLoader(Context context, EarthquakeQueryEngine.Query query) {
+        super(context);
+        mQuery = query;
+    }
+
+
+    /**
+     * @return true if the last answer holds every matching event, so there is nothing to page in
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+
+    @Override
+    protected void onStartLoading() {
+        if (mEarthquakes != null) {
+            deliverResult(mEarthquakes);
+        } else {
+            forceLoad();
+        }
+    }
+
+
+    @Override
+    public void deliverResult(EarthquakeTable earthquakes) {
+        mEarthquakes = earthquakes;
+        super.deliverResult(earthquakes);
+    }
+
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public EarthquakeTable loadInBackground() {
+        EarthquakeQueryEngine.Result result = EarthquakeQueryEngine.getInstance().answer(mQuery);
+        mComplete = result.complete;
+        Log.v(TAG, "Answered locally with " + result.earthquakes.size() + " earthquakes.");
+        return result.earthquakes;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Loads every event of a query over a time range with an {@link EarthquakeFetchPlanner}, which
+ * splits the range into windows small enough for USGS and fetches them in parallel.
+ */
+public class EarthquakeRangeLoader extends AsyncTaskLoader<EarthquakeTable> {
+
+
+    /**
+     * Tag for log messages
+     */
+    private static final String TAG = EarthquakeRangeLoader.class.getName();
+
+
+    /**
+     * Told on the UI thread how far the load has got
+     */
+    public interface OnProgressListener {
+        void onProgress(int windowsDone, int windowsTotal, int earthquakesLoaded);
+    }
+
+
+    /**
+     * Query URL, without a time range
+     */
+    private final String mUrl;
+
+    private final long mStartTime;
+    private final long mEndTime;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private OnProgressListener mProgressListener;
+
+
+    /**
+     * Last result delivered, re-delivered when the loader is started again
+     */
+    private EarthquakeTable mEarthquakes;
+
+
+    /**
+     * Cancels the load that is running, null while none is
+     */
+    private volatile CancellationToken mCancellation;
+
+
+    /**
+     * Error behind the last result, null if it was fresh
+     */
+    private volatile LoadError mError;
+
+
+    /**
+     * Constructs a new {@link EarthquakeRangeLoader}.
+     *
+     * @param context   of the activity
+     * @param url       to load data from, without starttime or endtime
+     * @param startTime start of the range in milliseconds since the epoch
+     * @param endTime   end of the range in milliseconds since the epoch
+     */
+    public EarthquakeRangeLoader(Context context, String url, long startTime, long endTime) {
+        super(context);
+        mUrl = url;
+        mStartTime = startTime;
+        mEndTime = endTime;
+    }
+
+
+    public void setOnProgressListener(OnProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+
+    @Override
+    protected void onStartLoading() {
+        if (mEarthquakes != null) {
+            deliverResult(mEarthquakes);
+        } else {
+            forceLoad();
+        }
+    }
+
+
+    @Override
+    protected void onStopLoading() {
+        // nobody is looking anymore, stop downloading for them
+        cancelLoad();
+    }
+
+
+    /**
+     * Cancel a running load all the way down, aborting its request and parse instead of only
+     * dropping its result. cancelLoadInBackground() is meant for this but only exists from
+     * API 16, this works on every version.
+     */
+    @Override
+    public boolean cancelLoad() {
+        CancellationToken cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+        return super.cancelLoad();
+    }
+
+
+    @Override
+    public void onCanceled(EarthquakeTable earthquakes) {
+        super.onCanceled(earthquakes);
+        Metrics.getInstance().counter(EarthquakeLoader.METRIC_CANCELED).increment();
+    }
+
+
+    @Override
+    public void deliverResult(EarthquakeTable earthquakes) {
+        mEarthquakes = earthquakes;
+        super.deliverResult(earthquakes);
+    }
+
+
+    /**
+     * Return why the given result is not a fresh answer from USGS, or null if it is
+     */
+    public FetchException getError(EarthquakeTable earthquakes) {
+        return LoadError.of(mError, earthquakes);
+    }
+
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public EarthquakeTable loadInBackground() {
+
+        Log.v(TAG, "Loading range " + mUrl);
+        HttpCache.install(getContext().getCacheDir());
+
+        // the list waits on this load, it must not queue behind prefetched pages
+        EarthquakeFetchPlanner planner = new EarthquakeFetchPlanner(mUrl,
+                EarthquakeFetchPlanner.MAX_EVENTS_PER_QUERY, RequestScheduler.Priority.VISIBLE);
+        String orderBy = Uri.parse(mUrl).getQueryParameter("orderby");
+        CancellationToken cancellation = new CancellationToken();
+        mCancellation = cancellation;
+
+        try {
+            EarthquakeTable earthquakes = planner.fetch(mStartTime, mEndTime, orderBy,
+                    new EarthquakeFetchPlanner.ProgressListener() {
+                        @Override
+                        public void onProgress(final int windowsDone, final int windowsTotal,
+                                               final int earthquakesLoaded) {
+                            postProgress(windowsDone, windowsTotal, earthquakesLoaded);
+                        }
+                    }, cancellation);
+            SqliteEarthquakeRepository.getInstance(getContext()).upsert(earthquakes);
+            EarthquakeFormatter.format(earthquakes);
+            mError = null;
+            return earthquakes;
+        } catch (FetchCanceledException e) {
+            Log.v(TAG, "Canceled loading range " + mUrl);
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "!!! Could not load the range !!!", e);
+            mError = new LoadError(null, FetchException.from(e));
+            return null;
+        } finally {
+            mCancellation = null;
+        }
+    }
+
+
+    /**
+     * Hand progress from a fetching thread to the listener on the UI thread
+     */
+    private void postProgress(final int windowsDone, final int windowsTotal, final int earthquakesLoaded) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mProgressListener != null && isStarted()) {
+                    mProgressListener.onProgress(windowsDone, windowsTotal, earthquakesLoaded);
+                }
+            }
+        });
+    }
+}
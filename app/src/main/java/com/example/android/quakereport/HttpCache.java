@@ -0,0 +1,66 @@
+package com.example.android.quakereport;
+
+import android.net.http.HttpResponseCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The on-disk HTTP response cache of the app. Requests made by {@link QueryUtils} go through
+ * it once it is installed. Installing opens the cache on disk, so every loader, the feed poller
+ * and the prefetch job install it on their own thread before their first request, and the UI
+ * thread never does.
+ */
+public final class HttpCache {
+
+
+    private static final String TAG = HttpCache.class.getSimpleName();
+
+
+    /**
+     * Upper bound for the on-disk HTTP response cache, least recently used entries are evicted
+     */
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024; /* bytes */
+
+
+    /**
+     * This class only holds static methods, so no instances are needed.
+     */
+    private HttpCache() {
+    }
+
+
+    /**
+     * Install an on-disk response cache for all HttpURLConnections, keyed by request url.
+     * Cached responses are revalidated with If-None-Match / If-Modified-Since, so an unchanged
+     * result is answered with a 304 and served from disk. Safe to call more than once and
+     * from several threads, only the first call does any work. Reads the disk, so never call it
+     * from the UI thread.
+     */
+    public static synchronized void install(File cacheDir) {
+
+        // already installed by an earlier activity instance
+        if (HttpResponseCache.getInstalled() != null) return;
+
+        try {
+            HttpResponseCache.install(new File(cacheDir, "http"), HTTP_CACHE_SIZE);
+        } catch (IOException e) {
+            Log.e(TAG, "!!! Could not install the HTTP response cache !!!", e);
+        }
+    }
+
+
+    /**
+     * Write pending cache entries to disk, call when the app goes to the background
+     */
+    public static void flush() {
+
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        if (cache != null) {
+            cache.flush();
+            Log.d(TAG, "HTTP cache: " + cache.getRequestCount() + " requests, "
+                    + cache.getNetworkCount() + " from network, " + cache.getHitCount() + " from disk");
+        }
+    }
+}
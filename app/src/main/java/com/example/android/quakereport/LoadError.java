@@ -0,0 +1,27 @@
+package com.example.android.quakereport;
+
+/**
+ * Why a loader delivered what it did instead of a fresh result from USGS: stored or cached
+ * earthquakes shown in its place, or nothing at all. A loader keeps the error of its last
+ * result and only hands it out for that result, as {@link EarthquakeLoader#getDiff} does.
+ */
+final class LoadError {
+
+
+    private final EarthquakeTable mTable;
+    private final FetchException mError;
+
+
+    LoadError(EarthquakeTable table, FetchException error) {
+        mTable = table;
+        mError = error;
+    }
+
+
+    /**
+     * @return the error if it belongs to the given result, null otherwise or if there is none
+     */
+    static FetchException of(LoadError loadError, EarthquakeTable earthquakes) {
+        return loadError != null && loadError.mTable == earthquakes ? loadError.mError : null;
+    }
+}
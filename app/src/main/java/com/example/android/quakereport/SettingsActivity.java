@@ -28,6 +28,12 @@ public class SettingsActivity extends AppCompatActivity {
 
             Preference orderBy = findPreference(getString(R.string.settings_order_by_key));
             bindPreferenceSummaryToValue(orderBy);
+
+            Preference pageSize = findPreference(getString(R.string.settings_page_size_key));
+            bindPreferenceSummaryToValue(pageSize);
+
+            Preference timeRange = findPreference(getString(R.string.settings_time_range_key));
+            bindPreferenceSummaryToValue(timeRange);
         }
 
         @Override
@@ -0,0 +1,230 @@
+package com.example.android.quakereport;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.quakereport.EarthquakeContract.EarthquakeEntry;
+import com.example.android.quakereport.EarthquakeContract.SyncEntry;
+
+/**
+ * {@link EarthquakeRepository} backed by the SQLite database from {@link EarthquakeDbHelper}.
+ */
+public class SqliteEarthquakeRepository implements EarthquakeRepository {
+
+
+    /**
+     * Insert or replace an event, unless the store already holds a newer revision of it. Pages
+     * can come from a cache and be older than what a sync stored. SQLite before 3.24, which is
+     * every version up to Android 10, has no ON CONFLICT DO UPDATE, so the check is a WHERE
+     * NOT EXISTS in the same statement. Parameters are numbered because the id and the update
+     * time are used twice.
+     */
+    private static final String UPSERT_SQL = "INSERT OR REPLACE INTO " + EarthquakeEntry.TABLE_NAME + " ("
+            + EarthquakeEntry.COLUMN_EVENT_ID + ", "
+            + EarthquakeEntry.COLUMN_TITLE + ", "
+            + EarthquakeEntry.COLUMN_PLACE + ", "
+            + EarthquakeEntry.COLUMN_LATITUDE + ", "
+            + EarthquakeEntry.COLUMN_LONGITUDE + ", "
+            + EarthquakeEntry.COLUMN_MAGNITUDE + ", "
+            + EarthquakeEntry.COLUMN_DEPTH + ", "
+            + EarthquakeEntry.COLUMN_TIME + ", "
+            + EarthquakeEntry.COLUMN_FELT + ", "
+            + EarthquakeEntry.COLUMN_UPDATED + ") SELECT ?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9, ?10"
+            + " WHERE NOT EXISTS (SELECT 1 FROM " + EarthquakeEntry.TABLE_NAME
+            + " WHERE " + EarthquakeEntry.COLUMN_EVENT_ID + " = ?1"
+            + " AND " + EarthquakeEntry.COLUMN_UPDATED + " > ?10)";
+
+    private static final String[] QUERY_COLUMNS = {
+            EarthquakeEntry.COLUMN_EVENT_ID,
+            EarthquakeEntry.COLUMN_TITLE,
+            EarthquakeEntry.COLUMN_PLACE,
+            EarthquakeEntry.COLUMN_LATITUDE,
+            EarthquakeEntry.COLUMN_LONGITUDE,
+            EarthquakeEntry.COLUMN_MAGNITUDE,
+            EarthquakeEntry.COLUMN_DEPTH,
+            EarthquakeEntry.COLUMN_TIME,
+            EarthquakeEntry.COLUMN_FELT,
+            EarthquakeEntry.COLUMN_UPDATED
+    };
+
+
+    private static SqliteEarthquakeRepository sInstance;
+
+    private final EarthquakeDbHelper mDbHelper;
+
+
+    /**
+     * Return the process wide repository, one database connection is shared by all loaders
+     */
+    public static synchronized SqliteEarthquakeRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SqliteEarthquakeRepository(new EarthquakeDbHelper(context.getApplicationContext()));
+        }
+        return sInstance;
+    }
+
+
+    private SqliteEarthquakeRepository(EarthquakeDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+
+    @Override
+    public void upsert(EarthquakeTable earthquakes) {
+
+        if (earthquakes == null || earthquakes.isEmpty()) return;
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(UPSERT_SQL);
+
+        // one transaction for the whole batch, otherwise every row is its own disk sync
+        db.beginTransaction();
+        try {
+            for (int row = 0; row < earthquakes.size(); row++) {
+                // without an id there is nothing to key the row on
+                if (earthquakes.getId(row) == null) continue;
+
+                statement.clearBindings();
+                statement.bindString(1, earthquakes.getId(row));
+                bindStringOrNull(statement, 2, earthquakes.getTitle(row));
+                bindStringOrNull(statement, 3, earthquakes.getPlace(row));
+                statement.bindDouble(4, earthquakes.getLatitude(row));
+                statement.bindDouble(5, earthquakes.getLongitude(row));
+                statement.bindDouble(6, earthquakes.getMagnitude(row));
+                statement.bindDouble(7, earthquakes.getDepth(row));
+                statement.bindLong(8, earthquakes.getTime(row));
+                if (earthquakes.getFelt(row) == EarthquakeTable.FELT_UNKNOWN) {
+                    statement.bindNull(9);
+                } else {
+                    statement.bindLong(9, earthquakes.getFelt(row));
+                }
+                statement.bindLong(10, earthquakes.getUpdated(row));
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+
+    @Override
+    public EarthquakeTable query(double minMagnitude, long startTime, String orderBy, int limit) {
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(
+                EarthquakeEntry.TABLE_NAME,
+                QUERY_COLUMNS,
+                EarthquakeEntry.COLUMN_MAGNITUDE + " >= ? AND " + EarthquakeEntry.COLUMN_TIME + " >= ?",
+                new String[]{String.valueOf(minMagnitude), String.valueOf(startTime)},
+                null,
+                null,
+                sortOrder(orderBy),
+                String.valueOf(limit));
+
+        EarthquakeTable earthquakes = new EarthquakeTable(cursor.getCount());
+        // the table copies each row, so one earthquake is enough for the whole cursor
+        Earthquake eq = new Earthquake();
+        try {
+            while (cursor.moveToNext()) {
+                eq.setId(cursor.getString(0));
+                eq.setmTitle(cursor.getString(1));
+                eq.setmPlace(cursor.getString(2));
+                eq.setmLatitude(getDoubleOrNaN(cursor, 3));
+                eq.setmLongitude(getDoubleOrNaN(cursor, 4));
+                eq.setmMagnitude(getDoubleOrNaN(cursor, 5));
+                eq.setDepth(getDoubleOrNaN(cursor, 6));
+                eq.setmDate(cursor.getLong(7));
+                eq.setmFelt(cursor.isNull(8) ? null : cursor.getInt(8));
+                eq.setUpdated(cursor.getLong(9));
+                earthquakes.add(eq);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return earthquakes;
+    }
+
+
+    @Override
+    public long getLastSync(String queryKey) {
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(
+                SyncEntry.TABLE_NAME,
+                new String[]{SyncEntry.COLUMN_LAST_UPDATED},
+                SyncEntry.COLUMN_QUERY + " = ?",
+                new String[]{queryKey},
+                null,
+                null,
+                null);
+
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    @Override
+    public void setLastSync(String queryKey, long updated) {
+
+        ContentValues values = new ContentValues();
+        values.put(SyncEntry.COLUMN_QUERY, queryKey);
+        values.put(SyncEntry.COLUMN_LAST_UPDATED, updated);
+
+        mDbHelper.getWritableDatabase().insertWithOnConflict(
+                SyncEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+
+    @Override
+    public int trim(int maxEarthquakes) {
+
+        // everything not among the newest maxEarthquakes, the subquery is NULL and nothing
+        // goes while there are no more; the time index serves both
+        return mDbHelper.getWritableDatabase().delete(
+                EarthquakeEntry.TABLE_NAME,
+                EarthquakeEntry.COLUMN_TIME + " <= (SELECT " + EarthquakeEntry.COLUMN_TIME
+                        + " FROM " + EarthquakeEntry.TABLE_NAME
+                        + " ORDER BY " + EarthquakeEntry.COLUMN_TIME + " DESC LIMIT 1 OFFSET ?)",
+                new String[]{String.valueOf(maxEarthquakes)});
+    }
+
+
+    /**
+     * Turn a USGS orderby value into an ORDER BY clause
+     */
+    private static String sortOrder(String orderBy) {
+
+        String column = orderBy != null && orderBy.startsWith("magnitude")
+                ? EarthquakeEntry.COLUMN_MAGNITUDE
+                : EarthquakeEntry.COLUMN_TIME;
+        String direction = orderBy != null && orderBy.endsWith("-asc") ? " ASC" : " DESC";
+
+        return column + direction;
+    }
+
+
+    /**
+     * SQLite stores NaN as NULL, so read a NULL back as NaN instead of 0
+     */
+    private static double getDoubleOrNaN(Cursor cursor, int column) {
+        return cursor.isNull(column) ? Double.NaN : cursor.getDouble(column);
+    }
+
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EarthquakeDiff} of a refreshed 10,000 row result against the one on screen, for the
+ * kinds of refresh that happen: nothing new, a few events revised, a few new events on top
+ * pushing as many off the end, and the same events in another order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffBenchmark {
+
+
+    private static final int ROWS = 10000;
+    private static final int CHANGES = 10;
+
+
+    @Param({"unchanged", "updated", "inserted", "reordered"})
+    public String refresh;
+
+
+    private EarthquakeTable mOld;
+    private EarthquakeTable mNew;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        // the fixture has a few more events than are shown, the newest ones are "new"
+        EarthquakeTable all = new EarthquakeTable();
+        EarthquakeJsonParser.parse(new ByteArrayInputStream(UsgsFixtures.geoJson(ROWS + CHANGES)), all);
+
+        mOld = new EarthquakeTable(ROWS);
+        for (int row = CHANGES; row < ROWS + CHANGES; row++) {
+            mOld.addRow(all, row);
+        }
+
+        mNew = new EarthquakeTable(ROWS);
+        switch (refresh) {
+            case "unchanged":
+                mNew.addAll(mOld);
+                break;
+            case "updated":
+                mNew.addAll(mOld);
+                for (int i = 0; i < CHANGES; i++) {
+                    int row = i * (ROWS / CHANGES);
+                    Earthquake eq = mNew.toEarthquake(row);
+                    eq.setUpdated(eq.getUpdated() + 1);
+                    EarthquakeTable revised = new EarthquakeTable(1);
+                    revised.add(eq);
+                    mNew.setRow(row, revised, 0);
+                }
+                break;
+            case "inserted":
+                for (int row = 0; row < ROWS; row++) {
+                    mNew.addRow(all, row);
+                }
+                break;
+            case "reordered":
+                int[] rows = new int[ROWS];
+                for (int row = 0; row < ROWS; row++) {
+                    rows[row] = row;
+                }
+                mOld.sortRows(rows, "magnitude");
+                mNew = mOld.select(rows);
+                break;
+            default:
+                throw new IllegalArgumentException(refresh);
+        }
+    }
+
+
+    @Benchmark
+    public EarthquakeDiff compute() {
+        return EarthquakeDiff.compute(mOld, mNew);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The list formatting done by {@link EarthquakeFormatter} on the loader thread. A formatted
+ * table is not formatted again, so every call formats a fresh copy; {@link #copy()} measures
+ * the copy alone so it can be taken out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+
+    @Param({"20", "2000", "20000"})
+    public int rows;
+
+
+    private EarthquakeTable mTable;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        mTable = new EarthquakeTable();
+        EarthquakeJsonParser.parse(new ByteArrayInputStream(UsgsFixtures.geoJson(rows)), mTable);
+    }
+
+
+    @Benchmark
+    public EarthquakeTable copy() {
+        EarthquakeTable table = new EarthquakeTable(mTable.size());
+        table.addAll(mTable);
+        return table;
+    }
+
+
+    @Benchmark
+    public EarthquakeTable copyAndFormat() {
+        EarthquakeTable table = new EarthquakeTable(mTable.size());
+        table.addAll(mTable);
+        EarthquakeFormatter.format(table);
+        return table;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Read, parse and build the model from a USGS response, the way QueryUtils does it once the
+ * bytes have arrived: into a list of {@link Earthquake}s, into an {@link EarthquakeTable}, and
+ * into a table from the gzip body the network actually delivers. The same events as a
+ * format=csv response are parsed into a table for comparison, see UsgsFixtures for the sizes.
+ *
+ * A table leaves titles and places undecoded until they are read. parseEagerToTable decodes
+ * every one of them up front, as the table did before, and parseToTableAndBindScreen reads
+ * them for the rows of one screen, which is what the list does after a load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+
+    @Param({"20", "200", "2000", "20000"})
+    public int features;
+
+
+    /**
+     * Rows a phone shows on one screen
+     */
+    private static final int SCREEN_ROWS = 12;
+
+
+    private byte[] mJson;
+    private byte[] mGzip;
+    private byte[] mCsv;
+    private byte[] mCsvGzip;
+
+
+    @Setup
+    public void setUp() {
+        mJson = UsgsFixtures.geoJson(features);
+        mGzip = UsgsFixtures.gzip(mJson);
+        mCsv = UsgsFixtures.csv(features);
+        mCsvGzip = UsgsFixtures.gzip(mCsv);
+    }
+
+
+    @Benchmark
+    public ArrayList<Earthquake> parseToList() throws IOException {
+        final ArrayList<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJsonParser.parse(new ByteArrayInputStream(mJson), new EarthquakeSink() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
+        return earthquakes;
+    }
+
+
+    @Benchmark
+    public EarthquakeTable parseToTable() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        EarthquakeJsonParser.parse(new ByteArrayInputStream(mJson), table);
+        return table;
+    }
+
+
+    @Benchmark
+    public EarthquakeTable parseEagerToTable() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        EarthquakeJsonParser.parse(new ByteArrayInputStream(mJson), (EarthquakeSink) table);
+        return table;
+    }
+
+
+    @Benchmark
+    public int parseToTableAndBindScreen() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        EarthquakeJsonParser.parse(new ByteArrayInputStream(mJson), table);
+
+        int length = 0;
+        EarthquakeTable.Row row = table.row(0);
+        for (int i = 0; i < Math.min(SCREEN_ROWS, table.size()); i++) {
+            row.moveTo(i);
+            length += row.getProximity() == null ? 0 : row.getProximity().length();
+            length += row.getRegion().length() + row.getTitle().length();
+        }
+        return length;
+    }
+
+
+    @Benchmark
+    public EarthquakeTable parseGzipToTable() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        EarthquakeJsonParser.parse(new GZIPInputStream(new ByteArrayInputStream(mGzip)), table);
+        return table;
+    }
+
+
+    @Benchmark
+    public EarthquakeTable parseCsvToTable() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        EarthquakeCsvParser.parse(new ByteArrayInputStream(mCsv), table);
+        return table;
+    }
+
+
+    @Benchmark
+    public EarthquakeTable parseCsvGzipToTable() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        EarthquakeCsvParser.parse(new GZIPInputStream(new ByteArrayInputStream(mCsvGzip)), table);
+        return table;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start: showing the {@link EarthquakeSnapshot} against parsing and formatting the same
+ * result from a cached JSON response on disk, which is what a start without a snapshot does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+
+    private static final String QUERY = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson";
+
+
+    @Param({"20", "2000", "20000"})
+    public int rows;
+
+
+    private File mDirectory;
+    private File mJsonFile;
+    private File mSnapshotFile;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("snapshot", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+
+        byte[] json = UsgsFixtures.geoJson(rows);
+        mJsonFile = new File(mDirectory, "response.json");
+        FileOutputStream out = new FileOutputStream(mJsonFile);
+        try {
+            out.write(json);
+        } finally {
+            out.close();
+        }
+
+        mSnapshotFile = EarthquakeSnapshot.getFile(mDirectory);
+        EarthquakeSnapshot.write(mSnapshotFile, QUERY, parseCachedJson());
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        mJsonFile.delete();
+        mSnapshotFile.delete();
+        mDirectory.delete();
+    }
+
+
+    @Benchmark
+    public EarthquakeTable readSnapshot() {
+        return EarthquakeSnapshot.read(mSnapshotFile, QUERY);
+    }
+
+
+    @Benchmark
+    public EarthquakeTable parseCachedJson() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        InputStream in = new FileInputStream(mJsonFile);
+        try {
+            EarthquakeJsonParser.parse(in, table);
+        } finally {
+            in.close();
+        }
+        EarthquakeFormatter.format(table);
+        return table;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EarthquakeSpatialIndex} queries over 20,000 events against scanning every event, plus
+ * the cost of building the index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+
+
+    private static final int ROWS = 20000;
+
+    /** Around Anchorage **/
+    private static final double LATITUDE = 61.2;
+    private static final double LONGITUDE = -149.9;
+    private static final double RADIUS_KM = 500;
+    private static final int NEAREST = 10;
+
+
+    private EarthquakeTable mTable;
+    private EarthquakeSpatialIndex mIndex;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        mTable = new EarthquakeTable();
+        EarthquakeJsonParser.parse(new ByteArrayInputStream(UsgsFixtures.geoJson(ROWS)), mTable);
+        mIndex = new EarthquakeSpatialIndex(mTable);
+    }
+
+
+    @Benchmark
+    public EarthquakeSpatialIndex build() {
+        return new EarthquakeSpatialIndex(mTable);
+    }
+
+
+    @Benchmark
+    public int[] withinRadius() {
+        return mIndex.withinRadius(LATITUDE, LONGITUDE, RADIUS_KM);
+    }
+
+
+    @Benchmark
+    public int[] withinRadiusScan() {
+        int[] rows = new int[mTable.size()];
+        int count = 0;
+        for (int row = 0; row < mTable.size(); row++) {
+            if (EarthquakeSpatialIndex.distanceKm(LATITUDE, LONGITUDE,
+                    mTable.getLatitude(row), mTable.getLongitude(row)) <= RADIUS_KM) {
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+
+    @Benchmark
+    public int[] nearest() {
+        return mIndex.nearest(LATITUDE, LONGITUDE, NEAREST);
+    }
+
+
+    @Benchmark
+    public int[] nearestScan() {
+        int[] rows = new int[mTable.size()];
+        double[] distances = new double[mTable.size()];
+        for (int row = 0; row < mTable.size(); row++) {
+            rows[row] = row;
+            distances[row] = EarthquakeSpatialIndex.distanceKm(LATITUDE, LONGITUDE,
+                    mTable.getLatitude(row), mTable.getLongitude(row));
+        }
+        IndexSort.sort(rows, distances);
+        return Arrays.copyOf(rows, NEAREST);
+    }
+}
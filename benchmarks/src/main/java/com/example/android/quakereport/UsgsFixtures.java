@@ -0,0 +1,208 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * USGS GeoJSON responses for the benchmarks, built the same way every time. Every feature
+ * carries the full property set of the FDSN event service, with magnitudes following
+ * Gutenberg-Richter (b = 1 above 0.5), places mostly of the "12km SSW of Town, Region" form
+ * and a few felt reports, so parsing and splitting see what a real response looks like.
+ * The same events are also available as the format=csv response.
+ *
+ * Run as a program it prints the size of every fixture in both formats.
+ */
+public final class UsgsFixtures {
+
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+    /**
+     * Newest event time of every fixture, so results do not depend on the day they are run
+     */
+    private static final long NEWEST_TIME = 1493164800000L; /* 2017-04-26 */
+
+
+    private static final String[] NETWORKS = {
+            "ak", "ci", "nc", "us", "hv", "nn", "uw", "pr", "mb", "uu", "tx", "ok", "nm", "se"};
+
+    private static final String[] REGIONS = {
+            "Anchorage, Alaska", "Ridgecrest, CA", "The Geysers, CA", "Pahala, Hawaii",
+            "Hawthorne, Nevada", "Mount St. Helens, WA", "Isabela, Puerto Rico", "Lincoln, Montana",
+            "Magna, Utah", "Pecos, Texas", "Pawnee, Oklahoma", "Anza, CA", "Tonga", "Fiji",
+            "Vanuatu", "Papua New Guinea", "Iquique, Chile", "Hualien City, Taiwan",
+            "Sinabang, Indonesia", "Petrolia, CA"};
+
+    private static final String[] WHOLE_PLACES = {
+            "Oaxaca, Mexico", "Offshore Northern California", "South of the Fiji Islands",
+            "Mid-Atlantic Ridge", "Southern Alaska", "Central Alaska", "Kuril Islands",
+            "northern Mid-Atlantic Ridge"};
+
+    private static final String[] DIRECTIONS = {
+            "N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE",
+            "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"};
+
+
+    private UsgsFixtures() {
+    }
+
+
+    /**
+     * A query response holding the given number of features, newest first
+     */
+    public static byte[] geoJson(int features) {
+
+        Random random = new Random(features);
+        StringBuilder json = new StringBuilder(features * 1100 + 512);
+
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":")
+                .append(NEWEST_TIME + 60000)
+                .append(",\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&limit=")
+                .append(features)
+                .append("\",\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.7\",\"limit\":")
+                .append(features)
+                .append(",\"offset\":1,\"count\":")
+                .append(features)
+                .append("},\"features\":[");
+
+        long time = NEWEST_TIME;
+        for (int i = 0; i < features; i++) {
+            if (i > 0) json.append(',');
+            appendFeature(json, random, i, time);
+            // about 500 events a day
+            time -= (long) (-Math.log(1 - random.nextDouble()) * 172800);
+        }
+
+        json.append("],\"bbox\":[-179.9,-62.1,-3.2,179.9,71.8,650.5]}");
+        return json.toString().getBytes(UTF_8);
+    }
+
+
+    /**
+     * The same events as {@link #geoJson(int)}, as a format=csv response with all of its columns
+     */
+    public static byte[] csv(int features) {
+
+        EarthquakeTable table = new EarthquakeTable(features);
+        try {
+            EarthquakeJsonParser.parse(new ByteArrayInputStream(geoJson(features)), table);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Random random = new Random(features);
+        StringBuilder csv = new StringBuilder(features * 200 + 256);
+        csv.append("time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,updated,place,type,")
+                .append("horizontalError,depthError,magError,magNst,status,locationSource,magSource\n");
+        for (int row = 0; row < table.size(); row++) {
+            String id = table.getId(row);
+            String network = id.substring(0, 2);
+            double magnitude = table.getMagnitude(row);
+            csv.append(UsgsTime.format(table.getTime(row))).append('Z')
+                    .append(',').append(String.format(Locale.US, "%.4f,%.4f,%.2f,%.1f",
+                            table.getLatitude(row), table.getLongitude(row), table.getDepth(row), magnitude))
+                    .append(',').append(magnitude > 4 ? "mb" : "ml")
+                    .append(',').append(10 + random.nextInt(60))
+                    .append(',').append(20 + random.nextInt(300))
+                    .append(',').append(String.format(Locale.US, "%.4f,%.2f", random.nextDouble(), random.nextDouble()))
+                    .append(',').append(network)
+                    .append(',').append(id)
+                    .append(',').append(UsgsTime.format(table.getUpdated(row))).append('Z')
+                    .append(",\"").append(table.getPlace(row).replace("\"", "\"\"")).append('"')
+                    .append(",earthquake,")
+                    .append(String.format(Locale.US, "%.2f,%.2f,%.3f", random.nextDouble(), random.nextDouble() * 2,
+                            random.nextDouble() / 5))
+                    .append(',').append(random.nextInt(40))
+                    .append(',').append(random.nextInt(3) == 0 ? "reviewed" : "automatic")
+                    .append(',').append(network)
+                    .append(',').append(network)
+                    .append('\n');
+        }
+        return csv.toString().getBytes(UTF_8);
+    }
+
+
+    /**
+     * Print the size of every fixture as GeoJSON and CSV, plain and gzipped
+     */
+    public static void main(String[] args) {
+        System.out.println(String.format(Locale.US, "%8s %12s %12s %12s %12s",
+                "features", "geojson", "geojson.gz", "csv", "csv.gz"));
+        for (int features : new int[]{20, 200, 2000, 20000}) {
+            byte[] json = geoJson(features);
+            byte[] csv = csv(features);
+            System.out.println(String.format(Locale.US, "%8d %12d %12d %12d %12d",
+                    features, json.length, gzip(json).length, csv.length, gzip(csv).length));
+        }
+    }
+
+
+    /**
+     * The same bytes compressed the way USGS sends them with Accept-Encoding: gzip
+     */
+    public static byte[] gzip(byte[] bytes) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 6);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(bytes);
+            gzip.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static void appendFeature(StringBuilder json, Random random, int i, long time) {
+
+        String network = NETWORKS[random.nextInt(NETWORKS.length)];
+        String code = String.valueOf(10000000 + i * 7 + random.nextInt(7));
+        String id = network + code;
+        double magnitude = Math.min(9.1, 0.5 - Math.log10(1 - random.nextDouble()));
+        String place;
+        if (random.nextInt(5) == 0) {
+            place = WHOLE_PLACES[random.nextInt(WHOLE_PLACES.length)];
+        } else {
+            place = (1 + random.nextInt(150)) + "km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                    + " of " + REGIONS[random.nextInt(REGIONS.length)];
+        }
+        String mag = String.format(Locale.US, "%.1f", magnitude);
+        boolean felt = magnitude > 2.5 && random.nextInt(4) == 0;
+        double longitude = -180 + 360 * random.nextDouble();
+        double latitude = -70 + 140 * random.nextDouble();
+        double depth = random.nextDouble() * (random.nextInt(10) == 0 ? 650 : 30);
+
+        json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(mag)
+                .append(",\"place\":\"").append(place)
+                .append("\",\"time\":").append(time)
+                .append(",\"updated\":").append(time + 60000 + random.nextInt(3600000))
+                .append(",\"tz\":").append(-720 + 60 * random.nextInt(25))
+                .append(",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/").append(id)
+                .append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=").append(id)
+                .append("&format=geojson\",\"felt\":").append(felt ? String.valueOf(1 + random.nextInt(500)) : "null")
+                .append(",\"cdi\":").append(felt ? String.format(Locale.US, "%.1f", 2 + 5 * random.nextDouble()) : "null")
+                .append(",\"mmi\":null,\"alert\":null,\"status\":\"")
+                .append(random.nextInt(3) == 0 ? "reviewed" : "automatic")
+                .append("\",\"tsunami\":0,\"sig\":").append((int) (magnitude * magnitude * 20))
+                .append(",\"net\":\"").append(network)
+                .append("\",\"code\":\"").append(code)
+                .append("\",\"ids\":\",").append(id)
+                .append(",\",\"sources\":\",").append(network)
+                .append(",\",\"types\":\",geoserve,nearby-cities,origin,phase-data,\",\"nst\":")
+                .append(10 + random.nextInt(60))
+                .append(",\"dmin\":").append(String.format(Locale.US, "%.4f", random.nextDouble()))
+                .append(",\"rms\":").append(String.format(Locale.US, "%.2f", random.nextDouble()))
+                .append(",\"gap\":").append(20 + random.nextInt(300))
+                .append(",\"magType\":\"").append(magnitude > 4 ? "mb" : "ml")
+                .append("\",\"type\":\"earthquake\",\"title\":\"M ").append(mag).append(" - ").append(place)
+                .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(String.format(Locale.US, "%.4f,%.4f,%.2f", longitude, latitude, depth))
+                .append("]},\"id\":\"").append(id).append("\"}");
+    }
+}
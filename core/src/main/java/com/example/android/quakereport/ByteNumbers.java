@@ -0,0 +1,103 @@
+package com.example.android.quakereport;
+
+import java.nio.charset.Charset;
+
+/**
+ * Reads numbers straight from ASCII bytes in a response buffer, without making a String of
+ * them first. Shared by the CSV tokenizer and the GeoJSON indexer.
+ */
+final class ByteNumbers {
+
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /** Any 15 digit mantissa is below 2^53, 16 digits may not be **/
+    private static final int MAX_EXACT_DIGITS = 15;
+
+
+    /**
+     * This class only holds static methods, so no instances are needed.
+     */
+    private ByteNumbers() {
+    }
+
+
+    /**
+     * Read a plain decimal number such as -117.5985. Numbers with an exponent or too many
+     * digits to be exact this way go through Double.parseDouble.
+     *
+     * @return the number, or the fallback if the bytes are empty or not a number
+     */
+    static double parseDouble(byte[] bytes, int start, int end, double fallback) {
+        int i = start;
+        if (i == end) return fallback;
+
+        boolean negative = bytes[i] == '-';
+        if (negative || bytes[i] == '+') i++;
+
+        // up to 15 digits stay below 2^53 and a power of ten up to 22 is exact, so both are
+        // exact doubles and one division rounds right
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                if (++digits > MAX_EXACT_DIGITS) return slowDouble(bytes, start, end, fallback);
+                mantissa = mantissa * 10 + (b - '0');
+                if (point) decimals++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                return slowDouble(bytes, start, end, fallback);
+            }
+        }
+        if (digits == 0) return fallback;
+
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+
+    /**
+     * Read a whole number such as 1526323283920. Anything with a fraction or an exponent is
+     * read as a double and truncated.
+     *
+     * @return the number, or the fallback if the bytes are empty or not a number
+     */
+    static long parseLong(byte[] bytes, int start, int end, long fallback) {
+        int i = start;
+        if (i == end) return fallback;
+
+        boolean negative = bytes[i] == '-';
+        if (negative) i++;
+
+        long value = 0;
+        int digits = 0;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9' || ++digits > 18) {
+                double number = parseDouble(bytes, start, end, Double.NaN);
+                return Double.isNaN(number) ? fallback : (long) number;
+            }
+            value = value * 10 + (b - '0');
+        }
+        if (digits == 0) return fallback;
+
+        return negative ? -value : value;
+    }
+
+
+    private static double slowDouble(byte[] bytes, int start, int end, double fallback) {
+        try {
+            return Double.parseDouble(new String(bytes, start, end - start, US_ASCII));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
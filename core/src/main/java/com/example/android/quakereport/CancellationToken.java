@@ -0,0 +1,170 @@
+package com.example.android.quakereport;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets the owner of a load stop the work done for it: the request is aborted, the download stops
+ * and the parser gives up before its next event. Work checks {@link #throwIfCanceled()} at
+ * points where stopping is safe, and blocking steps register an {@link OnCancelListener} that
+ * unblocks them, such as closing a connection a read is waiting on.
+ *
+ * It plays the part of the platform's CancellationSignal, which core code cannot use and which
+ * API 15 does not have.
+ */
+public final class CancellationToken {
+
+
+    /**
+     * Called once when the token is canceled, on the thread that cancels it
+     */
+    public interface OnCancelListener {
+        void onCancel();
+    }
+
+
+    /**
+     * A token for work that cannot be canceled. {@link #cancel()} does nothing on it and it
+     * keeps no listeners.
+     */
+    public static final CancellationToken NONE = new CancellationToken();
+
+
+    private volatile boolean mCanceled;
+
+    /** When {@link #cancel()} was called, in System.nanoTime() **/
+    private volatile long mCanceledAt;
+
+    /** Guarded by this **/
+    private final ArrayList<OnCancelListener> mListeners = new ArrayList<>();
+
+    /** The token this one is canceled with, and how it hears of it **/
+    private final CancellationToken mParent;
+    private final OnCancelListener mFollowParent;
+
+
+    public CancellationToken() {
+        mParent = null;
+        mFollowParent = null;
+    }
+
+
+    /**
+     * A token canceled along with the parent, or on its own without the parent, such as for
+     * one of several requests made for the same caller. Call {@link #detach()} once the work
+     * it covers is done.
+     */
+    public CancellationToken(CancellationToken parent) {
+        mParent = parent;
+        mFollowParent = new OnCancelListener() {
+            @Override
+            public void onCancel() {
+                cancel();
+            }
+        };
+        parent.addOnCancelListener(mFollowParent);
+    }
+
+
+    /**
+     * Cancel the work and run the listeners. Only the first call has any effect.
+     */
+    public void cancel() {
+        if (this == NONE) return;
+
+        OnCancelListener[] listeners;
+        synchronized (this) {
+            if (mCanceled) return;
+            mCanceledAt = System.nanoTime();
+            mCanceled = true;
+            listeners = mListeners.toArray(new OnCancelListener[mListeners.size()]);
+            mListeners.clear();
+            // wake up sleep()
+            notifyAll();
+        }
+
+        // outside the lock, a listener may block for a moment or touch the token
+        for (OnCancelListener listener : listeners) {
+            listener.onCancel();
+        }
+    }
+
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+
+    /**
+     * @return when the token was canceled, in System.nanoTime(), or 0 if it was not
+     */
+    public long getCanceledAt() {
+        return mCanceled ? mCanceledAt : 0;
+    }
+
+
+    /**
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public void throwIfCanceled() throws FetchCanceledException {
+        if (mCanceled) throw new FetchCanceledException();
+    }
+
+
+    /**
+     * Wait for the given time, such as before a retry, returning early if the token is canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    public void sleep(long millis) throws InterruptedIOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        synchronized (this) {
+            long left;
+            while (!mCanceled && (left = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting");
+                }
+            }
+        }
+        throwIfCanceled();
+    }
+
+
+    /**
+     * Run the listener when the token is canceled, or right away if it already was
+     */
+    public void addOnCancelListener(OnCancelListener listener) {
+        if (this == NONE) return;
+
+        synchronized (this) {
+            if (!mCanceled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+
+
+    /**
+     * Forget a listener, once the work it would unblock is done
+     */
+    public synchronized void removeOnCancelListener(OnCancelListener listener) {
+        mListeners.remove(listener);
+    }
+
+
+    /**
+     * Stop following the parent, so it does not keep this token around
+     */
+    public void detach() {
+        if (mParent != null) {
+            mParent.removeOnCancelListener(mFollowParent);
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads USGS catalog files of any size, GeoJSON or CSV, and parses them on every core.
+ *
+ * One thread reads the file and cuts it into chunks of whole events: features of the GeoJSON
+ * features array, or lines of a CSV file, which get the header line in front. The chunks are
+ * parsed into {@link EarthquakeTable}s on a pool of worker threads and handed to a
+ * {@link ChunkSink}. Only a few chunks are in flight at a time, the reader waits when they are
+ * all taken, so memory stays bounded by the chunk size whatever the size of the file.
+ *
+ * Run from the command line:
+ *
+ *     ./gradlew :core:ingest -Pargs="--threads 8 catalog.csv.gz"
+ */
+public class CatalogIngester {
+
+
+    private static final String TAG = CatalogIngester.class.getSimpleName();
+
+
+    /**
+     * Receives the parsed chunks, called from the worker threads at the same time and in no
+     * particular order
+     */
+    public interface ChunkSink {
+        void onChunk(EarthquakeTable chunk);
+    }
+
+
+    /**
+     * Default bytes of a chunk, a few thousand events, large enough that handing a chunk to a
+     * worker costs nothing next to parsing it
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 4 * 1024 * 1024;
+
+
+    /**
+     * {@link Metrics} histogram of the time to parse a chunk
+     */
+    static final String METRIC_CHUNK = "ingest.chunk";
+
+
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private static final byte[] GEOJSON_PREFIX = {'{', '"', 'f', 'e', 'a', 't', 'u', 'r', 'e', 's', '"', ':', '['};
+
+
+    private final int mThreads;
+    private final int mChunkBytes;
+
+
+    /**
+     * @param threads    worker threads parsing chunks
+     * @param chunkBytes bytes of a chunk, a single event larger than this is a chunk of its own
+     */
+    public CatalogIngester(int threads, int chunkBytes) {
+        mThreads = Math.max(1, threads);
+        mChunkBytes = Math.max(1024, chunkBytes);
+    }
+
+
+    /**
+     * Read a catalog file, decompressing it first if its name ends in .gz
+     */
+    public Result ingest(File file, ChunkSink sink) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            if (file.getName().toLowerCase(Locale.US).endsWith(".gz")) {
+                in = new GZIPInputStream(in, READ_BUFFER_BYTES);
+            }
+            return ingest(in, WireFormat.ofFileName(file.getName()), sink);
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Read a catalog from the stream, which is not closed, and hand every parsed chunk to the
+     * sink. Returns once every chunk has been handed over.
+     *
+     * @throws IOException if the stream could not be read or a chunk could not be parsed
+     */
+    public Result ingest(InputStream in, WireFormat format, ChunkSink sink) throws IOException {
+
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(mThreads);
+        Dispatcher dispatcher = new Dispatcher(workers, format, sink);
+        Splitter splitter = format == WireFormat.CSV ? new CsvSplitter(dispatcher) : new GeoJsonSplitter(dispatcher);
+
+        long bytes = 0;
+        try {
+            byte[] buffer = new byte[READ_BUFFER_BYTES];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                splitter.feed(buffer, read);
+                bytes += read;
+                dispatcher.throwIfFailed();
+            }
+            splitter.finish();
+            dispatcher.awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } finally {
+            workers.shutdownNow();
+        }
+        dispatcher.throwIfFailed();
+
+        return new Result(dispatcher.mEvents.get(), bytes, System.nanoTime() - start);
+    }
+
+
+    /**
+     * Events and bytes read, and how long it took
+     */
+    public static final class Result {
+
+        public final long events;
+        public final long bytes;
+        public final long nanos;
+
+        Result(long events, long bytes, long nanos) {
+            this.events = events;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public double getEventsPerSecond() {
+            return nanos == 0 ? 0 : events * 1e9 / nanos;
+        }
+
+        public double getMegabytesPerSecond() {
+            return nanos == 0 ? 0 : bytes * 1e9 / nanos / (1024 * 1024);
+        }
+    }
+
+
+    /**
+     * Hands chunks to the workers, at most two per worker at a time, and recycles their buffers
+     */
+    private final class Dispatcher {
+
+        private final ExecutorService mWorkers;
+        private final WireFormat mFormat;
+        private final ChunkSink mSink;
+        private final int mMaxInFlight = 2 * mThreads;
+        private final Semaphore mInFlight = new Semaphore(mMaxInFlight);
+        private final ConcurrentLinkedQueue<byte[]> mFreeBuffers = new ConcurrentLinkedQueue<>();
+        private final AtomicReference<Exception> mFailure = new AtomicReference<>();
+        final AtomicLong mEvents = new AtomicLong();
+
+        Dispatcher(ExecutorService workers, WireFormat format, ChunkSink sink) {
+            mWorkers = workers;
+            mFormat = format;
+            mSink = sink;
+        }
+
+        byte[] newBuffer() {
+            byte[] buffer = mFreeBuffers.poll();
+            return buffer != null ? buffer : new byte[mChunkBytes + mChunkBytes / 4];
+        }
+
+        /**
+         * Parse the first length bytes of the buffer on a worker, waiting for a free slot first
+         */
+        void dispatch(final byte[] chunk, final int length) throws InterruptedException {
+            mInFlight.acquire();
+            mWorkers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (mFailure.get() != null) return;
+                        long start = System.nanoTime();
+                        EarthquakeTable table = new EarthquakeTable(length / 256);
+                        InputStream in = new ByteArrayInputStream(chunk, 0, length);
+                        mFormat.parse(in, table);
+                        Metrics.getInstance().recordSince(METRIC_CHUNK, start);
+                        mEvents.addAndGet(table.size());
+                        mSink.onChunk(table);
+                    } catch (IOException | RuntimeException e) {
+                        mFailure.compareAndSet(null, e);
+                    } finally {
+                        // only buffers of the usual size are worth keeping
+                        if (chunk.length <= mChunkBytes + mChunkBytes / 4) mFreeBuffers.offer(chunk);
+                        mInFlight.release();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Wait until every chunk has been parsed
+         */
+        void awaitAll() throws InterruptedException {
+            mInFlight.acquire(mMaxInFlight);
+            mInFlight.release(mMaxInFlight);
+        }
+
+        void throwIfFailed() throws IOException {
+            Exception failure = mFailure.get();
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure != null) throw new IOException("Could not parse the catalog", failure);
+        }
+    }
+
+
+    /**
+     * Cuts the bytes of a catalog into chunks of whole events as they are read
+     */
+    private abstract static class Splitter {
+
+        final Dispatcher mDispatcher;
+        byte[] mChunk;
+        int mLength;
+
+        Splitter(Dispatcher dispatcher) {
+            mDispatcher = dispatcher;
+        }
+
+        abstract void feed(byte[] buffer, int length) throws InterruptedException;
+
+        abstract void finish() throws InterruptedException, IOException;
+
+        void append(byte[] buffer, int from, int to) {
+            int count = to - from;
+            if (count <= 0) return;
+            if (mLength + count > mChunk.length) {
+                mChunk = Arrays.copyOf(mChunk, Math.max(mLength + count, 2 * mChunk.length));
+            }
+            System.arraycopy(buffer, from, mChunk, mLength, count);
+            mLength += count;
+        }
+
+        void append(byte b) {
+            if (mLength == mChunk.length) mChunk = Arrays.copyOf(mChunk, 2 * mChunk.length);
+            mChunk[mLength++] = b;
+        }
+    }
+
+
+    /**
+     * Splits a GeoJSON FeatureCollection between the elements of its features array. Chunks
+     * are made into small FeatureCollections of their own, {"features":[...]}, by tracking
+     * nesting and strings, so braces inside strings are not mistaken for structure.
+     */
+    private final class GeoJsonSplitter extends Splitter {
+
+        private int mDepth;
+        private boolean mInString;
+        private boolean mEscaped;
+        /** Last string that started at the top level, to spot the "features" key **/
+        private final StringBuilder mTopLevelString = new StringBuilder();
+        private boolean mInFeatures;
+        private boolean mInFeature;
+        private int mFeatures;
+
+        GeoJsonSplitter(Dispatcher dispatcher) {
+            super(dispatcher);
+            startChunk();
+        }
+
+        private void startChunk() {
+            mChunk = mDispatcher.newBuffer();
+            mLength = 0;
+            mFeatures = 0;
+            append(GEOJSON_PREFIX, 0, GEOJSON_PREFIX.length);
+        }
+
+        @Override
+        void feed(byte[] buffer, int length) throws InterruptedException {
+
+            // start of the part of the current feature that is in this buffer
+            int featureStart = mInFeature ? 0 : -1;
+
+            for (int i = 0; i < length; i++) {
+                byte b = buffer[i];
+
+                if (mInString) {
+                    if (mEscaped) {
+                        mEscaped = false;
+                    } else if (b == '\\') {
+                        mEscaped = true;
+                    } else if (b == '"') {
+                        mInString = false;
+                    } else if (mDepth == 1 && mTopLevelString.length() < 16) {
+                        mTopLevelString.append((char) b);
+                    }
+                    continue;
+                }
+
+                switch (b) {
+                    case '"':
+                        mInString = true;
+                        if (mDepth == 1) mTopLevelString.setLength(0);
+                        break;
+                    case '{':
+                    case '[':
+                        if (mInFeatures && mDepth == 2 && b == '{') {
+                            mInFeature = true;
+                            featureStart = i;
+                        } else if (mDepth == 1 && b == '[' && "features".contentEquals(mTopLevelString)) {
+                            mInFeatures = true;
+                        }
+                        mDepth++;
+                        break;
+                    case '}':
+                    case ']':
+                        mDepth--;
+                        if (mInFeature && mDepth == 2) {
+                            append(buffer, featureStart, i + 1);
+                            append((byte) ',');
+                            mInFeature = false;
+                            featureStart = -1;
+                            mFeatures++;
+                            if (mLength >= mChunkBytes) dispatchChunk();
+                        } else if (mInFeatures && mDepth == 1) {
+                            mInFeatures = false;
+                        }
+                        break;
+                    default:
+                }
+            }
+
+            if (mInFeature) append(buffer, featureStart, length);
+        }
+
+        @Override
+        void finish() throws InterruptedException, IOException {
+            if (mInFeature || mDepth != 0) throw new IOException("The GeoJSON ends in the middle of a feature");
+            if (mFeatures > 0) dispatchChunk();
+        }
+
+        private void dispatchChunk() throws InterruptedException {
+            // the comma after the last feature becomes the end of the array
+            mChunk[mLength - 1] = ']';
+            append((byte) '}');
+            mDispatcher.dispatch(mChunk, mLength);
+            startChunk();
+        }
+    }
+
+
+    /**
+     * Splits a CSV file between lines, ignoring line breaks inside quoted fields. Every chunk
+     * starts with the header line, so it can be parsed on its own.
+     */
+    private final class CsvSplitter extends Splitter {
+
+        private byte[] mHeader = new byte[256];
+        private int mHeaderLength;
+        private boolean mHeaderDone;
+        private boolean mInQuotes;
+
+        CsvSplitter(Dispatcher dispatcher) {
+            super(dispatcher);
+        }
+
+        private void startChunk() {
+            mChunk = mDispatcher.newBuffer();
+            mLength = 0;
+            append(mHeader, 0, mHeaderLength);
+        }
+
+        @Override
+        void feed(byte[] buffer, int length) throws InterruptedException {
+
+            int i = 0;
+            if (!mHeaderDone) {
+                while (i < length && !mHeaderDone) {
+                    byte b = buffer[i++];
+                    if (mHeaderLength == mHeader.length) mHeader = Arrays.copyOf(mHeader, 2 * mHeader.length);
+                    mHeader[mHeaderLength++] = b;
+                    mHeaderDone = b == '\n';
+                }
+                if (!mHeaderDone) return;
+                startChunk();
+            }
+
+            // start of the lines of this buffer that are not in a chunk yet
+            int pending = i;
+            for (; i < length; i++) {
+                byte b = buffer[i];
+                if (b == '"') {
+                    mInQuotes = !mInQuotes;
+                } else if (b == '\n' && !mInQuotes) {
+                    if (mLength + i + 1 - pending >= mChunkBytes) {
+                        append(buffer, pending, i + 1);
+                        pending = i + 1;
+                        mDispatcher.dispatch(mChunk, mLength);
+                        startChunk();
+                    }
+                }
+            }
+            append(buffer, pending, length);
+        }
+
+        @Override
+        void finish() throws InterruptedException {
+            // a last line without a line break is still a line
+            if (mHeaderDone && mLength > mHeaderLength) {
+                mDispatcher.dispatch(mChunk, mLength);
+            }
+        }
+    }
+
+
+    /**
+     * What the command line ingester prints: counts by magnitude and the time span of the
+     * catalog, merged from every chunk
+     */
+    private static final class Summary implements ChunkSink {
+
+        private final long[] mByMagnitude = new long[11]; /* below 1, 1 to 2, ..., 9 and up; unknown */
+        private long mEarliest = Long.MAX_VALUE;
+        private long mLatest = Long.MIN_VALUE;
+        private double mLargestMagnitude = Double.NEGATIVE_INFINITY;
+        private String mLargestId;
+
+        @Override
+        public void onChunk(EarthquakeTable chunk) {
+
+            // summarize the chunk on this worker thread, only merging takes the lock
+            long[] byMagnitude = new long[mByMagnitude.length];
+            long earliest = Long.MAX_VALUE;
+            long latest = Long.MIN_VALUE;
+            int largest = -1;
+            for (int row = 0; row < chunk.size(); row++) {
+                double magnitude = chunk.getMagnitude(row);
+                if (Double.isNaN(magnitude)) {
+                    byMagnitude[10]++;
+                } else {
+                    byMagnitude[Math.max(0, Math.min(9, (int) Math.floor(magnitude)))]++;
+                    if (largest < 0 || magnitude > chunk.getMagnitude(largest)) largest = row;
+                }
+                earliest = Math.min(earliest, chunk.getTime(row));
+                latest = Math.max(latest, chunk.getTime(row));
+            }
+
+            synchronized (this) {
+                for (int i = 0; i < byMagnitude.length; i++) {
+                    mByMagnitude[i] += byMagnitude[i];
+                }
+                mEarliest = Math.min(mEarliest, earliest);
+                mLatest = Math.max(mLatest, latest);
+                if (largest >= 0 && chunk.getMagnitude(largest) > mLargestMagnitude) {
+                    mLargestMagnitude = chunk.getMagnitude(largest);
+                    mLargestId = chunk.getId(largest);
+                }
+            }
+        }
+
+        synchronized void print() {
+            if (mEarliest <= mLatest) {
+                System.out.println("From " + UsgsTime.format(mEarliest) + " to " + UsgsTime.format(mLatest));
+            }
+            for (int i = 0; i < 10; i++) {
+                if (mByMagnitude[i] == 0) continue;
+                String range = i == 0 ? "      < 1" : i == 9 ? "      9 +" : "  " + i + " to " + (i + 1);
+                System.out.println(String.format(Locale.US, "M %s %12d", range, mByMagnitude[i]));
+            }
+            if (mByMagnitude[10] > 0) {
+                System.out.println(String.format(Locale.US, "no magnitude %12d", mByMagnitude[10]));
+            }
+            if (mLargestId != null) {
+                System.out.println(String.format(Locale.US, "Largest: M %.1f, %s", mLargestMagnitude, mLargestId));
+            }
+        }
+    }
+
+
+    /**
+     * Command line entry point, see {@link #usage()}
+     */
+    public static void main(String[] args) {
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkBytes = DEFAULT_CHUNK_BYTES;
+        WireFormat format = null;
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("--"); first += 2) {
+                String option = args[first];
+                String value = args[first + 1];
+                if (option.equals("--threads")) {
+                    threads = Integer.parseInt(value);
+                } else if (option.equals("--chunk-kb")) {
+                    chunkBytes = Integer.parseInt(value) * 1024;
+                } else if (option.equals("--format")) {
+                    format = WireFormat.valueOf(value.toUpperCase(Locale.US));
+                } else {
+                    usage();
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            usage();
+            return;
+        }
+        if (first >= args.length) {
+            usage();
+            return;
+        }
+
+        CatalogIngester ingester = new CatalogIngester(threads, chunkBytes);
+        Summary summary = new Summary();
+        long events = 0;
+        long bytes = 0;
+        long nanos = 0;
+        for (int i = first; i < args.length; i++) {
+            File file = new File(args[i]);
+            try {
+                Result result;
+                if (format == null) {
+                    result = ingester.ingest(file, summary);
+                } else {
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        result = ingester.ingest(in, format, summary);
+                    } finally {
+                        in.close();
+                    }
+                }
+                System.out.println(String.format(Locale.US, "%s: %d events, %.1f MB in %.2f s, %.0f events/s, %.1f MB/s",
+                        file.getName(), result.events, result.bytes / (1024.0 * 1024.0), result.nanos / 1e9,
+                        result.getEventsPerSecond(), result.getMegabytesPerSecond()));
+                events += result.events;
+                bytes += result.bytes;
+                nanos += result.nanos;
+            } catch (IOException e) {
+                CoreLog.e(TAG, "Could not ingest " + file, e);
+                System.exit(1);
+            }
+        }
+
+        if (args.length - first > 1) {
+            System.out.println(String.format(Locale.US, "Total: %d events, %.1f MB in %.2f s, %.0f events/s",
+                    events, bytes / (1024.0 * 1024.0), nanos / 1e9, nanos == 0 ? 0 : events * 1e9 / nanos));
+        }
+        summary.print();
+        System.out.print(Metrics.getInstance().dump());
+    }
+
+
+    private static void usage() {
+        System.err.println("Usage: CatalogIngester [--threads N] [--chunk-kb N] [--format csv|geojson] FILE...");
+        System.err.println("Reads USGS catalog files (GeoJSON or CSV, optionally .gz) and reports events per second.");
+    }
+}
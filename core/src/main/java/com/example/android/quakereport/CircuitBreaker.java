@@ -0,0 +1,105 @@
+package com.example.android.quakereport;
+
+/**
+ * Stops sending requests to a server that keeps failing, so a USGS outage costs the user one
+ * quick failure (and whatever is cached) instead of a full round of timeouts and retries every
+ * time.
+ *
+ * After enough failures in a row the breaker opens and refuses requests. Once the cool down is
+ * over it lets a single trial request through: if that one succeeds the breaker closes again,
+ * otherwise it stays open for another cool down. Only failures that say something about the
+ * server count, a rejected query or a canceled request do not.
+ */
+public final class CircuitBreaker {
+
+
+    /**
+     * Names of the breaker {@link Metrics} counters, shared by all breakers
+     */
+    static final String METRIC_OPENED = "breaker.opened";
+    static final String METRIC_REJECTED = "breaker.rejected";
+
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+
+    private final int mFailureThreshold;
+    private final long mCoolDownNanos;
+
+    /** The rest is guarded by this **/
+    private int mState = CLOSED;
+    private int mFailures;
+    private long mOpenedAt;
+    private boolean mTrialInFlight;
+
+
+    /**
+     * @param failureThreshold failures in a row that open the breaker
+     * @param coolDownMs       how long it stays open before a trial request
+     */
+    public CircuitBreaker(int failureThreshold, long coolDownMs) {
+        mFailureThreshold = failureThreshold;
+        mCoolDownNanos = coolDownMs * 1000000L;
+    }
+
+
+    /**
+     * Ask to make a request. A request that is allowed must be followed by one of
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #onAbandoned()}.
+     *
+     * @return false if the request should not be made
+     */
+    public synchronized boolean allowRequest() {
+        if (mState == OPEN && System.nanoTime() - mOpenedAt >= mCoolDownNanos) {
+            mState = HALF_OPEN;
+        }
+        if (mState == CLOSED) return true;
+        if (mState == HALF_OPEN && !mTrialInFlight) {
+            mTrialInFlight = true;
+            return true;
+        }
+        Metrics.getInstance().counter(METRIC_REJECTED).increment();
+        return false;
+    }
+
+
+    /**
+     * @return true if requests go through as usual, neither refused nor on trial
+     */
+    public synchronized boolean isClosed() {
+        return mState == CLOSED;
+    }
+
+
+    /**
+     * The server answered
+     */
+    public synchronized void onSuccess() {
+        mState = CLOSED;
+        mFailures = 0;
+        mTrialInFlight = false;
+    }
+
+
+    /**
+     * The server failed or could not be reached
+     */
+    public synchronized void onFailure() {
+        mTrialInFlight = false;
+        if (mState == HALF_OPEN || (mState == CLOSED && ++mFailures >= mFailureThreshold)) {
+            mState = OPEN;
+            mOpenedAt = System.nanoTime();
+            Metrics.getInstance().counter(METRIC_OPENED).increment();
+        }
+    }
+
+
+    /**
+     * The request ended without saying anything about the server, such as when it was canceled
+     */
+    public synchronized void onAbandoned() {
+        mTrialInFlight = false;
+    }
+}
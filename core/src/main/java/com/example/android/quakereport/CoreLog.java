@@ -0,0 +1,99 @@
+package com.example.android.quakereport;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Logging for the core classes, which cannot use android.util.Log as they also run on a plain
+ * JVM. Same methods and priorities as android.util.Log. Messages are printed to standard error
+ * until the app installs a {@link Printer} that hands them to logcat.
+ */
+public final class CoreLog {
+
+
+    /**
+     * Priorities, the same values as android.util.Log
+     */
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+
+    /**
+     * Where the messages go
+     */
+    public interface Printer {
+        void println(int priority, String tag, String message, Throwable tr);
+    }
+
+
+    private static final String[] PRIORITY_LETTERS = {"?", "?", "V", "D", "I", "W", "E"};
+
+
+    /**
+     * Default printer, standard error from INFO up so a command line run is not flooded
+     */
+    private static final Printer STDERR = new Printer() {
+        @Override
+        public void println(int priority, String tag, String message, Throwable tr) {
+            if (priority < INFO) return;
+            StringBuilder line = new StringBuilder();
+            line.append(PRIORITY_LETTERS[Math.min(priority, ERROR)]).append('/').append(tag).append(": ").append(message);
+            if (tr != null) {
+                StringWriter trace = new StringWriter();
+                tr.printStackTrace(new PrintWriter(trace));
+                line.append('\n').append(trace);
+            }
+            System.err.println(line);
+        }
+    };
+
+
+    private static volatile Printer sPrinter = STDERR;
+
+
+    /**
+     * This class only holds static methods, so no instances are needed.
+     */
+    private CoreLog() {
+    }
+
+
+    /**
+     * Send messages to the given printer, or back to standard error for null
+     */
+    public static void setPrinter(Printer printer) {
+        sPrinter = printer != null ? printer : STDERR;
+    }
+
+
+    public static void v(String tag, String message) {
+        sPrinter.println(VERBOSE, tag, message, null);
+    }
+
+    public static void d(String tag, String message) {
+        sPrinter.println(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        sPrinter.println(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        sPrinter.println(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable tr) {
+        sPrinter.println(WARN, tag, message, tr);
+    }
+
+    public static void e(String tag, String message) {
+        sPrinter.println(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable tr) {
+        sPrinter.println(ERROR, tag, message, tr);
+    }
+}
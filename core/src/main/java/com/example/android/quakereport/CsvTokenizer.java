@@ -0,0 +1,289 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits CSV records into fields straight in its read buffer. A record is only scanned once,
+ * for the offsets of its fields; numbers and times are then read from the bytes and only the
+ * fields asked for as text become Strings, so there is no String per line or per field.
+ *
+ * Quoted fields may hold commas, doubled quotes and line breaks. A field is valid until the
+ * next call of {@link #nextRecord()}.
+ */
+final class CsvTokenizer {
+
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+    private final InputStream mIn;
+    private byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+    private boolean mEndOfStream;
+
+    /** Fields of the current record: start and end offsets in the buffer **/
+    private int[] mStarts = new int[32];
+    private int[] mEnds = new int[32];
+    /** Whether a field holds doubled quotes that still have to be undone **/
+    private boolean[] mEscaped = new boolean[32];
+    private int mFields;
+    /** Start of the field the buffer ended in, -1 if it was quoted and is already added **/
+    private int mPendingFieldStart;
+
+
+    CsvTokenizer(InputStream in) {
+        this(in, 64 * 1024);
+    }
+
+
+    CsvTokenizer(InputStream in, int bufferSize) {
+        mIn = in;
+        mBuffer = new byte[bufferSize];
+    }
+
+
+    /**
+     * Move to the next record that is not an empty line
+     *
+     * @return false at the end of the stream
+     */
+    boolean nextRecord() throws IOException {
+        while (true) {
+            if (scanRecord() < 0) return false;
+            if (mFields > 1 || mEnds[0] > mStarts[0]) return true;
+        }
+    }
+
+
+    int getFieldCount() {
+        return mFields;
+    }
+
+
+    boolean isEmpty(int field) {
+        return field < 0 || field >= mFields || mEnds[field] == mStarts[field];
+    }
+
+
+    /**
+     * @return the field as text, or the fallback if it is empty or missing
+     */
+    String getString(int field, String fallback) {
+        if (isEmpty(field)) return fallback;
+        int start = mStarts[field];
+        int end = mEnds[field];
+        if (!mEscaped[field]) return new String(mBuffer, start, end - start, UTF_8);
+
+        // undo the doubled quotes in a copy, the buffer may still be scanned
+        byte[] unescaped = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            unescaped[length++] = mBuffer[i];
+            if (mBuffer[i] == '"') i++;
+        }
+        return new String(unescaped, 0, length, UTF_8);
+    }
+
+
+    /**
+     * @return whether the field is the given ASCII text, without making a String of it
+     */
+    boolean fieldEquals(int field, String text) {
+        if (field < 0 || field >= mFields || mEnds[field] - mStarts[field] != text.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (mBuffer[mStarts[field] + i] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * @return the field as a number, see {@link ByteNumbers#parseDouble}, or the fallback if it
+     * is empty, missing or not a number
+     */
+    double getDouble(int field, double fallback) {
+        if (isEmpty(field)) return fallback;
+        return ByteNumbers.parseDouble(mBuffer, mStarts[field], mEnds[field], fallback);
+    }
+
+
+    /**
+     * @return the field as milliseconds since the epoch, see {@link UsgsTime#parse(byte[], int, int)},
+     * or the fallback if it is empty or missing
+     * @throws IllegalArgumentException if the field is not a time
+     */
+    long getTime(int field, long fallback) {
+        if (isEmpty(field)) return fallback;
+        return UsgsTime.parse(mBuffer, mStarts[field], mEnds[field]);
+    }
+
+
+    /**
+     * The buffer the fields of the current record are in, see {@link #getStart(int)}. It is
+     * overwritten by the next call of {@link #nextRecord()}.
+     */
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+
+    /**
+     * @return the offset of the first byte of a field in {@link #getBuffer()}
+     */
+    int getStart(int field) {
+        return mStarts[field];
+    }
+
+
+    /**
+     * @return the offset after the last byte of a field in {@link #getBuffer()}
+     */
+    int getEnd(int field) {
+        return mEnds[field];
+    }
+
+
+    /**
+     * @return whether the bytes of a field still hold doubled quotes, so they are not its text
+     */
+    boolean isEscaped(int field) {
+        return mEscaped[field];
+    }
+
+
+    /**
+     * Find the fields of the record at the current position, reading more of the stream
+     * whenever the record runs past the end of the buffer
+     *
+     * @return the offset after the record, or -1 at the end of the stream
+     */
+    private int scanRecord() throws IOException {
+
+        while (true) {
+            if (mPosition == mLimit && !fill()) return -1;
+
+            int end = scanFields();
+            if (end >= 0) {
+                mPosition = end;
+                return end;
+            }
+
+            // the record is not complete in the buffer
+            if (mEndOfStream) {
+                // the last line has no line break
+                closeField(mLimit);
+                mPosition = mLimit;
+                return mLimit;
+            }
+            fill();
+        }
+    }
+
+
+    /**
+     * Scan the record starting at the current position
+     *
+     * @return the offset after its line break, or -1 if the buffer ends first
+     */
+    private int scanFields() {
+
+        mFields = 0;
+        int fieldStart = mPosition;
+        boolean quoted = false;
+        boolean escaped = false;
+        int i = mPosition;
+
+        while (i < mLimit) {
+            byte b = mBuffer[i];
+            if (quoted) {
+                if (b == '"') {
+                    if (i + 1 == mLimit && !mEndOfStream) return -1; /* can't tell "" from " yet */
+                    if (i + 1 < mLimit && mBuffer[i + 1] == '"') {
+                        escaped = true;
+                        i += 2;
+                        continue;
+                    }
+                    // closing quote, the field ends here whatever follows until the separator
+                    quoted = false;
+                    addField(fieldStart, i, escaped);
+                    fieldStart = -1;
+                }
+                i++;
+                continue;
+            }
+
+            if (b == '"' && i == fieldStart) {
+                quoted = true;
+                escaped = false;
+                fieldStart = i + 1;
+            } else if (b == ',') {
+                if (fieldStart >= 0) addField(fieldStart, i, false);
+                fieldStart = i + 1;
+            } else if (b == '\n') {
+                if (fieldStart >= 0) {
+                    int end = i > fieldStart && mBuffer[i - 1] == '\r' ? i - 1 : i;
+                    addField(fieldStart, end, false);
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        mPendingFieldStart = fieldStart;
+        return -1;
+    }
+
+
+    /**
+     * End the last field of a record that ends with the stream
+     */
+    private void closeField(int end) {
+        if (mPendingFieldStart < 0) return;
+        if (end > mPendingFieldStart && mBuffer[end - 1] == '\r') end--;
+        addField(mPendingFieldStart, end, false);
+    }
+
+
+    private void addField(int start, int end, boolean escaped) {
+        if (mFields == mStarts.length) {
+            mStarts = Arrays.copyOf(mStarts, 2 * mFields);
+            mEnds = Arrays.copyOf(mEnds, 2 * mFields);
+            mEscaped = Arrays.copyOf(mEscaped, 2 * mFields);
+        }
+        mStarts[mFields] = start;
+        mEnds[mFields] = end;
+        mEscaped[mFields] = escaped;
+        mFields++;
+    }
+
+
+    /**
+     * Read more of the stream, keeping the record at the current position at the start of the
+     * buffer and growing it if that record fills it all
+     *
+     * @return false if nothing more could be read
+     */
+    private boolean fill() throws IOException {
+        if (mEndOfStream) return false;
+
+        int kept = mLimit - mPosition;
+        if (mPosition > 0) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, kept);
+        } else if (kept == mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, 2 * mBuffer.length);
+        }
+        mPosition = 0;
+        mLimit = kept;
+
+        int read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (read < 0) {
+            mEndOfStream = true;
+            return false;
+        }
+        mLimit += read;
+        return true;
+    }
+}
@@ -6,6 +6,13 @@ package com.example.android.quakereport;
 
 public class Earthquake {
 
+    /** Links to USGS **/
+
+    // page of a single event, followed by its id
+    private static final String EVENT_PAGE_LINK = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+    // general map, used when an event has no id
+    private static final String MAP_LINK = "https://earthquake.usgs.gov/earthquakes/map/";
+
     /** Member Variables **/
 
     // description of the event
@@ -24,8 +31,10 @@ public class Earthquake {
     private long mDate;
     // total number of reports to DYFI? system
     private Integer mFelt;
-    // link to USGS
-    private String mLink;
+    // USGS event id, unique per event, also used to build the link to USGS
+    private String mId;
+    // time the event was last updated by USGS
+    private long mUpdated;
 
     /** Contructors **/
 
@@ -109,11 +118,33 @@ public class Earthquake {
         this.mFelt = mFelt;
     }
 
+    /**
+     * Return the USGS event page, built from the event id when it is asked for
+     */
     public String getLink() {
-        return mLink;
+        return linkFor(mId);
+    }
+
+    /**
+     * Return the USGS event page for an event id, or the general map if there is no id
+     */
+    public static String linkFor(String id) {
+        return id == null ? MAP_LINK : EVENT_PAGE_LINK + id;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public void setId(String id) {
+        mId = id;
+    }
+
+    public long getUpdated() {
+        return mUpdated;
     }
 
-    public void setLink(String link) {
-        mLink = link;
+    public void setUpdated(long updated) {
+        mUpdated = updated;
     }
 }
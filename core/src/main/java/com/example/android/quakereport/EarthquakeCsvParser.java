@@ -0,0 +1,170 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parser for the USGS CSV format (format=csv and the CSV catalog downloads). Columns are found
+ * by their name in the header line, so their order does not matter and extra columns are
+ * ignored. Each row is handed to an {@link EarthquakeSink} as soon as it has been read.
+ *
+ * Rows are tokenized in the read buffer by a {@link CsvTokenizer}: numbers and times are read
+ * from the bytes, and only the id and the place become Strings. Parsed into a table, the place
+ * stays bytes until a row is read. CSV has no title or felt reports, those stay unknown.
+ */
+public final class EarthquakeCsvParser {
+
+
+    /**
+     * This class only holds static methods, so no instances are needed.
+     */
+    private EarthquakeCsvParser() {
+    }
+
+
+    /**
+     * Parse a CSV document with a header line from the given stream, passing every row to the
+     * sink as a new {@link Earthquake}.
+     *
+     * @return the number of earthquakes passed to the sink
+     * @throws IOException if the stream could not be read
+     * @throws IllegalStateException if there is no header line with a time column, or a time
+     * cannot be parsed
+     */
+    public static int parse(InputStream inputStream, EarthquakeSink sink) throws IOException {
+        return parse(inputStream, sink, false, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Parse a CSV document, stopping before the next row once the token is canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public static int parse(InputStream inputStream, EarthquakeSink sink, CancellationToken token)
+            throws IOException {
+        return parse(inputStream, sink, false, token);
+    }
+
+
+    /**
+     * Parse a CSV document straight into the columns of a table. A single {@link Earthquake}
+     * is reused for every row, so no object per event is created, and the place is copied as
+     * bytes to be decoded when the row is read.
+     *
+     * @return the number of rows added to the table
+     */
+    public static int parse(InputStream inputStream, EarthquakeTable table) throws IOException {
+        return parse(inputStream, table, true, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Parse a CSV document into a table, stopping before the next row once the token is
+     * canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public static int parse(InputStream inputStream, EarthquakeTable table, CancellationToken token)
+            throws IOException {
+        return parse(inputStream, table, true, token);
+    }
+
+
+    /**
+     * @param reuseEarthquake true if the sink is a table, which copies each earthquake and does
+     * not keep it
+     */
+    private static int parse(InputStream inputStream, EarthquakeSink sink, boolean reuseEarthquake,
+                             CancellationToken token) throws IOException {
+
+        CsvTokenizer tokenizer = new CsvTokenizer(inputStream);
+        int count = 0;
+
+        try {
+            if (!tokenizer.nextRecord()) throw new IllegalStateException("No CSV header");
+            Columns columns = new Columns(tokenizer);
+
+            EarthquakeTable table = reuseEarthquake ? (EarthquakeTable) sink : null;
+            Earthquake scratch = reuseEarthquake ? new Earthquake() : null;
+            while (tokenizer.nextRecord()) {
+                token.throwIfCanceled();
+                Earthquake eq = reuseEarthquake ? scratch : new Earthquake();
+                readRow(tokenizer, columns, eq, table != null);
+                if (table != null && isRaw(tokenizer, columns.mPlace)) {
+                    table.add(eq, tokenizer.getBuffer(), -1, -1,
+                            tokenizer.getStart(columns.mPlace), tokenizer.getEnd(columns.mPlace));
+                } else {
+                    sink.onEarthquake(eq);
+                }
+                count++;
+            }
+        } catch (IllegalArgumentException e) {
+            // a time that is not a time
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            inputStream.close();
+        }
+
+        return count;
+    }
+
+
+    /**
+     * @return whether the bytes of a field are its text, so it can be decoded later
+     */
+    private static boolean isRaw(CsvTokenizer tokenizer, int field) {
+        return !tokenizer.isEmpty(field) && !tokenizer.isEscaped(field);
+    }
+
+
+    /**
+     * Read the current row into the given earthquake, overwriting all of its fields. The place
+     * is left out if it can be copied as bytes later.
+     */
+    private static void readRow(CsvTokenizer tokenizer, Columns columns, Earthquake eq, boolean lazyPlace) {
+        eq.setmTitle(null);
+        eq.setmPlace(lazyPlace && isRaw(tokenizer, columns.mPlace) ? null : tokenizer.getString(columns.mPlace, ""));
+        eq.setmLatitude(tokenizer.getDouble(columns.mLatitude, Double.NaN));
+        eq.setmLongitude(tokenizer.getDouble(columns.mLongitude, Double.NaN));
+        eq.setDepth(tokenizer.getDouble(columns.mDepth, Double.NaN));
+        eq.setmMagnitude(tokenizer.getDouble(columns.mMagnitude, Double.NaN));
+        eq.setmDate(tokenizer.getTime(columns.mTime, 0L));
+        eq.setUpdated(tokenizer.getTime(columns.mUpdated, 0L));
+        eq.setmFelt(null);
+        eq.setId(tokenizer.getString(columns.mId, null));
+    }
+
+
+    /**
+     * Positions of the columns we read, -1 for a column the file does not have
+     */
+    private static final class Columns {
+
+        int mTime = -1;
+        int mLatitude = -1;
+        int mLongitude = -1;
+        int mDepth = -1;
+        int mMagnitude = -1;
+        int mId = -1;
+        int mUpdated = -1;
+        int mPlace = -1;
+
+        /**
+         * Find the columns in the header record the tokenizer is on
+         */
+        Columns(CsvTokenizer header) {
+            for (int field = 0; field < header.getFieldCount(); field++) {
+                if (header.fieldEquals(field, "time")) mTime = field;
+                else if (header.fieldEquals(field, "latitude")) mLatitude = field;
+                else if (header.fieldEquals(field, "longitude")) mLongitude = field;
+                else if (header.fieldEquals(field, "depth")) mDepth = field;
+                else if (header.fieldEquals(field, "mag")) mMagnitude = field;
+                else if (header.fieldEquals(field, "id")) mId = field;
+                else if (header.fieldEquals(field, "updated")) mUpdated = field;
+                else if (header.fieldEquals(field, "place")) mPlace = field;
+            }
+            if (mTime < 0) throw new IllegalStateException("No time column in CSV header");
+        }
+    }
+}
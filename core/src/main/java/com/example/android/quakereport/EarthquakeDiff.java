@@ -0,0 +1,177 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The difference between two versions of a result, matched up by USGS event id. An event whose
+ * updated time differs between the two is reported as changed.
+ *
+ * Both tables are usually in the same order with only a few events added, removed or updated,
+ * so the common start and end are matched position by position and only the part in between
+ * goes through a hash map. The whole comparison is linear in the number of rows.
+ */
+public final class EarthquakeDiff {
+
+
+    private static final int[] NONE = new int[0];
+
+
+    /** The tables that were compared **/
+    public final EarthquakeTable oldTable;
+    public final EarthquakeTable newTable;
+
+    /**
+     * Rows of the new table that are not in the old one
+     */
+    public final int[] inserted;
+
+    /**
+     * Rows of the old table that are not in the new one
+     */
+    public final int[] removed;
+
+    /**
+     * Rows of the new table that are in the old one, but moved relative to the rows around them
+     */
+    public final int[] moved;
+
+    /**
+     * Rows of the new table that are in the old one with another updated time
+     */
+    public final int[] changed;
+
+
+    private EarthquakeDiff(EarthquakeTable oldTable, EarthquakeTable newTable,
+                           int[] inserted, int[] removed, int[] moved, int[] changed) {
+        this.oldTable = oldTable;
+        this.newTable = newTable;
+        this.inserted = inserted;
+        this.removed = removed;
+        this.moved = moved;
+        this.changed = changed;
+    }
+
+
+    /**
+     * @return true if both tables hold the same events in the same order, none of them updated
+     */
+    public boolean isEmpty() {
+        return changed.length == 0 && !isStructural();
+    }
+
+
+    /**
+     * @return true if events were added, removed or reordered, false if at most some rows
+     * changed in place
+     */
+    public boolean isStructural() {
+        return inserted.length > 0 || removed.length > 0 || moved.length > 0;
+    }
+
+
+    /**
+     * Compare two versions of a result
+     */
+    public static EarthquakeDiff compute(EarthquakeTable oldTable, EarthquakeTable newTable) {
+
+        int oldSize = oldTable.size();
+        int newSize = newTable.size();
+        IntList changed = new IntList();
+
+        // match the common start position by position
+        int start = 0;
+        while (start < oldSize && start < newSize && sameEvent(oldTable, start, newTable, start)) {
+            if (oldTable.getUpdated(start) != newTable.getUpdated(start)) changed.add(start);
+            start++;
+        }
+
+        // and the common end
+        int oldEnd = oldSize;
+        int newEnd = newSize;
+        IntList changedAtEnd = new IntList();
+        while (oldEnd > start && newEnd > start && sameEvent(oldTable, oldEnd - 1, newTable, newEnd - 1)) {
+            oldEnd--;
+            newEnd--;
+            if (oldTable.getUpdated(oldEnd) != newTable.getUpdated(newEnd)) changedAtEnd.add(newEnd);
+        }
+
+        // nothing in between, the usual case for a refresh
+        if (start == oldEnd && start == newEnd) {
+            changed.addAllReversed(changedAtEnd);
+            return new EarthquakeDiff(oldTable, newTable, NONE, NONE, NONE, changed.toArray());
+        }
+
+        // index the old rows in between by id
+        HashMap<String, Integer> oldRows = new HashMap<>((oldEnd - start) * 2);
+        for (int row = start; row < oldEnd; row++) {
+            String id = oldTable.getId(row);
+            if (id != null) oldRows.put(id, row);
+        }
+
+        IntList inserted = new IntList();
+        IntList moved = new IntList();
+        boolean[] kept = new boolean[oldEnd - start];
+
+        // walk the new rows in between. A matched row stays in place while its old position
+        // keeps increasing, a row that jumps back is reported as moved.
+        int lastOldRow = -1;
+        for (int row = start; row < newEnd; row++) {
+            String id = newTable.getId(row);
+            Integer oldRow = id == null ? null : oldRows.get(id);
+            if (oldRow == null) {
+                inserted.add(row);
+                continue;
+            }
+            kept[oldRow - start] = true;
+            if (oldRow > lastOldRow) {
+                lastOldRow = oldRow;
+            } else {
+                moved.add(row);
+            }
+            if (oldTable.getUpdated(oldRow) != newTable.getUpdated(row)) changed.add(row);
+        }
+
+        IntList removed = new IntList();
+        for (int row = start; row < oldEnd; row++) {
+            if (!kept[row - start]) removed.add(row);
+        }
+
+        changed.addAllReversed(changedAtEnd);
+        return new EarthquakeDiff(oldTable, newTable,
+                inserted.toArray(), removed.toArray(), moved.toArray(), changed.toArray());
+    }
+
+
+    private static boolean sameEvent(EarthquakeTable a, int rowA, EarthquakeTable b, int rowB) {
+        String id = a.getId(rowA);
+        return id != null && id.equals(b.getId(rowB));
+    }
+
+
+    /**
+     * Growable int array, so the row lists are not boxed
+     */
+    private static final class IntList {
+
+        private int[] mValues = NONE;
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, Math.max(8, mSize * 2));
+            }
+            mValues[mSize++] = value;
+        }
+
+        void addAllReversed(IntList other) {
+            for (int i = other.mSize - 1; i >= 0; i--) {
+                add(other.mValues[i]);
+            }
+        }
+
+        int[] toArray() {
+            return mSize == 0 ? NONE : Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches every event of a query over a time range, even when the range holds more events than
+ * USGS returns for a single request.
+ *
+ * The count endpoint is asked how many events each time window holds and windows over the limit
+ * are cut in half until every window fits. The windows are then fetched at the same time on a
+ * bounded pool, each retried on its own by the {@link ResilientFetcher}, and merged into one table in the requested order with
+ * duplicates (events on a window boundary) removed. Canceling the fetch aborts the count and
+ * window requests in flight and drops the windows not started yet.
+ */
+public class EarthquakeFetchPlanner {
+
+
+    /**
+     * Reports progress while the windows are fetched, called from the fetching threads
+     */
+    public interface ProgressListener {
+        void onProgress(int windowsDone, int windowsTotal, int earthquakesLoaded);
+    }
+
+
+    /**
+     * Most events USGS returns for one query
+     */
+    public static final int MAX_EVENTS_PER_QUERY = 20000;
+
+
+    /**
+     * Windows fetched at the same time
+     */
+    private static final int MAX_PARALLEL_FETCHES = 4;
+
+
+    /**
+     * Windows are not cut smaller than this, however many events they hold
+     */
+    private static final long MIN_WINDOW_MS = 60 * 1000;
+
+
+    /**
+     * Shared by all planners so the number of parallel requests stays bounded
+     */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(MAX_PARALLEL_FETCHES);
+
+
+    /**
+     * Query url without starttime or endtime, for example
+     * https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&minmag=2.5
+     */
+    private final String mQueryUrl;
+
+    private final int mMaxEventsPerWindow;
+
+    /** Of the count and window requests **/
+    private final RequestScheduler.Priority mPriority;
+
+
+    public EarthquakeFetchPlanner(String queryUrl) {
+        this(queryUrl, MAX_EVENTS_PER_QUERY, RequestScheduler.Priority.PREFETCH);
+    }
+
+    public EarthquakeFetchPlanner(String queryUrl, int maxEventsPerWindow) {
+        this(queryUrl, maxEventsPerWindow, RequestScheduler.Priority.PREFETCH);
+    }
+
+    /**
+     * @param priority of the count and window requests. Ranges are bulk work, so the
+     *                 default is {@link RequestScheduler.Priority#PREFETCH}.
+     */
+    public EarthquakeFetchPlanner(String queryUrl, int maxEventsPerWindow, RequestScheduler.Priority priority) {
+        mQueryUrl = queryUrl;
+        mMaxEventsPerWindow = maxEventsPerWindow;
+        mPriority = priority;
+    }
+
+
+    /**
+     * Fetch every event between start and end
+     *
+     * @param orderBy  USGS orderby value the merged result is sorted by
+     * @param listener told about progress, may be null
+     * @throws FetchException if a window still fails after its retries
+     */
+    public EarthquakeTable fetch(long start, long end, String orderBy, ProgressListener listener)
+            throws IOException {
+        return fetch(start, end, orderBy, listener, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Fetch every event between start and end, giving up as soon as the token is canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public EarthquakeTable fetch(long start, long end, String orderBy, final ProgressListener listener,
+                                 final CancellationToken token) throws IOException {
+
+        // cut the range into windows that each fit into a single request
+        final List<long[]> windows = new ArrayList<>();
+        plan(start, end, windows, token);
+
+        // fetch all windows at the same time
+        final AtomicInteger windowsDone = new AtomicInteger();
+        final AtomicInteger earthquakesLoaded = new AtomicInteger();
+        List<Future<EarthquakeTable>> futures = new ArrayList<>(windows.size());
+        for (final long[] window : windows) {
+            futures.add(EXECUTOR.submit(new Callable<EarthquakeTable>() {
+                @Override
+                public EarthquakeTable call() throws Exception {
+                    EarthquakeTable table = fetchWindow(window[0], window[1], token);
+                    int loaded = earthquakesLoaded.addAndGet(table.size());
+                    if (listener != null) {
+                        listener.onProgress(windowsDone.incrementAndGet(), windows.size(), loaded);
+                    }
+                    return table;
+                }
+            }));
+        }
+
+        // windows still queued are dropped, the ones running stop on the token themselves,
+        // in their retry delay or by aborting their requests
+        final List<Future<EarthquakeTable>> pending = futures;
+        CancellationToken.OnCancelListener cancelWindows = new CancellationToken.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                cancelAll(pending);
+            }
+        };
+        token.addOnCancelListener(cancelWindows);
+
+        // merge, dropping events that were returned by two neighbouring windows
+        EarthquakeTable merged = new EarthquakeTable();
+        HashSet<String> ids = new HashSet<>();
+        try {
+            for (Future<EarthquakeTable> future : futures) {
+                EarthquakeTable table = future.get();
+                for (int row = 0; row < table.size(); row++) {
+                    String id = table.getId(row);
+                    if (id == null || ids.add(id)) {
+                        merged.addRow(table, row);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching", e);
+        } catch (CancellationException e) {
+            throw new FetchCanceledException();
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Fetching a window failed", e.getCause());
+        } finally {
+            token.removeOnCancelListener(cancelWindows);
+        }
+
+        // bring the windows back into one order
+        int[] rows = new int[merged.size()];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = row;
+        }
+        merged.sortRows(rows, orderBy);
+        return merged.select(rows);
+    }
+
+
+    /**
+     * Add windows covering [start, end] to the list, halving any window that holds too many events
+     */
+    private void plan(long start, long end, List<long[]> windows, CancellationToken token) throws IOException {
+
+        int count = ResilientFetcher.getInstance().fetchCount(
+                windowUrl(mQueryUrl.replace("/query", "/count"), start, end), mPriority, token);
+
+        if (count <= mMaxEventsPerWindow || end - start <= MIN_WINDOW_MS) {
+            if (count > 0) {
+                windows.add(new long[]{start, end});
+            }
+            return;
+        }
+
+        long mid = start + (end - start) / 2;
+        plan(start, mid, windows, token);
+        plan(mid, end, windows, token);
+    }
+
+
+    /**
+     * Fetch a single window. Windows are far larger than a page, so they are retried but not
+     * hedged.
+     */
+    private EarthquakeTable fetchWindow(long start, long end, CancellationToken token) throws IOException {
+        String url = windowUrl(mQueryUrl, start, end) + "&limit=" + mMaxEventsPerWindow;
+        return ResilientFetcher.getInstance().fetchTable(url, mPriority, false, token);
+    }
+
+
+    private static String windowUrl(String url, long start, long end) {
+        return url + (url.indexOf('?') < 0 ? "?" : "&")
+                + "starttime=" + UsgsTime.format(start)
+                + "&endtime=" + UsgsTime.format(end);
+    }
+
+
+    private static void cancelAll(List<Future<EarthquakeTable>> futures) {
+        for (Future<EarthquakeTable> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
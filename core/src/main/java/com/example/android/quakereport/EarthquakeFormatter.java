@@ -0,0 +1,55 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Turns table rows into the strings shown in the list. Meant to run on the loader's background
+ * thread, so binding a row on the UI thread only has to hand ready-made strings to the views.
+ */
+public final class EarthquakeFormatter {
+
+
+    /**
+     * Rows from the top whose title and place are decoded along with the display columns, a
+     * few screens of the list. Rows further down are decoded when they are first bound.
+     */
+    static final int DECODE_AHEAD_ROWS = 200;
+
+
+    /**
+     * This class only holds static methods, so no instances are needed.
+     */
+    private EarthquakeFormatter() {
+    }
+
+
+    /**
+     * Fill the display columns of every row that does not have them yet, and decode the text
+     * of the first {@link #DECODE_AHEAD_ROWS}
+     */
+    public static void format(EarthquakeTable table) {
+
+        if (table == null || table.isEmpty()) return;
+
+        // formats are not thread safe, so every call gets its own, but only one per call
+        DecimalFormat decimalFormat = new DecimalFormat("0.0");
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM d, yy\nh:mm a", Locale.US);
+        Date date = new Date();
+
+        for (int row = 0; row < table.size(); row++) {
+            if (row < DECODE_AHEAD_ROWS) table.decodeText(row);
+            if (table.hasDisplay(row)) continue;
+
+            // make sure decimal is only 1 decimal place
+            String magnitude = decimalFormat.format(table.getMagnitude(row));
+
+            // convert time to proper date format
+            date.setTime(table.getTime(row));
+
+            table.setDisplay(row, magnitude, dateFormat.format(date));
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.android.quakereport;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Pull parser for USGS GeoJSON responses. The input stream is read once, front to back, and an
+ * {@link Earthquake} is handed to an {@link EarthquakeSink} as soon as each feature is complete.
+ * Properties that are not used by the app are skipped without being decoded. Parsing into a
+ * table goes through a byte level index pass instead, see {@link GeoJsonIndexer}.
+ */
+public final class EarthquakeJsonParser {
+
+
+    /**
+     * This class only holds static methods, so no instances are needed.
+     */
+    private EarthquakeJsonParser() {
+    }
+
+
+    /**
+     * Parse a GeoJSON FeatureCollection from the given stream, passing every feature to the sink.
+     *
+     * @return the number of earthquakes passed to the sink
+     * @throws IOException if the stream could not be read or is not valid JSON
+     * @throws IllegalStateException if the JSON does not have the expected structure
+     */
+    public static int parse(InputStream inputStream, EarthquakeSink sink) throws IOException {
+        return parse(inputStream, sink, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Parse a GeoJSON FeatureCollection, stopping before the next feature once the token is
+     * canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public static int parse(InputStream inputStream, EarthquakeSink sink, CancellationToken token)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        int count = 0;
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                // only the features array matters, skip metadata, bbox and type
+                if ("features".equals(reader.nextName())) {
+                    count += readFeatures(reader, sink, token);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Parse a GeoJSON FeatureCollection from the given stream straight into the columns of a
+     * table, with a {@link GeoJsonIndexer}: numbers are read from the bytes, and titles and
+     * places are copied as bytes and only decoded when a row is read.
+     *
+     * @return the number of rows added to the table
+     */
+    public static int parse(InputStream inputStream, EarthquakeTable table) throws IOException {
+        return parse(inputStream, table, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Parse a GeoJSON FeatureCollection into a table, stopping before the next feature once the
+     * token is canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public static int parse(InputStream inputStream, EarthquakeTable table, CancellationToken token)
+            throws IOException {
+        try {
+            return GeoJsonIndexer.index(inputStream, table, token);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+
+    /**
+     * Parse the response of the USGS count endpoint, {"count":123,"maxAllowed":20000}
+     *
+     * @return the number of events matching the query
+     * @throws IllegalStateException if the response has no count
+     */
+    public static int parseCount(InputStream inputStream) throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        int count = -1;
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("count".equals(reader.nextName())) {
+                    count = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+
+        if (count < 0) throw new IllegalStateException("No count in response");
+        return count;
+    }
+
+
+    /**
+     * Read the features array, emitting one earthquake per element
+     */
+    private static int readFeatures(JsonReader reader, EarthquakeSink sink, CancellationToken token)
+            throws IOException {
+
+        int count = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            token.throwIfCanceled();
+            Earthquake eq = new Earthquake();
+            readFeature(reader, eq);
+            sink.onEarthquake(eq);
+            count++;
+        }
+        reader.endArray();
+
+        return count;
+    }
+
+
+    /**
+     * Read a single feature object into the given earthquake, overwriting all of its fields
+     */
+    private static void readFeature(JsonReader reader, Earthquake eq) throws IOException {
+
+        // start from the defaults, the earthquake may still hold the previous feature
+        eq.setmTitle(null);
+        eq.setmPlace("");
+        eq.setmLatitude(Double.NaN);
+        eq.setmLongitude(Double.NaN);
+        eq.setmMagnitude(Double.NaN);
+        eq.setDepth(Double.NaN);
+        eq.setmDate(0L);
+        eq.setmFelt(null);
+        eq.setId(null);
+        eq.setUpdated(0L);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "properties":
+                    readProperties(reader, eq);
+                    break;
+                case "geometry":
+                    readGeometry(reader, eq);
+                    break;
+                case "id":
+                    eq.setId(nextString(reader, null));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+
+    /**
+     * Read the epicenter of a feature, a GeoJSON Point of [longitude, latitude, depth]
+     */
+    private static void readGeometry(JsonReader reader, Earthquake eq) throws IOException {
+
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("coordinates".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                if (reader.hasNext()) eq.setmLongitude(nextDouble(reader, Double.NaN));
+                if (reader.hasNext()) eq.setmLatitude(nextDouble(reader, Double.NaN));
+                if (reader.hasNext()) eq.setDepth(nextDouble(reader, Double.NaN));
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+
+    /**
+     * Read the properties of a feature into the given earthquake
+     */
+    private static void readProperties(JsonReader reader, Earthquake eq) throws IOException {
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "mag":
+                    eq.setmMagnitude(nextDouble(reader, Double.NaN));
+                    break;
+                case "place":
+                    eq.setmPlace(nextString(reader, ""));
+                    break;
+                case "time":
+                    eq.setmDate(nextLong(reader, 0L));
+                    break;
+                case "updated":
+                    eq.setUpdated(nextLong(reader, 0L));
+                    break;
+                case "title":
+                    eq.setmTitle(nextString(reader, null));
+                    break;
+                case "felt":
+                    eq.setmFelt(nextInteger(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+
+    /**
+     * Helpers that accept a JSON null and return the fallback value instead
+     */
+    private static String nextString(JsonReader reader, String fallback) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return fallback;
+        }
+        return reader.nextString();
+    }
+
+    private static double nextDouble(JsonReader reader, double fallback) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return fallback;
+        }
+        return reader.nextDouble();
+    }
+
+    private static Integer nextInteger(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextInt();
+    }
+
+    private static long nextLong(JsonReader reader, long fallback) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return fallback;
+        }
+        return reader.nextLong();
+    }
+}
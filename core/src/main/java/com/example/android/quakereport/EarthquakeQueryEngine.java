@@ -0,0 +1,175 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Answers queries from the earthquakes already loaded, when they are known to hold the answer.
+ *
+ * The engine remembers the last result loaded from the network together with the query it
+ * answers. A new query can be answered from it without a download when it only narrows that
+ * set: a higher minimum magnitude, or another order of the same events. Queries that could need
+ * events the result does not have go to the network as before.
+ */
+public final class EarthquakeQueryEngine {
+
+
+    /**
+     * The parameters of a query that decide which events it returns and in what order
+     */
+    public static final class Query {
+
+        final double minMagnitude;
+        final String orderBy;
+        // 0 when the query asks for the latest events instead of a time range
+        final int timeRangeDays;
+
+        public Query(double minMagnitude, String orderBy, int timeRangeDays) {
+            this.minMagnitude = minMagnitude;
+            this.orderBy = orderBy;
+            this.timeRangeDays = timeRangeDays;
+        }
+    }
+
+
+    /**
+     * A query answered from loaded data
+     */
+    public static final class Result {
+
+        public final EarthquakeTable earthquakes;
+        // true if the answer holds every matching event, false if more can be paged in
+        public final boolean complete;
+
+        Result(EarthquakeTable earthquakes, boolean complete) {
+            this.earthquakes = earthquakes;
+            this.complete = complete;
+        }
+    }
+
+
+    private static final EarthquakeQueryEngine INSTANCE = new EarthquakeQueryEngine();
+
+
+    /**
+     * Loaded data older than this is not used, so narrowing the settings cannot hide new events
+     * for long
+     */
+    private static final long MAX_AGE_MS = 10 * 60 * 1000;
+
+
+    // the loaded events and the query they answer
+    private Query mQuery;
+    private final EarthquakeTable mEarthquakes = new EarthquakeTable();
+    // false when the query had more events than were loaded
+    private boolean mComplete;
+    // when the remembered query was loaded
+    private long mLoadedAt;
+
+
+    /**
+     * Return the process wide engine, it outlives the activity so settings changes can use it
+     */
+    public static EarthquakeQueryEngine getInstance() {
+        return INSTANCE;
+    }
+
+
+    private EarthquakeQueryEngine() {
+    }
+
+
+    /**
+     * Remember a result loaded from the network, replacing what was remembered before
+     *
+     * @param complete false if the query has more events than the result holds
+     */
+    public synchronized void remember(Query query, EarthquakeTable earthquakes, boolean complete) {
+        mQuery = query;
+        mEarthquakes.clear();
+        mEarthquakes.addAll(earthquakes);
+        mComplete = complete;
+        mLoadedAt = System.currentTimeMillis();
+    }
+
+
+    /**
+     * Add the next page of the remembered query
+     *
+     * @param complete true if this was the last page
+     */
+    public synchronized void append(EarthquakeTable earthquakes, boolean complete) {
+        if (mQuery == null) return;
+        mEarthquakes.addAll(earthquakes);
+        mComplete = complete;
+    }
+
+
+    /**
+     * Forget the remembered result
+     */
+    public synchronized void clear() {
+        mQuery = null;
+        mEarthquakes.clear();
+        mComplete = false;
+    }
+
+
+    /**
+     * Return true if the query can be answered from the remembered result
+     */
+    public synchronized boolean canAnswer(Query query) {
+
+        if (mQuery == null) return false;
+
+        // too old, go and look for new events
+        if (System.currentTimeMillis() - mLoadedAt > MAX_AGE_MS) return false;
+
+        // another time range is another set of events
+        if (query.timeRangeDays != mQuery.timeRangeDays) return false;
+
+        // a lower minimum magnitude needs events we never loaded
+        if (query.minMagnitude < mQuery.minMagnitude) return false;
+
+        // every event of the old query is here, so any subset in any order is too
+        if (mComplete) return true;
+
+        // only the first events of the old query are here. In the same order that is still a
+        // correct first part of the new answer when the minimum magnitude did not change, or
+        // when the order is by magnitude, largest first: everything above the new minimum was
+        // loaded before anything below it.
+        boolean sameOrder = equals(query.orderBy, mQuery.orderBy);
+        return sameOrder && (query.minMagnitude == mQuery.minMagnitude || "magnitude".equals(query.orderBy));
+    }
+
+
+    /**
+     * Filter and sort the remembered result for the query. Call only when
+     * {@link #canAnswer(Query)} returned true.
+     */
+    public synchronized Result answer(Query query) {
+
+        // keep the rows at or above the new minimum magnitude
+        int[] rows = new int[mEarthquakes.size()];
+        int count = 0;
+        for (int row = 0; row < mEarthquakes.size(); row++) {
+            if (mEarthquakes.getMagnitude(row) >= query.minMagnitude) {
+                rows[count++] = row;
+            }
+        }
+        if (count < rows.length) {
+            rows = Arrays.copyOf(rows, count);
+        }
+
+        // the remembered rows are already in the old order
+        if (!equals(query.orderBy, mQuery.orderBy)) {
+            mEarthquakes.sortRows(rows, query.orderBy);
+        }
+
+        return new Result(mEarthquakes.select(rows), mComplete);
+    }
+
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.android.quakereport;
+
+/**
+ * Local store of earthquakes keyed by USGS event id. Events are written with
+ * {@link #upsert(EarthquakeTable)} so an updated event replaces the older copy of itself.
+ */
+public interface EarthquakeRepository {
+
+    /**
+     * Insert the given earthquakes, replacing any stored event with the same id unless the
+     * stored one was updated later
+     */
+    void upsert(EarthquakeTable earthquakes);
+
+    /**
+     * Return the stored earthquakes with at least the given magnitude that happened at or after
+     * the given time
+     *
+     * @param startTime earliest time of the earthquakes, in milliseconds since the epoch
+     * @param orderBy   USGS orderby value, "magnitude", "time" or their "-asc" variants
+     * @param limit     maximum number of earthquakes to return
+     */
+    EarthquakeTable query(double minMagnitude, long startTime, String orderBy, int limit);
+
+    /**
+     * Return the newest USGS update time seen for the given query, or 0 if it was never synced
+     */
+    long getLastSync(String queryKey);
+
+    /**
+     * Record the newest USGS update time seen for the given query
+     */
+    void setLastSync(String queryKey, long updated);
+
+    /**
+     * Keep the store within a budget by removing the earthquakes that happened longest ago
+     *
+     * @return how many earthquakes were removed
+     */
+    int trim(int maxEarthquakes);
+}
@@ -0,0 +1,370 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process wide cache of parsed query results, so rotating the device, reopening the activity
+ * or two screens asking for the same query do not each download and parse it again.
+ *
+ * Results are kept for a short time and the least recently used one is dropped when the cache
+ * is full. Requests of the same query that arrive while it is being fetched wait for that
+ * fetch instead of starting their own, so there is only one request and one parse however
+ * many callers there are. Queries are matched by their normalized url, see
+ * {@link #normalize(String)}.
+ *
+ * Every caller gets its own copy of the result, as loaders format the tables they get.
+ *
+ * A caller only waits for a fetch of the same or a higher {@link RequestScheduler.Priority}.
+ * One that matters more starts its own fetch rather than queue behind bulk work, and callers
+ * coming after it wait for that one.
+ *
+ * A caller that cancels its token stops waiting right away. The fetch itself runs with the
+ * token of the caller that started it, and when that caller cancels, the others start over
+ * rather than failing with it.
+ */
+public final class EarthquakeResultCache {
+
+
+    /**
+     * Fetches a query result, only called for results that are neither cached nor in flight
+     */
+    public interface Fetcher {
+        EarthquakeTable fetch(String url, CancellationToken token) throws IOException;
+    }
+
+
+    /**
+     * How long a result is served without asking USGS again
+     */
+    public static final long DEFAULT_TTL_MS = 60 * 1000;
+
+
+    /**
+     * Results kept, a result is one page or one sync of a query so they are small
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+
+    /**
+     * Names of the cache {@link Metrics} counters. A coalesced request waited for another
+     * request of the same query, an orphaned one had to start over because the request it
+     * waited for was canceled. A stale hit served a result past its time because fetching it
+     * again failed.
+     */
+    static final String METRIC_HITS = "cache.hits";
+    static final String METRIC_MISSES = "cache.misses";
+    static final String METRIC_COALESCED = "cache.coalesced";
+    static final String METRIC_ORPHANED = "cache.orphaned";
+    static final String METRIC_STALE = "cache.stale";
+
+
+    private static final EarthquakeResultCache INSTANCE =
+            new EarthquakeResultCache(DEFAULT_TTL_MS, DEFAULT_MAX_ENTRIES);
+
+
+    private final long mTtlMs;
+    private final int mMaxEntries;
+
+    /** Results by normalized url, least recently used first, guarded by this **/
+    private final LinkedHashMap<String, CachedResult> mEntries;
+
+    /** Fetches running right now by normalized url, guarded by this **/
+    private final HashMap<String, Fetch> mInFlight = new HashMap<>();
+
+
+    public static EarthquakeResultCache getInstance() {
+        return INSTANCE;
+    }
+
+
+    public EarthquakeResultCache(long ttlMs, int maxEntries) {
+        mTtlMs = ttlMs;
+        mMaxEntries = maxEntries;
+        mEntries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+
+    /**
+     * Return a copy of the result of the url: a cached one if it is fresh enough, the one
+     * being fetched if another thread is fetching it, or else a new one from the fetcher.
+     * Failed fetches are not cached and are reported to every waiting caller.
+     *
+     * @return null if the fetcher returned null, such as for an unparseable response
+     * @throws IOException if the fetch failed
+     */
+    public EarthquakeTable get(String url, Fetcher fetcher) throws IOException {
+        return get(url, RequestScheduler.Priority.VISIBLE, fetcher, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Same as {@link #get(String, Fetcher)}, giving up as soon as the token is canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public EarthquakeTable get(String url, Fetcher fetcher, CancellationToken token) throws IOException {
+        return get(url, RequestScheduler.Priority.VISIBLE, fetcher, token);
+    }
+
+
+    /**
+     * Same as {@link #get(String, Fetcher, CancellationToken)}, for a caller of the given
+     * priority. It does not wait for a fetch in flight of a lower priority.
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public EarthquakeTable get(final String url, RequestScheduler.Priority priority, final Fetcher fetcher,
+                               final CancellationToken token) throws IOException {
+
+        final String key = normalize(url);
+        Metrics metrics = Metrics.getInstance();
+
+        while (true) {
+            token.throwIfCanceled();
+
+            Fetch task;
+            boolean leader = false;
+            synchronized (this) {
+                CachedResult entry = mEntries.get(key);
+                if (entry != null && System.currentTimeMillis() - entry.mFetchedAt < mTtlMs) {
+                    metrics.counter(METRIC_HITS).increment();
+                    return copy(entry.mTable);
+                }
+
+                task = mInFlight.get(key);
+                if (task == null || task.mPriority.compareTo(priority) > 0) {
+                    // a fetch of lower priority may still be waiting for a slot, so take its
+                    // place for the callers after us and leave it to those already waiting
+                    task = new Fetch(key, priority, new Callable<EarthquakeTable>() {
+                        @Override
+                        public EarthquakeTable call() throws IOException {
+                            return fetcher.fetch(url, token);
+                        }
+                    });
+                    mInFlight.put(key, task);
+                    leader = true;
+                    metrics.counter(METRIC_MISSES).increment();
+                } else {
+                    metrics.counter(METRIC_COALESCED).increment();
+                }
+            }
+
+            // the first caller fetches on its own thread, the others wait for it
+            if (leader) {
+                task.run();
+            }
+
+            EarthquakeTable table;
+            try {
+                table = task.await(token);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for " + url, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof FetchCanceledException && !leader && !token.isCanceled()) {
+                    // the caller we waited for gave up, which is no reason for us to
+                    metrics.counter(METRIC_ORPHANED).increment();
+                    continue;
+                }
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+
+            return table != null ? copy(table) : null;
+        }
+    }
+
+
+    /**
+     * Return a copy of the last result of the url however old it is, for when fetching it
+     * again failed
+     *
+     * @return null if there is none
+     */
+    public synchronized EarthquakeTable getStale(String url) {
+        CachedResult entry = mEntries.get(normalize(url));
+        if (entry == null) return null;
+        Metrics.getInstance().counter(METRIC_STALE).increment();
+        return copy(entry.mTable);
+    }
+
+
+    /**
+     * Drop the result of the url, so the next request goes to USGS
+     */
+    public synchronized void invalidate(String url) {
+        mEntries.remove(normalize(url));
+    }
+
+
+    /**
+     * Drop every result
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+
+    /**
+     * Drop the results that are too old to be served, the rest stay until they are pushed out
+     */
+    public synchronized void trim() {
+        long now = System.currentTimeMillis();
+        Iterator<CachedResult> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            if (now - entries.next().mFetchedAt >= mTtlMs) entries.remove();
+        }
+    }
+
+
+    /**
+     * Bring urls of the same query to the same form: lower case scheme and host, no default
+     * port, no fragment and the query parameters sorted, so "?minmag=2&format=geojson" and
+     * "?format=geojson&minmag=2" are one entry. Urls that cannot be parsed are used as they are.
+     */
+    static String normalize(String url) {
+        if (url == null) return "";
+        try {
+            URI uri = new URI(url);
+            if (uri.getScheme() == null || uri.getRawAuthority() == null) return url;
+
+            String scheme = uri.getScheme().toLowerCase(Locale.US);
+            StringBuilder normalized = new StringBuilder(url.length());
+            normalized.append(scheme).append("://");
+            if (uri.getHost() != null) {
+                normalized.append(uri.getHost().toLowerCase(Locale.US));
+                int port = uri.getPort();
+                if (port != -1 && !(port == 80 && scheme.equals("http"))
+                        && !(port == 443 && scheme.equals("https"))) {
+                    normalized.append(':').append(port);
+                }
+            } else {
+                normalized.append(uri.getRawAuthority());
+            }
+            String path = uri.getRawPath();
+            normalized.append(path == null || path.isEmpty() ? "/" : path);
+
+            String query = uri.getRawQuery();
+            if (query != null && !query.isEmpty()) {
+                String[] parameters = query.split("&");
+                Arrays.sort(parameters);
+                char separator = '?';
+                for (String parameter : parameters) {
+                    if (parameter.isEmpty()) continue;
+                    normalized.append(separator).append(parameter);
+                    separator = '&';
+                }
+            }
+            return normalized.toString();
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+
+
+    private static EarthquakeTable copy(EarthquakeTable table) {
+        EarthquakeTable copy = new EarthquakeTable(table.size());
+        copy.addAll(table);
+        return copy;
+    }
+
+
+    /**
+     * A fetch in flight, which leaves {@link #mInFlight} as soon as it is done so callers
+     * coming after it never wait on a finished fetch. Its result goes into {@link #mEntries}
+     * in the same step, so a caller in between finds either the fetch or the result and never
+     * starts a second request.
+     */
+    private final class Fetch extends FutureTask<EarthquakeTable> {
+
+        private final String mKey;
+        private final RequestScheduler.Priority mPriority;
+
+        Fetch(String key, RequestScheduler.Priority priority, Callable<EarthquakeTable> callable) {
+            super(callable);
+            mKey = key;
+            mPriority = priority;
+        }
+
+        @Override
+        protected void done() {
+            EarthquakeTable table = null;
+            if (!isCancelled()) {
+                try {
+                    table = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // failed fetches are not cached, the waiting callers get the failure
+                }
+            }
+            synchronized (EarthquakeResultCache.this) {
+                if (table != null) {
+                    mEntries.put(mKey, new CachedResult(table, System.currentTimeMillis()));
+                }
+                if (mInFlight.get(mKey) == this) mInFlight.remove(mKey);
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait for the result, or until the token is canceled
+         *
+         * @throws FetchCanceledException if the token was canceled first
+         */
+        EarthquakeTable await(CancellationToken token)
+                throws FetchCanceledException, InterruptedException, ExecutionException {
+
+            CancellationToken.OnCancelListener wake = new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    synchronized (Fetch.this) {
+                        Fetch.this.notifyAll();
+                    }
+                }
+            };
+            token.addOnCancelListener(wake);
+            try {
+                synchronized (this) {
+                    while (!isDone()) {
+                        token.throwIfCanceled();
+                        wait();
+                    }
+                }
+            } finally {
+                token.removeOnCancelListener(wake);
+            }
+            return get();
+        }
+    }
+
+
+    private static final class CachedResult {
+
+        final EarthquakeTable mTable;
+        final long mFetchedAt;
+
+        CachedResult(EarthquakeTable table, long fetchedAt) {
+            mTable = table;
+            mFetchedAt = fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.android.quakereport;
+
+/**
+ * Receives {@link Earthquake} objects one at a time while a USGS response is being parsed,
+ * so callers can consume each event without waiting for the whole response.
+ */
+public interface EarthquakeSink {
+
+    /**
+     * Called once for every feature in the response, in the order they appear.
+     */
+    void onEarthquake(Earthquake earthquake);
+}
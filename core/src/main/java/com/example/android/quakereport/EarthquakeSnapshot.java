@@ -0,0 +1,281 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Binary snapshot of the last result shown, so a cold start can show it straight away
+ * instead of waiting for a network round trip and a JSON parse.
+ *
+ * The file is a fixed layout of primitive columns followed by a table of the distinct strings,
+ * all little endian:
+ * <pre>
+ *   header   int magic, int version, int rows, int strings, int query, int unused
+ *   columns  double magnitude, latitude, longitude, depth [rows]
+ *            long time, updated [rows]
+ *            int felt, id, title, proximity, region, display magnitude, display date [rows]
+ *   strings  int offset [strings + 1], then the UTF-8 bytes of every string
+ * </pre>
+ * String columns hold indexes into the string table, -1 for null. The 8 byte columns come
+ * first so every column is aligned. A file with another magic or version is ignored, so the
+ * layout can change by bumping {@link #VERSION}.
+ */
+public final class EarthquakeSnapshot {
+
+
+    private static final String TAG = EarthquakeSnapshot.class.getSimpleName();
+
+
+    private static final int MAGIC = 0x514b534e; /* "QKSN" */
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 6 * 4;
+    private static final int DOUBLE_COLUMNS = 4;
+    private static final int LONG_COLUMNS = 2;
+    private static final int INT_COLUMNS = 7;
+    private static final int ROW_SIZE = DOUBLE_COLUMNS * 8 + LONG_COLUMNS * 8 + INT_COLUMNS * 4;
+    private static final int NO_STRING = -1;
+
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+    private EarthquakeSnapshot() {
+    }
+
+
+    /**
+     * The snapshot of the app, it is only a cache so it lives in the cache directory
+     */
+    public static File getFile(File cacheDir) {
+        return new File(cacheDir, "earthquakes.snapshot");
+    }
+
+
+    /**
+     * Write the table to the file, tagged with the query it answers. The snapshot is written
+     * next to the file and renamed over it once it is complete and synced, so a crash leaves
+     * either the old snapshot or the new one, never half of one. Every write has a temporary
+     * file of its own, so the loader and the prefetch job can write at the same time and the
+     * last rename wins.
+     *
+     * @return false if the snapshot could not be written
+     */
+    public static boolean write(File file, String query, EarthquakeTable earthquakes) {
+
+        int rows = earthquakes.size();
+
+        // distinct strings, each stored once
+        HashMap<String, Integer> indexes = new HashMap<>();
+        ArrayList<byte[]> strings = new ArrayList<>();
+        int queryIndex = stringIndex(query, indexes, strings);
+        int[][] stringColumns = new int[INT_COLUMNS - 1][rows];
+        for (int row = 0; row < rows; row++) {
+            stringColumns[0][row] = stringIndex(earthquakes.getId(row), indexes, strings);
+            stringColumns[1][row] = stringIndex(earthquakes.getTitle(row), indexes, strings);
+            stringColumns[2][row] = stringIndex(earthquakes.getProximity(row), indexes, strings);
+            stringColumns[3][row] = stringIndex(earthquakes.getRegion(row), indexes, strings);
+            stringColumns[4][row] = stringIndex(earthquakes.getDisplayMagnitude(row), indexes, strings);
+            stringColumns[5][row] = stringIndex(earthquakes.getDisplayDate(row), indexes, strings);
+        }
+        int stringBytes = 0;
+        for (byte[] string : strings) {
+            stringBytes += string.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(
+                columnsEnd(rows) + (strings.size() + 1) * 4 + stringBytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(strings.size()).putInt(queryIndex).putInt(0);
+        for (int row = 0; row < rows; row++) buffer.putDouble(earthquakes.getMagnitude(row));
+        for (int row = 0; row < rows; row++) buffer.putDouble(earthquakes.getLatitude(row));
+        for (int row = 0; row < rows; row++) buffer.putDouble(earthquakes.getLongitude(row));
+        for (int row = 0; row < rows; row++) buffer.putDouble(earthquakes.getDepth(row));
+        for (int row = 0; row < rows; row++) buffer.putLong(earthquakes.getTime(row));
+        for (int row = 0; row < rows; row++) buffer.putLong(earthquakes.getUpdated(row));
+        for (int row = 0; row < rows; row++) buffer.putInt(earthquakes.getFelt(row));
+        for (int[] column : stringColumns) {
+            for (int row = 0; row < rows; row++) buffer.putInt(column[row]);
+        }
+
+        int offset = 0;
+        for (byte[] string : strings) {
+            buffer.putInt(offset);
+            offset += string.length;
+        }
+        buffer.putInt(offset);
+        for (byte[] string : strings) {
+            buffer.put(string);
+        }
+        buffer.flip();
+
+        File temp = null;
+        FileOutputStream out = null;
+        try {
+            temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            out = new FileOutputStream(temp);
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // the data has to be on disk before the rename makes it the snapshot
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp + " to " + file);
+            }
+            CoreLog.v(TAG, "Wrote a snapshot of " + rows + " earthquakes, " + buffer.limit() + " bytes.");
+            return true;
+        } catch (IOException e) {
+            CoreLog.e(TAG, "!!! Could not write the snapshot !!!", e);
+            if (temp != null) {
+                temp.delete();
+            }
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    CoreLog.e(TAG, "!!! Could not close the snapshot !!!", e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Map the snapshot file and read it into a table
+     *
+     * @return the earthquakes of the snapshot, or null if there is none for the given query or
+     * the file is not a snapshot this version can read
+     */
+    public static EarthquakeTable read(File file, String query) {
+
+        if (!file.exists()) return null;
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                CoreLog.w(TAG, "Not a snapshot, ignoring it.");
+                return null;
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                CoreLog.w(TAG, "Snapshot version " + version + " is not " + VERSION + ", ignoring it.");
+                return null;
+            }
+            int rows = buffer.getInt();
+            int stringCount = buffer.getInt();
+            int queryIndex = buffer.getInt();
+            buffer.getInt();
+            if (rows < 0 || stringCount < 0 || rows > buffer.limit() / ROW_SIZE
+                    || columnsEnd(rows) + (stringCount + 1L) * 4 > buffer.limit()) {
+                CoreLog.w(TAG, "Snapshot is truncated, ignoring it.");
+                return null;
+            }
+
+            // strings first, the rows refer to them
+            String[] strings = readStrings(buffer, columnsEnd(rows), stringCount);
+            if (query == null || !query.equals(string(strings, queryIndex))) {
+                CoreLog.v(TAG, "Snapshot is for another query.");
+                return null;
+            }
+
+            int doubles = HEADER_SIZE;
+            int longs = doubles + DOUBLE_COLUMNS * 8 * rows;
+            int ints = longs + LONG_COLUMNS * 8 * rows;
+            EarthquakeTable earthquakes = new EarthquakeTable(rows);
+            for (int row = 0; row < rows; row++) {
+                earthquakes.addValues(
+                        buffer.getDouble(doubles + 8 * row),
+                        buffer.getDouble(doubles + 8 * (rows + row)),
+                        buffer.getDouble(doubles + 8 * (2 * rows + row)),
+                        buffer.getDouble(doubles + 8 * (3 * rows + row)),
+                        buffer.getLong(longs + 8 * row),
+                        buffer.getLong(longs + 8 * (rows + row)),
+                        buffer.getInt(ints + 4 * row),
+                        string(strings, buffer.getInt(ints + 4 * (rows + row))),
+                        string(strings, buffer.getInt(ints + 4 * (2 * rows + row))),
+                        string(strings, buffer.getInt(ints + 4 * (3 * rows + row))),
+                        string(strings, buffer.getInt(ints + 4 * (4 * rows + row))),
+                        string(strings, buffer.getInt(ints + 4 * (5 * rows + row))),
+                        string(strings, buffer.getInt(ints + 4 * (6 * rows + row))));
+            }
+            return earthquakes;
+
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            CoreLog.e(TAG, "!!! Could not read the snapshot !!!", e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    CoreLog.e(TAG, "!!! Could not close the snapshot !!!", e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Where the string table starts for the given number of rows
+     */
+    private static int columnsEnd(int rows) {
+        return HEADER_SIZE + ROW_SIZE * rows;
+    }
+
+
+    private static int stringIndex(String value, HashMap<String, Integer> indexes, ArrayList<byte[]> strings) {
+        if (value == null) return NO_STRING;
+
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value.getBytes(UTF_8));
+            indexes.put(value, index);
+        }
+        return index;
+    }
+
+
+    private static String[] readStrings(ByteBuffer buffer, int start, int count) {
+
+        int data = start + (count + 1) * 4;
+        String[] strings = new String[count];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int from = buffer.getInt(start + 4 * i);
+            int length = buffer.getInt(start + 4 * (i + 1)) - from;
+            if (length > bytes.length) {
+                bytes = new byte[length];
+            }
+            buffer.position(data + from);
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, UTF_8);
+        }
+        return strings;
+    }
+
+
+    private static String string(String[] strings, int index) {
+        return index == NO_STRING ? null : strings[index];
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Grid index over the epicenters of an {@link EarthquakeTable}, for bounding box, radius and
+ * nearest-event queries without measuring the distance to every event.
+ *
+ * The globe is cut into cells of a fixed number of degrees and each cell keeps the rows whose
+ * epicenter falls inside it. Queries only look at the cells that overlap the area asked for.
+ * The index follows a table that only grows: call {@link #update()} after rows were added and
+ * only the new rows are indexed. Rows without coordinates are never returned.
+ */
+public class EarthquakeSpatialIndex {
+
+
+    /**
+     * Mean earth radius used for all distances
+     */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+
+    /**
+     * Cell size used when none is given, about 111 km at the equator
+     */
+    private static final double DEFAULT_CELL_DEGREES = 1.0;
+
+
+    /**
+     * Half of the earth's circumference, no two points are further apart than this
+     */
+    private static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+
+    private final EarthquakeTable mTable;
+
+    private final double mCellDegrees;
+    private final int mLatCells;
+    private final int mLonCells;
+
+    // rows per cell, a cell's array is only created once a row falls into it
+    private final int[][] mCells;
+    private final int[] mCellSizes;
+
+    // rows [0, mIndexedRows) of the table have been indexed
+    private int mIndexedRows;
+
+
+    public EarthquakeSpatialIndex(EarthquakeTable table) {
+        this(table, DEFAULT_CELL_DEGREES);
+    }
+
+    /**
+     * @param cellDegrees edge length of a grid cell, smaller cells suit denser catalogs
+     */
+    public EarthquakeSpatialIndex(EarthquakeTable table, double cellDegrees) {
+        mTable = table;
+        mCellDegrees = cellDegrees;
+        mLatCells = (int) Math.ceil(180 / cellDegrees);
+        mLonCells = (int) Math.ceil(360 / cellDegrees);
+        mCells = new int[mLatCells * mLonCells][];
+        mCellSizes = new int[mLatCells * mLonCells];
+        update();
+    }
+
+
+    /**
+     * Index the rows added to the table since the last update. If the table was cleared in
+     * the meantime the whole index is rebuilt.
+     */
+    public void update() {
+
+        if (mTable.size() < mIndexedRows) {
+            Arrays.fill(mCells, null);
+            Arrays.fill(mCellSizes, 0);
+            mIndexedRows = 0;
+        }
+
+        for (int row = mIndexedRows; row < mTable.size(); row++) {
+            double lat = mTable.getLatitude(row);
+            double lon = mTable.getLongitude(row);
+            if (Double.isNaN(lat) || Double.isNaN(lon)) continue;
+
+            int cell = latCell(lat) * mLonCells + lonCell(lon);
+            int[] rows = mCells[cell];
+            if (rows == null) {
+                rows = mCells[cell] = new int[4];
+            } else if (mCellSizes[cell] == rows.length) {
+                rows = mCells[cell] = Arrays.copyOf(rows, rows.length * 2);
+            }
+            rows[mCellSizes[cell]++] = row;
+        }
+        mIndexedRows = mTable.size();
+    }
+
+
+    /**
+     * Return the rows with an epicenter inside the given box. If minLon is greater than
+     * maxLon the box crosses the antimeridian.
+     */
+    public int[] withinBoundingBox(double minLat, double minLon, double maxLat, double maxLon) {
+
+        IntList result = new IntList();
+
+        if (minLon > maxLon) {
+            // split at the antimeridian into two boxes
+            collect(minLat, minLon, maxLat, 180, result);
+            collect(minLat, -180, maxLat, maxLon, result);
+        } else {
+            collect(minLat, minLon, maxLat, maxLon, result);
+        }
+
+        return result.toArray();
+    }
+
+
+    /**
+     * Return the rows with an epicenter within the given great-circle distance
+     */
+    public int[] withinRadius(double lat, double lon, double radiusKm) {
+        return filterByDistance(candidatesWithin(lat, lon, radiusKm), lat, lon, radiusKm);
+    }
+
+
+    /**
+     * Return up to k rows closest to the given point, nearest first
+     */
+    public int[] nearest(double lat, double lon, int k) {
+
+        if (k <= 0) return new int[0];
+
+        // widen the search until it holds k events. Everything outside the radius is further
+        // away than everything inside it, so the k nearest inside are the k nearest overall.
+        double radiusKm = mCellDegrees * 111.2;
+        int[] rows;
+        while (true) {
+            rows = withinRadius(lat, lon, radiusKm);
+            if (rows.length >= k || radiusKm >= MAX_DISTANCE_KM) break;
+            radiusKm = Math.min(radiusKm * 2, MAX_DISTANCE_KM);
+        }
+
+        sortByDistance(rows, lat, lon);
+        return rows.length > k ? Arrays.copyOf(rows, k) : rows;
+    }
+
+
+    /**
+     * Return every indexed row ordered by distance from the given point, nearest first
+     */
+    public int[] sortedByDistance(double lat, double lon) {
+        int[] rows = withinBoundingBox(-90, -180, 90, 180);
+        sortByDistance(rows, lat, lon);
+        return rows;
+    }
+
+
+    /**
+     * Great-circle distance in kilometers between two points, using the haversine formula
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+
+    /**
+     * Rows from every cell that may hold a point within the radius
+     */
+    private int[] candidatesWithin(double lat, double lon, double radiusKm) {
+
+        double latDelta = Math.toDegrees(radiusKm / EARTH_RADIUS_KM);
+        double minLat = lat - latDelta;
+        double maxLat = lat + latDelta;
+
+        // near a pole, or for huge radii, every longitude can be in range
+        if (minLat <= -90 || maxLat >= 90) {
+            return withinBoundingBox(Math.max(minLat, -90), -180, Math.min(maxLat, 90), 180);
+        }
+
+        // the widest longitude span is at the latitude furthest from the equator
+        double lonDelta = Math.toDegrees(Math.asin(Math.min(1,
+                Math.sin(radiusKm / EARTH_RADIUS_KM) / Math.cos(Math.toRadians(lat)))));
+        if (lonDelta >= 180 || radiusKm / EARTH_RADIUS_KM >= Math.PI / 2) {
+            return withinBoundingBox(minLat, -180, maxLat, 180);
+        }
+
+        return withinBoundingBox(minLat, wrapLongitude(lon - lonDelta), maxLat, wrapLongitude(lon + lonDelta));
+    }
+
+
+    /**
+     * Keep only the candidates within the radius
+     */
+    private int[] filterByDistance(int[] candidates, double lat, double lon, double radiusKm) {
+        int count = 0;
+        for (int row : candidates) {
+            if (distanceKm(lat, lon, mTable.getLatitude(row), mTable.getLongitude(row)) <= radiusKm) {
+                candidates[count++] = row;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+
+    /**
+     * Sort rows in place by distance from the given point
+     */
+    private void sortByDistance(int[] rows, double lat, double lon) {
+
+        // distances are keyed by row, so size the key column to the table
+        double[] distances = new double[mTable.size()];
+        for (int row : rows) {
+            distances[row] = distanceKm(lat, lon, mTable.getLatitude(row), mTable.getLongitude(row));
+        }
+        IndexSort.sort(rows, distances);
+    }
+
+
+    /**
+     * Add the rows of every cell overlapping a box that does not cross the antimeridian
+     */
+    private void collect(double minLat, double minLon, double maxLat, double maxLon, IntList result) {
+
+        int fromLat = latCell(minLat);
+        int toLat = latCell(maxLat);
+        int fromLon = lonCell(minLon);
+        int toLon = lonCell(maxLon);
+
+        for (int latCell = fromLat; latCell <= toLat; latCell++) {
+            for (int lonCell = fromLon; lonCell <= toLon; lonCell++) {
+                int cell = latCell * mLonCells + lonCell;
+                int[] rows = mCells[cell];
+                if (rows == null) continue;
+
+                // cells on the edge of the box can hold rows outside it
+                boolean edge = latCell == fromLat || latCell == toLat
+                        || lonCell == fromLon || lonCell == toLon;
+                for (int i = 0; i < mCellSizes[cell]; i++) {
+                    int row = rows[i];
+                    if (!edge || inBox(row, minLat, minLon, maxLat, maxLon)) {
+                        result.add(row);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private boolean inBox(int row, double minLat, double minLon, double maxLat, double maxLon) {
+        double lat = mTable.getLatitude(row);
+        double lon = mTable.getLongitude(row);
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+
+    private int latCell(double lat) {
+        int cell = (int) ((lat + 90) / mCellDegrees);
+        return Math.max(0, Math.min(mLatCells - 1, cell));
+    }
+
+    private int lonCell(double lon) {
+        int cell = (int) ((wrapLongitude(lon) + 180) / mCellDegrees);
+        return Math.max(0, Math.min(mLonCells - 1, cell));
+    }
+
+
+    /**
+     * Bring a longitude into [-180, 180]
+     */
+    private static double wrapLongitude(double lon) {
+        if (lon >= -180 && lon <= 180) return lon;
+        lon = ((lon + 180) % 360 + 360) % 360 - 180;
+        return lon;
+    }
+
+
+    /**
+     * Growable int array, so query results are not boxed
+     */
+    private static final class IntList {
+
+        private int[] mValues = new int[16];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
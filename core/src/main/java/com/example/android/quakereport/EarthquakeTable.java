@@ -0,0 +1,631 @@
+package com.example.android.quakereport;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Earthquakes stored column by column in primitive arrays instead of one object per event.
+ * For large results this avoids an object header, a boxed Integer and a pointer per field for
+ * every event, and keeps each column contiguous in memory.
+ *
+ * The place of an event is split once, when the row is added, into a distance/direction part and
+ * a region. Regions are stored as codes into the table's own {@link RegionDictionary}, and the
+ * USGS link is built from the event id when it is asked for instead of being stored.
+ *
+ * Rows are read through a {@link Row}, a small cursor that can be moved from row to row so
+ * binding a list does not need an object per event either.
+ *
+ * Rows added by a parser keep their title and place as the UTF-8 bytes of the response, copied
+ * into a text column, and only make Strings of them the first time they are read. A result of
+ * thousands of events then only pays for the Strings of the rows that are shown. The
+ * {@link EarthquakeFormatter} decodes the first rows ahead on the loader's thread, so binding
+ * them does no string work. Reading a row that is not decoded yet is safe from any thread.
+ */
+public class EarthquakeTable implements EarthquakeSink {
+
+
+    /**
+     * Stored in the felt column when the event has no felt reports
+     */
+    public static final int FELT_UNKNOWN = -1;
+
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Held in the title and proximity columns while the text is still bytes. Compared by
+     * identity, so no real value can be mistaken for it.
+     */
+    private static final String UNDECODED = new String("undecoded");
+
+    /**
+     * Held in the region column while the place is still bytes
+     */
+    private static final int REGION_UNDECODED = -2;
+
+
+    /**
+     * Number of rows in use, the arrays may be larger
+     */
+    private int mSize;
+
+    /** Primitive columns **/
+    private double[] mMagnitude;
+    private double[] mLatitude;
+    private double[] mLongitude;
+    private double[] mDepth;
+    private long[] mTime;
+    private long[] mUpdated;
+    private int[] mFelt;
+    private int[] mRegion;
+
+    /** String columns **/
+    private String[] mId;
+    private String[] mTitle;
+    private String[] mProximity;
+
+    /** Display columns, filled off the UI thread by {@link EarthquakeFormatter} **/
+    private String[] mDisplayMagnitude;
+    private String[] mDisplayDate;
+
+    /**
+     * Undecoded title and place bytes. The title of a row is the bytes from its text start to
+     * its place start, the place from there to its text end.
+     */
+    private byte[] mText = new byte[0];
+    private int mTextLength;
+    private int[] mTextStart;
+    private int[] mPlaceStart;
+    private int[] mTextEnd;
+
+    /**
+     * Region names for the region column, only holds the regions of this table's rows
+     */
+    private final RegionDictionary mRegions = new RegionDictionary();
+
+
+    public EarthquakeTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EarthquakeTable(int capacity) {
+        capacity = Math.max(1, capacity);
+        mMagnitude = new double[capacity];
+        mLatitude = new double[capacity];
+        mLongitude = new double[capacity];
+        mDepth = new double[capacity];
+        mTime = new long[capacity];
+        mUpdated = new long[capacity];
+        mFelt = new int[capacity];
+        mRegion = new int[capacity];
+        mId = new String[capacity];
+        mTitle = new String[capacity];
+        mProximity = new String[capacity];
+        mDisplayMagnitude = new String[capacity];
+        mDisplayDate = new String[capacity];
+        mTextStart = new int[capacity];
+        mPlaceStart = new int[capacity];
+        mTextEnd = new int[capacity];
+    }
+
+
+    /**
+     * Copy the fields of an earthquake into a new row. The earthquake is not kept, so the parser
+     * can reuse a single instance for every feature.
+     */
+    @Override
+    public void onEarthquake(Earthquake earthquake) {
+        add(earthquake);
+    }
+
+
+    /**
+     * Append a row holding the fields of the given earthquake
+     */
+    public void add(Earthquake eq) {
+        ensureCapacity(mSize + 1);
+        int i = mSize++;
+        mMagnitude[i] = eq.getmMagnitude();
+        mLatitude[i] = eq.getmLatitude();
+        mLongitude[i] = eq.getmLongitude();
+        mDepth[i] = eq.getDepth();
+        mTime[i] = eq.getmDate();
+        mUpdated[i] = eq.getUpdated();
+        mFelt[i] = eq.getmFelt() == null ? FELT_UNKNOWN : eq.getmFelt();
+        mId[i] = eq.getId();
+        mTitle[i] = eq.getmTitle();
+        mDisplayMagnitude[i] = null;
+        mDisplayDate[i] = null;
+
+        // split the place once here, so nothing has to take it apart again when it is shown
+        String place = eq.getmPlace();
+        int regionStart = RegionDictionary.regionStart(place);
+        mProximity[i] = regionStart == 0 ? null : place.substring(0, regionStart);
+        mRegion[i] = mRegions.encode(place == null ? null : place.substring(regionStart));
+    }
+
+
+    /**
+     * Append a row holding the numbers and id of the given earthquake, and a title and place
+     * that are still UTF-8 bytes in a parser's buffer. The bytes are copied, and only decoded
+     * when the row is read. A start of -1 takes that field from the earthquake instead.
+     */
+    void add(Earthquake eq, byte[] text, int titleStart, int titleEnd, int placeStart, int placeEnd) {
+        add(eq);
+        if (titleStart < 0 && placeStart < 0) return;
+
+        int i = mSize - 1;
+        int titleLength = titleStart < 0 ? 0 : titleEnd - titleStart;
+        int placeLength = placeStart < 0 ? 0 : placeEnd - placeStart;
+        ensureTextCapacity(titleLength + placeLength);
+
+        mTextStart[i] = mTextLength;
+        if (titleStart >= 0) {
+            System.arraycopy(text, titleStart, mText, mTextLength, titleLength);
+            mTextLength += titleLength;
+            mTitle[i] = UNDECODED;
+        }
+        mPlaceStart[i] = mTextLength;
+        if (placeStart >= 0) {
+            System.arraycopy(text, placeStart, mText, mTextLength, placeLength);
+            mTextLength += placeLength;
+            mProximity[i] = UNDECODED;
+            mRegion[i] = REGION_UNDECODED;
+        }
+        mTextEnd[i] = mTextLength;
+    }
+
+
+    /**
+     * Append a row from values that were already split and formatted, as a snapshot stores them
+     */
+    void addValues(double magnitude, double latitude, double longitude, double depth,
+                   long time, long updated, int felt, String id, String title,
+                   String proximity, String region, String displayMagnitude, String displayDate) {
+        ensureCapacity(mSize + 1);
+        int i = mSize++;
+        mMagnitude[i] = magnitude;
+        mLatitude[i] = latitude;
+        mLongitude[i] = longitude;
+        mDepth[i] = depth;
+        mTime[i] = time;
+        mUpdated[i] = updated;
+        mFelt[i] = felt;
+        mId[i] = id;
+        mTitle[i] = title;
+        mProximity[i] = proximity;
+        mRegion[i] = mRegions.encode(region);
+        mDisplayMagnitude[i] = displayMagnitude;
+        mDisplayDate[i] = displayDate;
+    }
+
+
+    /**
+     * Append a copy of one row of another table
+     */
+    public void addRow(EarthquakeTable other, int row) {
+        ensureCapacity(mSize + 1);
+        setRow(mSize++, other, row);
+    }
+
+
+    /**
+     * Overwrite row i with a copy of one row of another table
+     */
+    public void setRow(int i, EarthquakeTable other, int row) {
+        mMagnitude[i] = other.mMagnitude[row];
+        mLatitude[i] = other.mLatitude[row];
+        mLongitude[i] = other.mLongitude[row];
+        mDepth[i] = other.mDepth[row];
+        mTime[i] = other.mTime[row];
+        mUpdated[i] = other.mUpdated[row];
+        mFelt[i] = other.mFelt[row];
+        mRegion[i] = copyRegion(other, row);
+        mId[i] = other.mId[row];
+        mTitle[i] = other.mTitle[row];
+        mProximity[i] = other.mProximity[row];
+        mDisplayMagnitude[i] = other.mDisplayMagnitude[row];
+        mDisplayDate[i] = other.mDisplayDate[row];
+
+        // text that is still bytes comes along as bytes
+        if (mTitle[i] == UNDECODED || mProximity[i] == UNDECODED || mRegion[i] == REGION_UNDECODED) {
+            copyText(i, other, row);
+        }
+    }
+
+
+    /**
+     * Append every row of another table
+     */
+    public void addAll(EarthquakeTable other) {
+        ensureCapacity(mSize + other.mSize);
+        for (int row = 0; row < other.mSize; row++) {
+            addRow(other, row);
+        }
+    }
+
+
+    /**
+     * Sort row indexes the way USGS orders results for the given orderby value: "time" and
+     * "magnitude" are largest first, "time-asc" and "magnitude-asc" smallest first.
+     */
+    public void sortRows(int[] rows, String orderBy) {
+
+        // a primitive key per row
+        double[] keys = new double[mSize];
+        for (int row : rows) {
+            keys[row] = sortKey(row, orderBy);
+        }
+        IndexSort.parallelSort(rows, keys);
+    }
+
+
+    /**
+     * The key a row is sorted by for the given orderby value, smallest first. Descending
+     * orders negate it.
+     */
+    public double sortKey(int row, String orderBy) {
+        boolean byMagnitude = orderBy != null && orderBy.startsWith("magnitude");
+        boolean ascending = orderBy != null && orderBy.endsWith("-asc");
+        double key = byMagnitude ? mMagnitude[row] : mTime[row];
+        return ascending ? key : -key;
+    }
+
+
+    /**
+     * Return a new table holding copies of the given rows, in the given order
+     */
+    public EarthquakeTable select(int[] rows) {
+        EarthquakeTable selection = new EarthquakeTable(rows.length);
+        for (int row : rows) {
+            selection.addRow(this, row);
+        }
+        return selection;
+    }
+
+
+    /**
+     * Remove all rows, the arrays are kept for reuse
+     */
+    public void clear() {
+        // drop the string references so they can be collected
+        Arrays.fill(mId, 0, mSize, null);
+        Arrays.fill(mTitle, 0, mSize, null);
+        Arrays.fill(mProximity, 0, mSize, null);
+        Arrays.fill(mDisplayMagnitude, 0, mSize, null);
+        Arrays.fill(mDisplayDate, 0, mSize, null);
+        mSize = 0;
+        mTextLength = 0;
+        mRegions.clear();
+    }
+
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+
+    /** Column getters **/
+
+    public double getMagnitude(int row) {
+        return mMagnitude[row];
+    }
+
+    public double getLatitude(int row) {
+        return mLatitude[row];
+    }
+
+    public double getLongitude(int row) {
+        return mLongitude[row];
+    }
+
+    public double getDepth(int row) {
+        return mDepth[row];
+    }
+
+    public long getTime(int row) {
+        return mTime[row];
+    }
+
+    public long getUpdated(int row) {
+        return mUpdated[row];
+    }
+
+    /**
+     * @return the number of felt reports, or {@link #FELT_UNKNOWN}
+     */
+    public int getFelt(int row) {
+        return mFelt[row];
+    }
+
+    public String getId(int row) {
+        return mId[row];
+    }
+
+    public String getTitle(int row) {
+        String title = mTitle[row];
+        return title != UNDECODED ? title : decodeTitle(row);
+    }
+
+    /**
+     * @return the distance/direction part of the place, like "12km SSW of ", or null
+     */
+    public String getProximity(int row) {
+        String proximity = mProximity[row];
+        if (proximity != UNDECODED) return proximity;
+        decodePlace(row);
+        return mProximity[row];
+    }
+
+    /**
+     * @return the region part of the place, like "Anchorage, Alaska", or null
+     */
+    public String getRegion(int row) {
+        return mRegions.decode(getRegionCode(row));
+    }
+
+    /**
+     * @return the code of the region in this table's {@link RegionDictionary}
+     */
+    public int getRegionCode(int row) {
+        int code = mRegion[row];
+        if (code != REGION_UNDECODED) return code;
+        decodePlace(row);
+        return mRegion[row];
+    }
+
+    /**
+     * @return the full place as USGS sent it, put back together from its parts
+     */
+    public String getPlace(int row) {
+        String region = getRegion(row);
+        String proximity = getProximity(row);
+        if (proximity == null) return region;
+        return region == null ? proximity : proximity + region;
+    }
+
+    public String getLink(int row) {
+        return Earthquake.linkFor(mId[row]);
+    }
+
+
+    /**
+     * Set the text shown for one row in the list
+     */
+    public void setDisplay(int row, String magnitude, String date) {
+        mDisplayMagnitude[row] = magnitude;
+        mDisplayDate[row] = date;
+    }
+
+    public String getDisplayMagnitude(int row) {
+        return mDisplayMagnitude[row];
+    }
+
+    public String getDisplayDate(int row) {
+        return mDisplayDate[row];
+    }
+
+    /**
+     * @return true once {@link #setDisplay} was called for the row
+     */
+    public boolean hasDisplay(int row) {
+        return mDisplayMagnitude[row] != null;
+    }
+
+
+    /**
+     * Build a standalone {@link Earthquake} from one row, for code that needs an object
+     */
+    public Earthquake toEarthquake(int row) {
+        Earthquake eq = new Earthquake();
+        eq.setmMagnitude(mMagnitude[row]);
+        eq.setmLatitude(mLatitude[row]);
+        eq.setmLongitude(mLongitude[row]);
+        eq.setDepth(mDepth[row]);
+        eq.setmDate(mTime[row]);
+        eq.setUpdated(mUpdated[row]);
+        eq.setmFelt(mFelt[row] == FELT_UNKNOWN ? null : mFelt[row]);
+        eq.setId(mId[row]);
+        eq.setmTitle(getTitle(row));
+        eq.setmPlace(getPlace(row));
+        return eq;
+    }
+
+
+    /**
+     * Decode the title and place of a row if they are still bytes, so reading them later does
+     * not have to. Meant for a background thread, ahead of the row being shown.
+     */
+    public void decodeText(int row) {
+        if (mTitle[row] == UNDECODED) decodeTitle(row);
+        if (mProximity[row] == UNDECODED || mRegion[row] == REGION_UNDECODED) decodePlace(row);
+    }
+
+
+    /**
+     * Return a cursor positioned on the given row
+     */
+    public Row row(int row) {
+        Row cursor = new Row(this);
+        cursor.moveTo(row);
+        return cursor;
+    }
+
+
+    /**
+     * Make the String of an undecoded title. Decoding twice would only waste the first String,
+     * the lock is there so another thread never sees a half decoded row.
+     */
+    private synchronized String decodeTitle(int row) {
+        if (mTitle[row] == UNDECODED) {
+            mTitle[row] = new String(mText, mTextStart[row], mPlaceStart[row] - mTextStart[row], UTF_8);
+        }
+        return mTitle[row];
+    }
+
+
+    /**
+     * Decode an undecoded place and split it into proximity and region, as {@link #add} does
+     */
+    private synchronized void decodePlace(int row) {
+        if (mProximity[row] != UNDECODED && mRegion[row] != REGION_UNDECODED) return;
+
+        String place = new String(mText, mPlaceStart[row], mTextEnd[row] - mPlaceStart[row], UTF_8);
+        int regionStart = RegionDictionary.regionStart(place);
+        mRegion[row] = mRegions.encode(place.substring(regionStart));
+        mProximity[row] = regionStart == 0 ? null : place.substring(0, regionStart);
+    }
+
+
+    /**
+     * Copy the undecoded text of a row of another table to the end of the text column, for row i
+     */
+    private void copyText(int i, EarthquakeTable other, int row) {
+        int length = other.mTextEnd[row] - other.mTextStart[row];
+        ensureTextCapacity(length);
+
+        // other may be this table, so only read its text column once it has grown
+        int shift = mTextLength - other.mTextStart[row];
+        System.arraycopy(other.mText, other.mTextStart[row], mText, mTextLength, length);
+        mTextStart[i] = other.mTextStart[row] + shift;
+        mPlaceStart[i] = other.mPlaceStart[row] + shift;
+        mTextEnd[i] = other.mTextEnd[row] + shift;
+        mTextLength += length;
+    }
+
+
+    /**
+     * Return the code in this table of the region of a row of another table. The name itself
+     * is shared, only the code may differ.
+     */
+    private int copyRegion(EarthquakeTable other, int row) {
+        int code = other.mRegion[row];
+        if (other == this || code == RegionDictionary.NO_REGION || code == REGION_UNDECODED) return code;
+        return mRegions.encode(other.mRegions.decode(code));
+    }
+
+
+    /**
+     * Grow the text column so the given number of bytes can be appended
+     */
+    private void ensureTextCapacity(int length) {
+        if (mTextLength + length <= mText.length) return;
+        mText = Arrays.copyOf(mText, Math.max(mTextLength + length, Math.max(1024, mText.length * 2)));
+    }
+
+
+    /**
+     * Grow every column so it can hold at least the given number of rows
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mMagnitude.length) return;
+
+        int newCapacity = Math.max(capacity, mMagnitude.length * 2);
+        mMagnitude = Arrays.copyOf(mMagnitude, newCapacity);
+        mLatitude = Arrays.copyOf(mLatitude, newCapacity);
+        mLongitude = Arrays.copyOf(mLongitude, newCapacity);
+        mDepth = Arrays.copyOf(mDepth, newCapacity);
+        mTime = Arrays.copyOf(mTime, newCapacity);
+        mUpdated = Arrays.copyOf(mUpdated, newCapacity);
+        mFelt = Arrays.copyOf(mFelt, newCapacity);
+        mRegion = Arrays.copyOf(mRegion, newCapacity);
+        mId = Arrays.copyOf(mId, newCapacity);
+        mTitle = Arrays.copyOf(mTitle, newCapacity);
+        mProximity = Arrays.copyOf(mProximity, newCapacity);
+        mDisplayMagnitude = Arrays.copyOf(mDisplayMagnitude, newCapacity);
+        mDisplayDate = Arrays.copyOf(mDisplayDate, newCapacity);
+        mTextStart = Arrays.copyOf(mTextStart, newCapacity);
+        mPlaceStart = Arrays.copyOf(mPlaceStart, newCapacity);
+        mTextEnd = Arrays.copyOf(mTextEnd, newCapacity);
+    }
+
+
+    /**
+     * Flyweight view of one row. Call {@link #moveTo(int)} to point the same instance at
+     * another row instead of creating a new one.
+     */
+    public static final class Row {
+
+        private final EarthquakeTable mTable;
+        private int mRow;
+
+        private Row(EarthquakeTable table) {
+            mTable = table;
+        }
+
+        public Row moveTo(int row) {
+            mRow = row;
+            return this;
+        }
+
+        public int getPosition() {
+            return mRow;
+        }
+
+        public double getMagnitude() {
+            return mTable.mMagnitude[mRow];
+        }
+
+        public double getLatitude() {
+            return mTable.mLatitude[mRow];
+        }
+
+        public double getLongitude() {
+            return mTable.mLongitude[mRow];
+        }
+
+        public double getDepth() {
+            return mTable.mDepth[mRow];
+        }
+
+        public long getTime() {
+            return mTable.mTime[mRow];
+        }
+
+        public long getUpdated() {
+            return mTable.mUpdated[mRow];
+        }
+
+        public int getFelt() {
+            return mTable.mFelt[mRow];
+        }
+
+        public String getId() {
+            return mTable.mId[mRow];
+        }
+
+        public String getTitle() {
+            return mTable.getTitle(mRow);
+        }
+
+        public String getProximity() {
+            return mTable.getProximity(mRow);
+        }
+
+        public String getRegion() {
+            return mTable.getRegion(mRow);
+        }
+
+        public String getPlace() {
+            return mTable.getPlace(mRow);
+        }
+
+        public String getLink() {
+            return mTable.getLink(mRow);
+        }
+
+        public String getDisplayMagnitude() {
+            return mTable.mDisplayMagnitude[mRow];
+        }
+
+        public String getDisplayDate() {
+            return mTable.mDisplayDate[mRow];
+        }
+    }
+}
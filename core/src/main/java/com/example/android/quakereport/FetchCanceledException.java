@@ -0,0 +1,17 @@
+package com.example.android.quakereport;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown by a fetch or a parse whose {@link CancellationToken} was canceled. It is an
+ * IOException so it passes through the same code as a failed request, but it is not a failure:
+ * nobody wants the result anymore, so it is neither retried nor reported as an error.
+ */
+public class FetchCanceledException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FetchCanceledException() {
+        super("Canceled");
+    }
+}
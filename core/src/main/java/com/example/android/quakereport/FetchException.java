@@ -0,0 +1,115 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+
+/**
+ * A failed request to USGS, with what kind of failure it was. The kind decides whether the
+ * request is worth repeating and what the user is told, and keeps a failure from being shown
+ * as a query without results.
+ */
+public class FetchException extends IOException {
+
+
+    public enum Kind {
+        /** The connection could not be made or broke off */
+        NETWORK,
+        /** Connecting or reading took longer than the timeout */
+        TIMEOUT,
+        /** USGS answered with a 5xx, or asked us to slow down with a 408 or 429 */
+        SERVER,
+        /** USGS rejected the query itself with a 4xx, or it is not even a valid url */
+        CLIENT,
+        /** The response was not the GeoJSON or CSV we expect */
+        PARSE,
+        /** USGS failed too often lately, so the request was not made at all */
+        CIRCUIT_OPEN
+    }
+
+
+    private static final long serialVersionUID = 1L;
+
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+
+    private final Kind mKind;
+    private final int mResponseCode;
+    private final long mRetryAfterMs;
+
+
+    public FetchException(Kind kind, String message) {
+        this(kind, message, -1, -1, null);
+    }
+
+
+    public FetchException(Kind kind, String message, Throwable cause) {
+        this(kind, message, -1, -1, cause);
+    }
+
+
+    private FetchException(Kind kind, String message, int responseCode, long retryAfterMs, Throwable cause) {
+        super(message, cause);
+        mKind = kind;
+        mResponseCode = responseCode;
+        mRetryAfterMs = retryAfterMs;
+    }
+
+
+    /**
+     * A response other than 200
+     *
+     * @param retryAfterMs how long the server asked us to wait, -1 if it did not say
+     */
+    static FetchException forResponse(int responseCode, String message, long retryAfterMs) {
+        boolean server = responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || responseCode == HTTP_TOO_MANY_REQUESTS;
+        return new FetchException(server ? Kind.SERVER : Kind.CLIENT, message, responseCode, retryAfterMs, null);
+    }
+
+
+    /**
+     * The same failure as a FetchException, a plain IOException being a network failure
+     */
+    public static FetchException from(IOException e) {
+        if (e instanceof FetchException) return (FetchException) e;
+        Kind kind = e instanceof SocketTimeoutException ? Kind.TIMEOUT
+                : e instanceof MalformedURLException ? Kind.CLIENT
+                : Kind.NETWORK;
+        return new FetchException(kind, e.getMessage(), e);
+    }
+
+
+    public Kind getKind() {
+        return mKind;
+    }
+
+
+    /**
+     * @return the HTTP response code, or -1 if there was no response
+     */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+
+    /**
+     * @return how long the server asked us to wait before asking again, or -1 if it did not say
+     */
+    public long getRetryAfterMs() {
+        return mRetryAfterMs;
+    }
+
+
+    /**
+     * A GET changes nothing on the server, so it can always be repeated safely; this tells
+     * whether repeating it may also give a different answer. A rejected query or an unreadable
+     * response would come back the same.
+     */
+    public boolean isRetryable() {
+        return mKind == Kind.NETWORK || mKind == Kind.TIMEOUT || mKind == Kind.SERVER;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.quakereport;
+
+/**
+ * The outcome of fetching a query: a fresh table, an older cached table served because the
+ * fetch failed, or only the failure. An empty fresh table means the query has no events, which
+ * is not the same as not knowing.
+ */
+public final class FetchResult {
+
+
+    private final EarthquakeTable mTable;
+    private final FetchException mError;
+
+
+    private FetchResult(EarthquakeTable table, FetchException error) {
+        mTable = table;
+        mError = error;
+    }
+
+
+    static FetchResult fresh(EarthquakeTable table) {
+        return new FetchResult(table, null);
+    }
+
+
+    static FetchResult stale(EarthquakeTable table, FetchException error) {
+        return new FetchResult(table, error);
+    }
+
+
+    static FetchResult failed(FetchException error) {
+        return new FetchResult(null, error);
+    }
+
+
+    /**
+     * @return the earthquakes, or null if the fetch failed with nothing to serve instead
+     */
+    public EarthquakeTable getTable() {
+        return mTable;
+    }
+
+
+    /**
+     * @return why the table is not fresh, or null if it is
+     */
+    public FetchException getError() {
+        return mError;
+    }
+
+
+    public boolean isFresh() {
+        return mError == null;
+    }
+
+
+    /**
+     * @return true if the fetch failed and an earlier result is served instead
+     */
+    public boolean isStale() {
+        return mError != null && mTable != null;
+    }
+
+
+    public boolean isFailed() {
+        return mTable == null;
+    }
+}
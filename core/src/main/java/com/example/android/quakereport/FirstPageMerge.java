@@ -0,0 +1,79 @@
+package com.example.android.quakereport;
+
+import java.util.HashSet;
+
+/**
+ * A refreshed first page merged into a list that has more pages appended after it.
+ *
+ * When new events arrive at the top, the refreshed page pushes as many events off its end.
+ * They are still part of the result, only now at the start of what would be page 1. The pages
+ * already appended were requested from the old offsets, so they do not hold them. The pushed
+ * off events are therefore kept between the new first page and the appended pages. Events
+ * missing from the new first page that sort among its rows are really gone and are dropped.
+ */
+public final class FirstPageMerge {
+
+
+    /**
+     * The new first page, the events it pushed off its end and then the appended pages, without
+     * any event twice
+     */
+    public final EarthquakeTable merged;
+
+    /**
+     * Rows of the merged list ahead of the appended pages, the server offset the pages after
+     * them continue from
+     */
+    public final int firstPageRows;
+
+
+    private FirstPageMerge(EarthquakeTable merged, int firstPageRows) {
+        this.merged = merged;
+        this.firstPageRows = firstPageRows;
+    }
+
+
+    /**
+     * Merge a refreshed first page into the shown list
+     *
+     * @param shown         the list shown, the old first page followed by the appended pages
+     * @param shownPageRows rows of the old first page at the start of the shown list
+     * @param firstPage     the refreshed first page
+     * @param full          true if the refreshed page holds as many events as were asked for,
+     *                      so there are more events after it. A page that is not full pushed
+     *                      nothing off its end.
+     * @param orderBy       USGS orderby value both pages are sorted by
+     */
+    public static FirstPageMerge merge(EarthquakeTable shown, int shownPageRows, EarthquakeTable firstPage,
+                                       boolean full, String orderBy) {
+
+        int oldRows = Math.min(shownPageRows, shown.size());
+        EarthquakeTable merged = new EarthquakeTable(firstPage.size() + shown.size());
+        HashSet<String> ids = new HashSet<>(firstPage.size() + shown.size());
+        for (int row = 0; row < firstPage.size(); row++) {
+            merged.addRow(firstPage, row);
+            ids.add(firstPage.getId(row));
+        }
+
+        // old rows that sort after the new page's last row were pushed off its end
+        if (full && !firstPage.isEmpty()) {
+            double lastKey = firstPage.sortKey(firstPage.size() - 1, orderBy);
+            for (int row = 0; row < oldRows; row++) {
+                String id = shown.getId(row);
+                if (id != null && !ids.contains(id) && shown.sortKey(row, orderBy) >= lastKey) {
+                    merged.addRow(shown, row);
+                    ids.add(id);
+                }
+            }
+        }
+        int firstPageRows = merged.size();
+
+        for (int row = oldRows; row < shown.size(); row++) {
+            String id = shown.getId(row);
+            if (id == null || ids.add(id)) {
+                merged.addRow(shown, row);
+            }
+        }
+        return new FirstPageMerge(merged, firstPageRows);
+    }
+}
@@ -0,0 +1,537 @@
+package com.example.android.quakereport;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Single pass over a GeoJSON response as it is read, filling an {@link EarthquakeTable}.
+ *
+ * Numbers, times and the id are read from the bytes as the scan passes them, everything else is
+ * skipped in place: no key becomes a String and no byte is decoded to a char. The title and the
+ * place are only located, and handed to the table as offsets so it copies their bytes and
+ * decodes them when a row is read. Strings holding escapes, which USGS hardly ever sends, are
+ * decoded right away.
+ *
+ * The read buffer only has to hold the feature being scanned, so it stays at its first size
+ * however large the response is.
+ */
+final class GeoJsonIndexer {
+
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+    private final InputStream mIn;
+    private final CancellationToken mToken;
+    private byte[] mJson = new byte[64 * 1024];
+    private int mLimit;
+    private int mPosition;
+    private boolean mEndOfStream;
+    /** Bytes dropped from the front of the buffer so far, for error messages **/
+    private long mDropped;
+
+    /**
+     * Bytes from here on are kept when the buffer is refilled, the start of the current feature
+     */
+    private int mMark;
+
+    /** The last string read: offsets of its content and whether it holds escapes **/
+    private int mStringStart;
+    private int mStringEnd;
+    private boolean mStringEscaped;
+
+    /** Offsets of the undecoded title and place of the current feature, -1 for none **/
+    private int mTitleStart;
+    private int mTitleEnd;
+    private int mPlaceStart;
+    private int mPlaceEnd;
+
+
+    private GeoJsonIndexer(InputStream in, CancellationToken token) {
+        mIn = in;
+        mToken = token;
+    }
+
+
+    /**
+     * Add every feature of a FeatureCollection read from the stream to the table, stopping
+     * before the next feature once the token is canceled. The stream is not closed.
+     *
+     * @return the number of rows added
+     * @throws MalformedJsonException if the bytes are not valid JSON
+     * @throws FetchCanceledException if the token was canceled
+     */
+    static int index(InputStream in, EarthquakeTable table, CancellationToken token) throws IOException {
+        return new GeoJsonIndexer(in, token).readCollection(table);
+    }
+
+
+    private int readCollection(EarthquakeTable table) throws IOException {
+        int count = 0;
+
+        beginObject();
+        while (mark() && hasNextMember()) {
+            // only the features array matters, skip metadata, bbox and type
+            if (!keyEquals("features")) {
+                skipValue();
+                continue;
+            }
+
+            Earthquake scratch = new Earthquake();
+            beginArray();
+            while (mark() && hasNextElement()) {
+                mToken.throwIfCanceled();
+                readFeature(scratch);
+                table.add(scratch, mJson, mTitleStart, mTitleEnd, mPlaceStart, mPlaceEnd);
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Read one feature into the earthquake, overwriting all of its fields. A title or place
+     * that can be decoded later is left out of the earthquake and located instead.
+     */
+    private void readFeature(Earthquake eq) throws IOException {
+
+        // start from the defaults, the earthquake still holds the previous feature
+        eq.setmTitle(null);
+        eq.setmPlace("");
+        eq.setmLatitude(Double.NaN);
+        eq.setmLongitude(Double.NaN);
+        eq.setmMagnitude(Double.NaN);
+        eq.setDepth(Double.NaN);
+        eq.setmDate(0L);
+        eq.setmFelt(null);
+        eq.setId(null);
+        eq.setUpdated(0L);
+        mTitleStart = -1;
+        mPlaceStart = -1;
+
+        beginObject();
+        while (hasNextMember()) {
+            if (keyEquals("properties")) {
+                readProperties(eq);
+            } else if (keyEquals("geometry")) {
+                readGeometry(eq);
+            } else if (keyEquals("id")) {
+                eq.setId(nextString(null));
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+
+    /**
+     * Read the epicenter of a feature, a GeoJSON Point of [longitude, latitude, depth]
+     */
+    private void readGeometry(Earthquake eq) throws IOException {
+
+        if (nextNull()) return;
+
+        beginObject();
+        while (hasNextMember()) {
+            if (keyEquals("coordinates") && peek() == '[') {
+                // the closing bracket is consumed once, so the depth may well be missing
+                beginArray();
+                for (int i = 0; hasNextElement(); i++) {
+                    if (i == 0) eq.setmLongitude(nextDouble(Double.NaN));
+                    else if (i == 1) eq.setmLatitude(nextDouble(Double.NaN));
+                    else if (i == 2) eq.setDepth(nextDouble(Double.NaN));
+                    else skipValue();
+                }
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+
+    private void readProperties(Earthquake eq) throws IOException {
+
+        if (nextNull()) return;
+
+        beginObject();
+        while (hasNextMember()) {
+            if (keyEquals("mag")) {
+                eq.setmMagnitude(nextDouble(Double.NaN));
+            } else if (keyEquals("place")) {
+                if (nextRawString()) {
+                    mPlaceStart = mStringStart;
+                    mPlaceEnd = mStringEnd;
+                    eq.setmPlace(null);
+                } else {
+                    mPlaceStart = -1;
+                    eq.setmPlace(currentString(""));
+                }
+            } else if (keyEquals("time")) {
+                eq.setmDate(nextLong(0L));
+            } else if (keyEquals("updated")) {
+                eq.setUpdated(nextLong(0L));
+            } else if (keyEquals("title")) {
+                if (nextRawString()) {
+                    mTitleStart = mStringStart;
+                    mTitleEnd = mStringEnd;
+                    eq.setmTitle(null);
+                } else {
+                    mTitleStart = -1;
+                    eq.setmTitle(currentString(null));
+                }
+            } else if (keyEquals("felt")) {
+                long felt = nextLong(Long.MIN_VALUE);
+                eq.setmFelt(felt == Long.MIN_VALUE ? null : (int) felt);
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+
+    /**
+     * Read a string value that may be left undecoded
+     *
+     * @return true if it is a non-empty string without escapes, so its bytes are its text.
+     * Otherwise read it with {@link #currentString(String)}.
+     */
+    private boolean nextRawString() throws IOException {
+        if (nextNull()) {
+            mStringStart = -1;
+            return false;
+        }
+        readString();
+        return !mStringEscaped && mStringEnd > mStringStart;
+    }
+
+
+    /**
+     * @return the string {@link #nextRawString()} just read, or the fallback if it was null
+     */
+    private String currentString(String fallback) throws IOException {
+        return mStringStart < 0 ? fallback : decodeString();
+    }
+
+
+    private String nextString(String fallback) throws IOException {
+        if (nextNull()) return fallback;
+        readString();
+        return decodeString();
+    }
+
+
+    private double nextDouble(double fallback) throws IOException {
+        if (!nextScalar()) return fallback;
+        return ByteNumbers.parseDouble(mJson, mStringStart, mStringEnd, fallback);
+    }
+
+
+    private long nextLong(long fallback) throws IOException {
+        if (!nextScalar()) return fallback;
+        return ByteNumbers.parseLong(mJson, mStringStart, mStringEnd, fallback);
+    }
+
+
+    /**
+     * Read a number, quoted or not, and remember where its bytes are the way
+     * {@link #readString()} does
+     *
+     * @return false if the value is null, an object or an array, which are skipped
+     */
+    private boolean nextScalar() throws IOException {
+        int b = peek();
+        if (b == 'n' || b == '{' || b == '[') {
+            skipValue();
+            return false;
+        }
+        if (b == '"') {
+            readString();
+            return true;
+        }
+        mStringStart = mPosition;
+        skipLiteral();
+        mStringEnd = mPosition;
+        return true;
+    }
+
+
+    /**
+     * Consume a null if one is next
+     */
+    private boolean nextNull() throws IOException {
+        if (peek() != 'n') return false;
+        skipLiteral();
+        return true;
+    }
+
+
+    /**
+     * Skip the next value, whatever it is
+     */
+    private void skipValue() throws IOException {
+        switch (peek()) {
+            case '{':
+                beginObject();
+                while (hasNextMember()) {
+                    skipValue();
+                }
+                break;
+            case '[':
+                beginArray();
+                while (hasNextElement()) {
+                    skipValue();
+                }
+                break;
+            case '"':
+                readString();
+                break;
+            default:
+                skipLiteral();
+        }
+    }
+
+
+    private void beginObject() throws IOException {
+        expect('{');
+    }
+
+
+    private void beginArray() throws IOException {
+        expect('[');
+    }
+
+
+    /**
+     * Move to the next member of the current object and read its key, or past the closing
+     * brace
+     *
+     * @return false if the object has no more members
+     */
+    private boolean hasNextMember() throws IOException {
+        int b = peek();
+        if (b == '}') {
+            mPosition++;
+            return false;
+        }
+        if (b == ',') {
+            mPosition++;
+            peek();
+        }
+        readString();
+        expect(':');
+        return true;
+    }
+
+
+    /**
+     * Move to the next element of the current array, or past the closing bracket
+     *
+     * @return false if the array has no more elements
+     */
+    private boolean hasNextElement() throws IOException {
+        int b = peek();
+        if (b == ']') {
+            mPosition++;
+            return false;
+        }
+        if (b == ',') {
+            mPosition++;
+        }
+        return true;
+    }
+
+
+    /**
+     * @return whether the last key read is the given ASCII text
+     */
+    private boolean keyEquals(String key) {
+        if (mStringEnd - mStringStart != key.length()) return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (mJson[mStringStart + i] != key.charAt(i)) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Read a string and remember where its content is
+     */
+    private void readString() throws IOException {
+        expect('"');
+        mStringStart = mPosition;
+        mStringEscaped = false;
+        while (available()) {
+            byte b = mJson[mPosition];
+            if (b == '"') {
+                mStringEnd = mPosition++;
+                return;
+            }
+            if (b == '\\') {
+                mStringEscaped = true;
+                mPosition++;
+            }
+            mPosition++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+
+    /**
+     * Decode the string just read, undoing its escapes
+     */
+    private String decodeString() throws IOException {
+        String text = new String(mJson, mStringStart, mStringEnd - mStringStart, UTF_8);
+        if (!mStringEscaped) return text;
+
+        // escapes are ASCII, so they can be undone after decoding
+        StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\') {
+                unescaped.append(c);
+                continue;
+            }
+            if (++i == text.length()) throw syntaxError("Unterminated escape sequence");
+            c = text.charAt(i);
+            switch (c) {
+                case 'b':
+                    unescaped.append('\b');
+                    break;
+                case 'f':
+                    unescaped.append('\f');
+                    break;
+                case 'n':
+                    unescaped.append('\n');
+                    break;
+                case 'r':
+                    unescaped.append('\r');
+                    break;
+                case 't':
+                    unescaped.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 >= text.length()) throw syntaxError("Unterminated escape sequence");
+                    try {
+                        unescaped.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    // \" \\ \/ and anything lenient
+                    unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+
+    /**
+     * Skip a number, true, false or null
+     */
+    private void skipLiteral() throws IOException {
+        boolean empty = true;
+        while (available()) {
+            byte b = mJson[mPosition];
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') break;
+            mPosition++;
+            empty = false;
+        }
+        if (empty) throw syntaxError("Expected a value");
+    }
+
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) throw syntaxError("Expected " + c);
+        mPosition++;
+    }
+
+
+    /**
+     * Skip whitespace
+     *
+     * @return the next byte, without consuming it
+     */
+    private int peek() throws IOException {
+        while (available()) {
+            byte b = mJson[mPosition];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return b;
+            mPosition++;
+        }
+        throw syntaxError("End of input");
+    }
+
+
+    /**
+     * Keep the bytes from the current position on when the buffer is refilled
+     *
+     * @return true, so it can lead a loop condition
+     */
+    private boolean mark() {
+        mMark = mPosition;
+        return true;
+    }
+
+
+    /**
+     * @return whether there is a byte at the current position, reading more of the stream
+     * when there is not
+     */
+    private boolean available() throws IOException {
+        while (mPosition >= mLimit) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Read more of the stream. The bytes from the mark on move to the start of the buffer, and
+     * every offset kept moves with them; the buffer only grows if a single feature fills it.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        if (mEndOfStream) return false;
+
+        if (mMark > 0) {
+            int shift = mMark;
+            System.arraycopy(mJson, shift, mJson, 0, mLimit - shift);
+            mLimit -= shift;
+            mPosition -= shift;
+            mMark = 0;
+            mDropped += shift;
+            mStringStart -= shift;
+            mStringEnd -= shift;
+            if (mTitleStart >= 0) {
+                mTitleStart -= shift;
+                mTitleEnd -= shift;
+            }
+            if (mPlaceStart >= 0) {
+                mPlaceStart -= shift;
+                mPlaceEnd -= shift;
+            }
+        } else if (mLimit == mJson.length) {
+            mJson = Arrays.copyOf(mJson, 2 * mJson.length);
+        }
+
+        int read = mIn.read(mJson, mLimit, mJson.length - mLimit);
+        if (read < 0) {
+            mEndOfStream = true;
+            return false;
+        }
+        mLimit += read;
+        return true;
+    }
+
+
+    private MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message + " at offset " + (mDropped + mPosition));
+    }
+}
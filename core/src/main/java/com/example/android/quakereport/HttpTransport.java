@@ -0,0 +1,81 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Carries the HTTP requests of {@link QueryUtils}. The app uses {@link UrlConnectionTransport},
+ * which keeps connections alive between requests; another implementation can be set with
+ * {@link QueryUtils#setTransport(HttpTransport)}, for example one talking to a local fake server.
+ */
+public interface HttpTransport {
+
+
+    /**
+     * Start a GET request of the url. Nothing is sent until {@link Exchange#connect()}.
+     */
+    Exchange newExchange(URL url) throws IOException;
+
+
+    /**
+     * One request and its response, in the order the methods are listed
+     */
+    interface Exchange {
+
+        /** What {@link #getConnectionReuse()} returns **/
+        int CONNECTION_UNKNOWN = 0;
+        int CONNECTION_NEW = 1;
+        int CONNECTION_REUSED = 2;
+
+        void setTimeouts(int connectMillis, int readMillis);
+
+        /**
+         * Whether the response may come from, and go to, the installed response cache
+         */
+        void setUseCaches(boolean useCaches);
+
+        void setRequestHeader(String name, String value);
+
+        /**
+         * Connect, reusing an idle connection to the same host if there is one
+         */
+        void connect() throws IOException;
+
+        /**
+         * Wait for the response headers
+         */
+        int getResponseCode() throws IOException;
+
+        String getResponseHeader(String name);
+
+        /**
+         * The body of a successful response, as sent (not decompressed)
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * The body of an error response, as sent, or null if there is none
+         */
+        InputStream getErrorBody();
+
+        /**
+         * @return whether {@link #connect()} opened a new connection or reused an idle one, or
+         * {@link #CONNECTION_UNKNOWN} if the transport cannot tell
+         */
+        int getConnectionReuse();
+
+        /**
+         * Finish the exchange. Whatever is left of the body is read first, so the connection
+         * can be reused by the next request.
+         */
+        void close();
+
+        /**
+         * Close the connection at once, without reading the rest of the body, so a read
+         * waiting on it fails. May be called from any thread, the UI thread included. The
+         * connection is not reused, and {@link #close()} does nothing afterwards.
+         */
+        void abort();
+    }
+}
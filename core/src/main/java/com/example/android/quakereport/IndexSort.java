@@ -0,0 +1,231 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts arrays of row indexes by a primitive key column, without boxing the indexes or the keys.
+ */
+public final class IndexSort {
+
+
+    /**
+     * Ranges shorter than this are finished with an insertion sort
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+
+    /**
+     * Arrays shorter than this are not worth splitting across threads
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+
+    /**
+     * Worker threads for {@link #parallelSort}, created the first time they are needed
+     */
+    private static ExecutorService sExecutor;
+
+
+    /**
+     * This class only holds static methods, so no instances are needed.
+     */
+    private IndexSort() {
+    }
+
+
+    /**
+     * Sort the row indexes so that keys[rows[i]] is ascending. NaN keys go to the end.
+     */
+    public static void sort(int[] rows, double[] keys) {
+        sort(rows, 0, rows.length, keys);
+    }
+
+
+    /**
+     * Sort rows[from, to) so that keys[rows[i]] is ascending. NaN keys go to the end.
+     */
+    public static void sort(int[] rows, int from, int to, double[] keys) {
+
+        // quicksort on the larger part iteratively, recurse on the smaller one
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+
+            int mid = (from + to) >>> 1;
+            double pivot = median(keys[rows[from]], keys[rows[mid]], keys[rows[to - 1]]);
+
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (compare(keys[rows[i]], pivot) < 0) i++;
+                while (compare(keys[rows[j]], pivot) > 0) j--;
+                if (i <= j) {
+                    int tmp = rows[i];
+                    rows[i] = rows[j];
+                    rows[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (j - from < to - i) {
+                sort(rows, from, j + 1, keys);
+                from = i;
+            } else {
+                sort(rows, i, to, keys);
+                to = j + 1;
+            }
+        }
+
+        insertionSort(rows, from, to, keys);
+    }
+
+
+    /**
+     * Same result as {@link #sort(int[], double[])}, but large arrays are cut into one run per
+     * core, the runs are sorted at the same time and then merged.
+     */
+    public static void parallelSort(int[] rows, final double[] keys) {
+
+        if (rows.length < PARALLEL_THRESHOLD || PARALLELISM == 1) {
+            sort(rows, keys);
+            return;
+        }
+
+        ExecutorService executor = executor();
+        int runs = PARALLELISM;
+        int[] bounds = new int[runs + 1];
+        for (int i = 0; i <= runs; i++) {
+            bounds[i] = (int) ((long) rows.length * i / runs);
+        }
+
+        // sort every run on its own thread
+        final int[] source = rows;
+        List<Future<?>> futures = new ArrayList<>(runs);
+        for (int i = 0; i < runs; i++) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    sort(source, from, to, keys);
+                }
+            }));
+        }
+        await(futures);
+
+        // merge neighbouring runs in pairs until one run is left, the merges of a pass are
+        // independent so they also run at the same time
+        int[] from = rows;
+        int[] to = new int[rows.length];
+        while (runs > 1) {
+            futures.clear();
+            int merged = 0;
+            for (int i = 0; i < runs; i += 2) {
+                final int start = bounds[i];
+                final int mid = bounds[Math.min(i + 1, runs)];
+                final int end = bounds[Math.min(i + 2, runs)];
+                final int[] in = from;
+                final int[] out = to;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        merge(in, start, mid, end, out, keys);
+                        return null;
+                    }
+                }));
+                bounds[merged++] = start;
+            }
+            bounds[merged] = rows.length;
+            runs = merged;
+            await(futures);
+
+            int[] tmp = from;
+            from = to;
+            to = tmp;
+        }
+
+        if (from != rows) {
+            System.arraycopy(from, 0, rows, 0, rows.length);
+        }
+    }
+
+
+    /**
+     * Merge the sorted ranges in[start, mid) and in[mid, end) into out[start, end)
+     */
+    private static void merge(int[] in, int start, int mid, int end, int[] out, double[] keys) {
+        int i = start;
+        int j = mid;
+        int k = start;
+        while (i < mid && j < end) {
+            out[k++] = compare(keys[in[j]], keys[in[i]]) < 0 ? in[j++] : in[i++];
+        }
+        while (i < mid) out[k++] = in[i++];
+        while (j < end) out[k++] = in[j++];
+    }
+
+
+    private static void await(List<Future<?>> futures) {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sorting", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sorting failed", e.getCause());
+        }
+    }
+
+
+    private static synchronized ExecutorService executor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(PARALLELISM);
+        }
+        return sExecutor;
+    }
+
+
+    private static void insertionSort(int[] rows, int from, int to, double[] keys) {
+        for (int i = from + 1; i < to; i++) {
+            int row = rows[i];
+            double key = keys[row];
+            int j = i - 1;
+            while (j >= from && compare(keys[rows[j]], key) > 0) {
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            rows[j + 1] = row;
+        }
+    }
+
+
+    private static double median(double a, double b, double c) {
+        if (compare(a, b) > 0) {
+            double tmp = a;
+            a = b;
+            b = tmp;
+        }
+        if (compare(b, c) > 0) {
+            b = c;
+        }
+        return compare(a, b) > 0 ? a : b;
+    }
+
+
+    /**
+     * Same order as Double.compare, which puts NaN after every number
+     */
+    private static int compare(double a, double b) {
+        return Double.compare(a, b);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a stream and the time spent waiting for them. Reading a response
+ * body while parsing it mixes the two, so this is how the download is told apart from the
+ * parse.
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+
+    private long mBytes;
+    private long mReadNanos;
+
+
+    public MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = super.read();
+        mReadNanos += System.nanoTime() - start;
+        if (b >= 0) mBytes++;
+        return b;
+    }
+
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        int read = super.read(buffer, offset, length);
+        mReadNanos += System.nanoTime() - start;
+        if (read > 0) mBytes += read;
+        return read;
+    }
+
+
+    @Override
+    public long skip(long n) throws IOException {
+        long start = System.nanoTime();
+        long skipped = super.skip(n);
+        mReadNanos += System.nanoTime() - start;
+        mBytes += skipped;
+        return skipped;
+    }
+
+
+    /**
+     * @return the number of bytes read so far
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+
+    /**
+     * @return the time spent in read and skip so far
+     */
+    public long getReadNanos() {
+        return mReadNanos;
+    }
+}
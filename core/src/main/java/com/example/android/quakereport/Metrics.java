@@ -0,0 +1,228 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process wide registry of the latency histograms and counters of the fetch pipeline, so a
+ * slow refresh can be broken down into connecting, waiting for the first byte, downloading,
+ * parsing and updating the list.
+ *
+ * Recording is a few atomic increments and never allocates once a metric exists, so it can
+ * stay on in release builds. Metrics are created on first use and looked up by name.
+ */
+public final class Metrics {
+
+
+    private static final String TAG = Metrics.class.getSimpleName();
+
+
+    private static final Metrics INSTANCE = new Metrics();
+
+
+    private final ConcurrentHashMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+
+    private Metrics() {
+    }
+
+
+    /**
+     * Return the histogram with the given name, creating it on first use
+     */
+    public Histogram histogram(String name) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = mHistograms.putIfAbsent(name, created);
+            if (histogram == null) histogram = created;
+        }
+        return histogram;
+    }
+
+
+    /**
+     * Return the counter with the given name, creating it on first use
+     */
+    public Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = mCounters.putIfAbsent(name, created);
+            if (counter == null) counter = created;
+        }
+        return counter;
+    }
+
+
+    /**
+     * Record the time since a {@link System#nanoTime()} reading in the named histogram
+     */
+    public void recordSince(String name, long startNanos) {
+        histogram(name).recordNanos(System.nanoTime() - startNanos);
+    }
+
+
+    /**
+     * All metrics as text, one per line and sorted by name. Durations are in milliseconds.
+     */
+    public String dump() {
+
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(mHistograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            text.append(String.format(Locale.US, "%-16s n=%d p50=%.1f p95=%.1f p99=%.1f max=%.1f%n",
+                    entry.getKey(), histogram.getCount(),
+                    histogram.getPercentile(0.50) / 1000.0, histogram.getPercentile(0.95) / 1000.0,
+                    histogram.getPercentile(0.99) / 1000.0, histogram.getMax() / 1000.0));
+        }
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(mCounters).entrySet()) {
+            text.append(String.format(Locale.US, "%-16s %d%n", entry.getKey(), entry.getValue().get()));
+        }
+        return text.toString();
+    }
+
+
+    /**
+     * Write {@link #dump()} to the log
+     */
+    public void log() {
+        CoreLog.d(TAG, "Metrics:\n" + dump());
+    }
+
+
+    /**
+     * Start counting from zero again
+     */
+    public void reset() {
+        mHistograms.clear();
+        mCounters.clear();
+    }
+
+
+    /**
+     * A count, of bytes, events or errors
+     */
+    public static final class Counter {
+
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+
+    /**
+     * Histogram of durations in microseconds. Below 8 every value has its own bucket, above
+     * that each power of two is split into 8 buckets, so a percentile is off by at most an
+     * eighth of its value whatever its magnitude, with a fixed 320 buckets.
+     */
+    public static final class Histogram {
+
+        private static final int SUB_BUCKETS = 8;
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+
+        public void recordNanos(long nanos) {
+            record(nanos / 1000);
+        }
+
+
+        public void record(long micros) {
+            if (micros < 0) micros = 0;
+
+            mBuckets.incrementAndGet(bucket(micros));
+            mCount.incrementAndGet();
+            mSum.addAndGet(micros);
+            long max;
+            while (micros > (max = mMax.get()) && !mMax.compareAndSet(max, micros)) {
+                // another thread raised the max, try again against it
+            }
+        }
+
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+
+        /**
+         * @return the mean in microseconds
+         */
+        public long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mSum.get() / count;
+        }
+
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+
+        /**
+         * @return the value in microseconds that the given fraction of values are at or below,
+         * taken from the middle of its bucket
+         */
+        public long getPercentile(double fraction) {
+
+            long count = mCount.get();
+            if (count == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += mBuckets.get(bucket);
+                if (seen >= rank) {
+                    long lower = lowerBound(bucket);
+                    long upper = bucket + 1 < BUCKETS ? lowerBound(bucket + 1) : lower;
+                    return Math.min(mMax.get(), lower + (upper - lower) / 2);
+                }
+            }
+            return mMax.get();
+        }
+
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return Math.min(BUCKETS - 1, (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket);
+        }
+
+
+        private static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int subBucket = bucket % SUB_BUCKETS;
+            return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        }
+    }
+}
@@ -0,0 +1,616 @@
+package com.example.android.quakereport;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Helper methods related to requesting and receiving earthquake data from USGS.
+ */
+public final class QueryUtils {
+
+
+    private static final String TAG = QueryUtils.class.getSimpleName();
+
+
+    /**
+     * Names of the request {@link Metrics}. Connecting covers the DNS lookup, TCP and TLS
+     * handshakes, which HttpURLConnection does not report separately.
+     */
+    static final String METRIC_CONNECT = "http.connect";
+    static final String METRIC_FIRST_BYTE = "http.first_byte";
+    static final String METRIC_DOWNLOAD = "http.download";
+    static final String METRIC_PARSE = "parse";
+    static final String METRIC_BYTES = "http.bytes";
+    static final String METRIC_REQUESTS = "http.requests";
+    static final String METRIC_NOT_MODIFIED = "http.not_modified";
+    static final String METRIC_HTTP_ERRORS = "http.errors";
+    static final String METRIC_PARSED = "parse.events";
+    static final String METRIC_PARSE_ERRORS = "parse.errors";
+    static final String METRIC_CONNECTIONS_NEW = "http.conn.new";
+    static final String METRIC_CONNECTIONS_REUSED = "http.conn.reused";
+
+    /**
+     * Names of the cancellation {@link Metrics}. What a canceled request saved is only known
+     * when the server sent a Content-Length: the bytes never downloaded, and the parse time
+     * they would have taken at the rate the rest was parsed. The latency is the time from the
+     * cancel to the worker giving up.
+     */
+    static final String METRIC_CANCELED = "cancel.requests";
+    static final String METRIC_CANCEL_LATENCY = "cancel.latency";
+    static final String METRIC_CANCEL_BYTES_SAVED = "cancel.bytes_saved";
+    static final String METRIC_CANCEL_PARSE_SAVED = "cancel.parse_saved";
+
+
+    /**
+     * Carries every request, keeping connections alive in between
+     */
+    private static volatile HttpTransport sTransport = new UrlConnectionTransport();
+
+
+    /**
+     * Create a private constructor because no one should ever create a {@link QueryUtils} object.
+     * This class is only meant to hold static variables and methods, which can be accessed
+     * directly from the class name QueryUtils (and an object instance of QueryUtils is not needed).
+     */
+    private QueryUtils() {
+    }
+
+
+    /**
+     * Send requests through another transport, such as one with a different number of idle
+     * connections or one talking to a local fake server
+     */
+    public static void setTransport(HttpTransport transport) {
+        sTransport = transport;
+    }
+
+
+    /**
+     * Return a list of {@link Earthquake} objects that has been built up from
+     * parsing a USGS source url.
+     */
+    public static ArrayList<Earthquake> getEarthquakesFromURL(String urlAsString) {
+
+        CoreLog.v(TAG, "Fetching earthquakes from QueryUtils");
+
+        /* test loading animation
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        */
+
+        // Create an empty ArrayList that the parser can add earthquakes to as they are read
+        final ArrayList<Earthquake> earthquakes = new ArrayList<>();
+
+        // stream the response straight into the list, one feature at a time
+        boolean parsed = getEarthquakes(urlAsString, new EarthquakeSink() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
+
+        // a malformed response is reported as null, same as before
+        return parsed ? earthquakes : null;
+    }
+
+
+    /**
+     * Return an {@link EarthquakeTable} filled directly from parsing a USGS source url,
+     * or null if the response could not be parsed.
+     *
+     * Results go through the {@link EarthquakeResultCache}, so asking for the same url again
+     * shortly after, or while it is being fetched, does not make another request.
+     */
+    public static EarthquakeTable getEarthquakeTableFromURL(String urlAsString) {
+        try {
+            FetchResult result = fetchEarthquakeTable(urlAsString, RequestScheduler.Priority.VISIBLE,
+                    CancellationToken.NONE);
+            if (!result.isFailed()) return result.getTable();
+            // a failed request reads as an empty result and an unparseable one as null, same
+            // as before
+            return result.getError().getKind() == FetchException.Kind.PARSE ? null : new EarthquakeTable();
+        } catch (FetchCanceledException e) {
+            // not with a token that cannot be canceled
+            return null;
+        }
+    }
+
+
+    /**
+     * Fetch a url into a table through the {@link EarthquakeResultCache} and the
+     * {@link ResilientFetcher}, which retries, hedges slow requests and stops asking a server
+     * that keeps failing. When the fetch fails the last cached result of the url is served,
+     * however old it is.
+     *
+     * @param priority how soon the request goes out compared to others. A fetch of the url
+     *                 already in flight is only joined if its priority is as high.
+     * @return the result, fresh, stale or failed but never null
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public static FetchResult fetchEarthquakeTable(String urlAsString, RequestScheduler.Priority priority,
+                                                   CancellationToken token) throws FetchCanceledException {
+
+        CoreLog.d(TAG, "Attempting to retrieve earthquake data from " + urlAsString);
+
+        EarthquakeResultCache cache = EarthquakeResultCache.getInstance();
+        try {
+            return FetchResult.fresh(cache.get(urlAsString, priority, tableFetcher(priority), token));
+        } catch (FetchCanceledException e) {
+            CoreLog.d(TAG, "Canceled loading " + urlAsString);
+            throw e;
+        } catch (IOException e) {
+            FetchException error = FetchException.from(e);
+            EarthquakeTable stale = cache.getStale(urlAsString);
+            CoreLog.e(TAG, "!!! Error makeing HTTP request to " + urlAsString + " !!!"
+                    + (stale != null ? " Serving the cached result." : ""), e);
+            return stale != null ? FetchResult.stale(stale, error) : FetchResult.failed(error);
+        }
+    }
+
+
+    /**
+     * Fills the {@link EarthquakeResultCache} at the given priority, page sized requests are hedged
+     */
+    private static EarthquakeResultCache.Fetcher tableFetcher(final RequestScheduler.Priority priority) {
+        return new EarthquakeResultCache.Fetcher() {
+            @Override
+            public EarthquakeTable fetch(String url, CancellationToken token) throws IOException {
+                return ResilientFetcher.getInstance().fetchTable(url, priority, true, token);
+            }
+        };
+    }
+
+
+    /**
+     * Request the given url and pass every {@link Earthquake} in the response to the sink.
+     *
+     * @return false if the response could not be parsed, true otherwise (including when the
+     * request itself failed and nothing was passed to the sink)
+     */
+    public static boolean getEarthquakes(String givenURL, EarthquakeSink sink) {
+
+        CoreLog.d(TAG, "Attempting to retrieve JSON data from " + givenURL);
+
+        // convert string into URL object
+        URL url = createURL(givenURL);
+
+        // make request and parse the response as it arrives
+        return makeHttpRequest(url, sink);
+    }
+
+
+    /**
+     * Parse a response stream in the given format, passing each {@link Earthquake} to the sink
+     * as soon as it has been read.
+     *
+     * @return false if the response is not the GeoJSON or CSV we expect
+     * @throws FetchCanceledException if the token was canceled, which may also have cut the
+     * response short
+     */
+    private static boolean extractEarthquakes(InputStream inputStream, WireFormat format, EarthquakeSink sink,
+                                              CancellationToken token) throws IOException {
+
+        // Try to parse the response. If there's a problem with the way the JSON or CSV is
+        // formatted, a MalformedJsonException or IllegalStateException will be thrown, and a
+        // NumberFormatException if a number field holds something else.
+        // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        try {
+            int count = format.parse(inputStream, sink, token);
+            CoreLog.d(TAG, "Parsed " + count + " earthquakes");
+            Metrics.getInstance().counter(METRIC_PARSED).add(count);
+            return true;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // an aborted connection ends the body wherever it was
+            token.throwIfCanceled();
+            CoreLog.e(TAG, "Problem parsing the earthquake " + format + " results", e);
+            Metrics.getInstance().counter(METRIC_PARSE_ERRORS).increment();
+            return false;
+        }
+    }
+
+
+    /**
+     * Attempt to form a URL from a string
+     */
+    private static URL createURL(String urlString) {
+
+        URL url;
+
+        // if string is empty return null for URL object
+        if (urlString == null || urlString.isEmpty()) return null;
+
+        try {
+            url = new URL(urlString);
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        return url;
+    }
+
+
+    /**
+     * Make an http request and stream the response into the sink
+     *
+     * @return false only if a response was received but could not be parsed
+     */
+    private static boolean makeHttpRequest(URL url, final EarthquakeSink sink) {
+
+        // if url is null, return early
+        if (url == null) return true;
+
+        // the query says which format the response is in
+        final WireFormat format = WireFormat.ofUrl(url.toString());
+        try {
+            return executeRequest(url, null, new ResponseReader<Boolean>() {
+                @Override
+                public Boolean read(InputStream body) throws IOException {
+                    return extractEarthquakes(body, format, sink, CancellationToken.NONE);
+                }
+            }, CancellationToken.NONE);
+        } catch (IOException e) {
+            CoreLog.e(TAG, "!!! Error makeing HTTP request to " + url.toString() + " !!!", e);
+            return true;
+        }
+    }
+
+
+    /**
+     * Request the given url and pass every {@link Earthquake} in the response to the sink.
+     * Unlike {@link #getEarthquakes(String, EarthquakeSink)} a failed request is reported to
+     * the caller, so it can be told apart from an empty result and retried.
+     *
+     * @return false if the response could not be parsed
+     * @throws IOException if the request failed or did not return 200
+     */
+    public static boolean fetchEarthquakes(String givenURL, final EarthquakeSink sink) throws IOException {
+        return fetchEarthquakes(givenURL, sink, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Same as {@link #fetchEarthquakes(String, EarthquakeSink)}, but the request is aborted and
+     * the parse stopped as soon as the token is canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public static boolean fetchEarthquakes(String givenURL, final EarthquakeSink sink,
+                                           final CancellationToken token) throws IOException {
+
+        URL url = createURL(givenURL);
+        if (url == null) throw new MalformedURLException(givenURL);
+
+        final WireFormat format = WireFormat.ofUrl(givenURL);
+        return executeRequest(url, null, new ResponseReader<Boolean>() {
+            @Override
+            public Boolean read(InputStream body) throws IOException {
+                return extractEarthquakes(body, format, sink, token);
+            }
+        }, token);
+    }
+
+
+    /**
+     * Request a url of the USGS count endpoint and return the count. The count is always
+     * asked for as GeoJSON, whatever the format of the query it counts.
+     *
+     * @throws IOException if the request failed or the response has no count
+     */
+    public static int fetchCount(String givenURL) throws IOException {
+        return fetchCount(givenURL, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Same as {@link #fetchCount(String)}, but the request is aborted as soon as the token is
+     * canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public static int fetchCount(String givenURL, CancellationToken token) throws IOException {
+
+        URL url = createURL(givenURL == null ? null : WireFormat.GEOJSON.applyTo(givenURL));
+        if (url == null) throw new MalformedURLException(givenURL);
+
+        return executeRequest(url, null, new ResponseReader<Integer>() {
+            @Override
+            public Integer read(InputStream body) throws IOException {
+                try {
+                    return EarthquakeJsonParser.parseCount(body);
+                } catch (IllegalStateException | NumberFormatException e) {
+                    throw new FetchException(FetchException.Kind.PARSE, "Unexpected count response", e);
+                }
+            }
+        }, token);
+    }
+
+
+    /**
+     * Request a feed url only if it changed since the validators were last filled in, passing
+     * every {@link Earthquake} of a changed feed to the sink. The validators are updated from
+     * the response so the next call can be conditional again.
+     *
+     * The request waits for a slot of the {@link RequestScheduler} at the given priority. A
+     * background poll may be preempted by a more important request, it then fails with a
+     * {@link FetchCanceledException} and is best made again at the next poll.
+     *
+     * @return false if the feed has not changed (304)
+     * @throws IOException if the request failed, the response could not be parsed, or the
+     * response code was neither 200 nor 304
+     */
+    public static boolean fetchIfChanged(String givenURL, Validators validators, final EarthquakeSink sink,
+                                         RequestScheduler.Priority priority) throws IOException {
+        return fetchIfChanged(givenURL, validators, sink, priority, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Same as {@link #fetchIfChanged(String, Validators, EarthquakeSink, RequestScheduler.Priority)},
+     * giving up as soon as the token is canceled
+     *
+     * @throws FetchCanceledException if the token was canceled, or the request preempted
+     */
+    public static boolean fetchIfChanged(String givenURL, Validators validators, final EarthquakeSink sink,
+                                         RequestScheduler.Priority priority, CancellationToken token)
+            throws IOException {
+
+        URL url = createURL(givenURL);
+        if (url == null) throw new MalformedURLException(givenURL);
+
+        final WireFormat format = WireFormat.ofUrl(givenURL);
+        final RequestScheduler.Slot slot =
+                RequestScheduler.getInstance().acquire(givenURL, priority, token);
+        try {
+            Boolean changed = executeRequest(url, validators, new ResponseReader<Boolean>() {
+                @Override
+                public Boolean read(InputStream body) throws IOException {
+                    if (!extractEarthquakes(body, format, sink, slot.getToken())) {
+                        throw new FetchException(FetchException.Kind.PARSE, "Unexpected feed response");
+                    }
+                    return true;
+                }
+            }, slot.getToken());
+            return changed != null;
+        } finally {
+            slot.release();
+        }
+    }
+
+
+    /**
+     * What the server told us identifies the last response of a url, sent back with the next
+     * request of it so an unchanged response comes back as a 304 without a body
+     */
+    public static final class Validators {
+        String mETag;
+        String mLastModified;
+    }
+
+
+    /**
+     * Reads the body of a successful response
+     */
+    private interface ResponseReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+
+    /**
+     * Make an http request and hand the body of a 200 response to the reader. With validators
+     * the request is made conditional on them, bypassing the response cache, and a 304
+     * returns null.
+     *
+     * Canceling the token aborts the exchange, which fails whatever read or connect is
+     * blocked on it; the parsers also check the token before each event.
+     *
+     * @throws FetchException if the request failed or the response code was not 200 (or 304
+     * for a conditional request)
+     * @throws FetchCanceledException if the token was canceled
+     */
+    private static <T> T executeRequest(URL url, Validators validators, ResponseReader<T> reader,
+                                        CancellationToken token) throws IOException {
+
+        token.throwIfCanceled();
+
+        Metrics metrics = Metrics.getInstance();
+        metrics.counter(METRIC_REQUESTS).increment();
+        long start = System.nanoTime();
+
+        // request and response over a pooled connection
+        HttpTransport.Exchange exchange = null;
+        CancellationToken.OnCancelListener abortOnCancel = null;
+        boolean canceled = false;
+        // input stream to read response
+        InputStream iStream = null;
+        // what was downloaded of a 200 body, to tell what a cancel saved
+        MeteredInputStream body = null;
+        long contentLength = -1;
+        long firstByte = 0;
+
+        try {
+            // set options for the request and connect
+            exchange = sTransport.newExchange(url);
+            final HttpTransport.Exchange abortable = exchange;
+            abortOnCancel = new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    abortable.abort();
+                }
+            };
+            token.addOnCancelListener(abortOnCancel);
+            exchange.setTimeouts(15000, 10000); /* milliseconds */
+            if (validators == null) {
+                // go through the response cache, but always revalidate so a refresh sends a
+                // conditional GET and an unchanged result comes back as a small 304
+                exchange.setUseCaches(true);
+                exchange.setRequestHeader("Cache-Control", "max-age=0");
+            } else {
+                // we keep the validators ourselves, the cache would hide the 304 from us
+                exchange.setUseCaches(false);
+                if (validators.mETag != null) {
+                    exchange.setRequestHeader("If-None-Match", validators.mETag);
+                }
+                if (validators.mLastModified != null) {
+                    exchange.setRequestHeader("If-Modified-Since", validators.mLastModified);
+                }
+            }
+            // ask for a compressed body, we decode it ourselves as it streams in
+            exchange.setRequestHeader("Accept-Encoding", "gzip");
+            exchange.connect();
+            long connected = System.nanoTime();
+            metrics.histogram(METRIC_CONNECT).recordNanos(connected - start);
+            int reuse = exchange.getConnectionReuse();
+            if (reuse != HttpTransport.Exchange.CONNECTION_UNKNOWN) {
+                metrics.counter(reuse == HttpTransport.Exchange.CONNECTION_NEW
+                        ? METRIC_CONNECTIONS_NEW : METRIC_CONNECTIONS_REUSED).increment();
+            }
+            // if good response (200, or a 304 answered from the cache) read the input stream
+            // as it arrives
+            int responseCode = exchange.getResponseCode();
+            firstByte = System.nanoTime();
+            metrics.histogram(METRIC_FIRST_BYTE).recordNanos(firstByte - connected);
+            if (validators != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                metrics.counter(METRIC_NOT_MODIFIED).increment();
+                return null;
+            }
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                // the body is parsed as it downloads, time spent waiting for bytes is the
+                // download and the rest is parsing
+                contentLength = parseLength(exchange.getResponseHeader("Content-Length"));
+                body = new MeteredInputStream(exchange.getBody());
+                iStream = decodeBody(exchange, body);
+                T result = reader.read(iStream);
+                // a body cut short by the abort may still have parsed without an error
+                token.throwIfCanceled();
+                long readNanos = body.getReadNanos();
+                metrics.histogram(METRIC_DOWNLOAD).recordNanos(readNanos);
+                metrics.histogram(METRIC_PARSE).recordNanos(System.nanoTime() - firstByte - readNanos);
+                metrics.counter(METRIC_BYTES).add(body.getBytes());
+                // only a body we managed to read may be skipped next time
+                if (validators != null) {
+                    validators.mETag = exchange.getResponseHeader("ETag");
+                    validators.mLastModified = exchange.getResponseHeader("Last-Modified");
+                }
+                return result;
+            }
+
+            // we did not get 200, so report the error along with what the server said
+            String message = "Response code " + responseCode;
+            long retryAfterMs = parseLength(exchange.getResponseHeader("Retry-After")) * 1000;
+            iStream = exchange.getErrorBody();
+            if (iStream != null) {
+                iStream = decodeBody(exchange, iStream);
+                message += ": " + readErrorBody(iStream);
+            }
+            throw FetchException.forResponse(responseCode, message, Math.max(-1, retryAfterMs));
+
+        } catch (IOException e) {
+            if (token.isCanceled()) {
+                // whatever failed, it failed because the exchange was aborted
+                canceled = true;
+                recordCanceled(token, body, contentLength, firstByte);
+                throw e instanceof FetchCanceledException ? e : new FetchCanceledException();
+            }
+            metrics.counter(METRIC_HTTP_ERRORS).increment();
+            throw FetchException.from(e);
+        } finally {
+            if (abortOnCancel != null) {
+                token.removeOnCancelListener(abortOnCancel);
+            }
+            // no disconnect unless canceled, closing the exchange drains what is left of the
+            // body so the connection goes back to the pool
+            if (exchange != null) {
+                if (canceled) {
+                    exchange.abort();
+                } else {
+                    exchange.close();
+                }
+            }
+            if (iStream != null) {
+                try {
+                    iStream.close();
+                } catch (IOException e) {
+                    CoreLog.e(TAG, "!!! Could not close the input stream !!!", e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Count a canceled request, and what it saved if the size of the body is known
+     */
+    private static void recordCanceled(CancellationToken token, MeteredInputStream body,
+                                       long contentLength, long firstByte) {
+
+        Metrics metrics = Metrics.getInstance();
+        long now = System.nanoTime();
+        metrics.counter(METRIC_CANCELED).increment();
+        metrics.histogram(METRIC_CANCEL_LATENCY).recordNanos(now - token.getCanceledAt());
+
+        if (body == null) return;
+        long read = body.getBytes();
+        metrics.counter(METRIC_BYTES).add(read);
+        if (contentLength <= read) return;
+
+        long skipped = contentLength - read;
+        metrics.counter(METRIC_CANCEL_BYTES_SAVED).add(skipped);
+        if (read > 0) {
+            long parseNanos = now - firstByte - body.getReadNanos();
+            metrics.histogram(METRIC_CANCEL_PARSE_SAVED).recordNanos(parseNanos * skipped / read);
+        }
+    }
+
+
+    /**
+     * @return the value of a Content-Length header, or of a Retry-After header in seconds, or
+     * -1 if there is none
+     */
+    private static long parseLength(String header) {
+        if (header == null) return -1;
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Wrap the body in a gzip decoder when the server compressed it
+     */
+    private static InputStream decodeBody(HttpTransport.Exchange exchange, InputStream body) throws IOException {
+        if ("gzip".equalsIgnoreCase(exchange.getResponseHeader("Content-Encoding"))) {
+            return new GZIPInputStream(body);
+        }
+        return body;
+    }
+
+
+    /**
+     * Read the (short) error message USGS sends with a failed request
+     */
+    private static String readErrorBody(InputStream inputStream) throws IOException {
+
+        // error pages are small, only keep the beginning of anything unexpected
+        byte[] buffer = new byte[1024];
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        return new String(buffer, 0, length, "UTF-8");
+    }
+
+}
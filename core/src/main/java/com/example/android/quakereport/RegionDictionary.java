@@ -0,0 +1,82 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Maps region names to small integer codes, so thousands of events in "Alaska" or "CA" share
+ * one String instead of each holding their own copy. Every {@link EarthquakeTable} has its own,
+ * so the regions go away with the table instead of piling up for the life of the process, and
+ * tables filled on different threads never wait on each other. Codes never change once handed
+ * out, until the dictionary is cleared.
+ */
+public final class RegionDictionary {
+
+
+    /**
+     * Code stored for events without a region
+     */
+    public static final int NO_REGION = -1;
+
+
+    private final HashMap<String, Integer> mCodes = new HashMap<>();
+    private final ArrayList<String> mRegions = new ArrayList<>();
+
+
+    /**
+     * Return the code for a region name, adding the name if it is new
+     */
+    public synchronized int encode(String region) {
+
+        if (region == null) return NO_REGION;
+
+        Integer code = mCodes.get(region);
+        if (code == null) {
+            code = mRegions.size();
+            mRegions.add(region);
+            mCodes.put(region, code);
+        }
+        return code;
+    }
+
+
+    /**
+     * Return the region name for a code from {@link #encode(String)}
+     */
+    public synchronized String decode(int code) {
+        return code == NO_REGION ? null : mRegions.get(code);
+    }
+
+
+    public synchronized int size() {
+        return mRegions.size();
+    }
+
+
+    /**
+     * Forget every region, codes handed out before are no longer valid
+     */
+    public synchronized void clear() {
+        mCodes.clear();
+        mRegions.clear();
+    }
+
+
+    /**
+     * Split a USGS place such as "12km SSW of Anchorage, Alaska" into its distance/direction
+     * part ("12km SSW of ") and its region part ("Anchorage, Alaska"). Places without a
+     * distance, like "Oaxaca, Mexico" or "Offshore Northern California", are all region.
+     *
+     * @return the index the region starts at, 0 if the place has no distance/direction part
+     */
+    public static int regionStart(String place) {
+
+        if (place == null || place.isEmpty() || !Character.isDigit(place.charAt(0))) return 0;
+
+        // the distance is followed by a unit and a compass direction, then " of "
+        int of = place.indexOf(" of ");
+        if (of < 0 || place.lastIndexOf("km", of) < 0) return 0;
+
+        return of + 4;
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.android.quakereport;
+
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Decides which request goes out next. Every request waits for a slot, and waiting requests
+ * get one by priority: what the user is looking at first, then the next page, then background
+ * work such as feed polls. Each priority below the top may only fill one slot less than the
+ * one above it, so a request for the screen finds a slot free unless other requests for the
+ * screen hold them all. When it has to wait anyway, a running background request is preempted:
+ * aborted through its token and put back in line, which is safe for a GET.
+ *
+ * Requests to the same host are limited as well, to no more than the idle connections the
+ * transport keeps, so parallel requests reuse connections instead of opening new ones.
+ *
+ * The slots are taken on the callers' own threads. Loaders already run on AsyncTask threads,
+ * which AsyncTaskLoader offers no way to replace before API 28, so handing the work to a
+ * pool of our own would only add a thread hop; bounding the slots bounds the work the same way.
+ */
+public final class RequestScheduler {
+
+
+    private static final String TAG = RequestScheduler.class.getSimpleName();
+
+
+    public enum Priority {
+        /** Shown on screen, or about to be: the first page or a refresh of it */
+        VISIBLE,
+        /** Wanted soon, such as the page after the ones shown */
+        PREFETCH,
+        /** Nobody waits for it, such as feed polls and scheduled refreshes */
+        BACKGROUND
+    }
+
+
+    /**
+     * Names of the {@link Metrics}. The wait for a slot is recorded per priority, as
+     * scheduler.wait.visible and so on.
+     */
+    static final String METRIC_WAIT = "scheduler.wait";
+    static final String METRIC_PREEMPTED = "scheduler.preempted";
+
+
+    /**
+     * Requests running at the same time, to any host
+     */
+    public static final int DEFAULT_MAX_RUNNING = 6;
+
+
+    /**
+     * Requests running at the same time to one host
+     */
+    public static final int DEFAULT_MAX_PER_HOST = UrlConnectionTransport.DEFAULT_MAX_IDLE_CONNECTIONS;
+
+
+    private static final RequestScheduler INSTANCE =
+            new RequestScheduler(DEFAULT_MAX_RUNNING, DEFAULT_MAX_PER_HOST);
+
+
+    private final int mMaxRunning;
+    private final int mMaxPerHost;
+
+    /** The rest is guarded by this **/
+
+    /** Waiting requests, highest priority first and in order of arrival within a priority **/
+    private final TreeSet<Slot> mWaiting = new TreeSet<>(new Comparator<Slot>() {
+        @Override
+        public int compare(Slot a, Slot b) {
+            if (a.mPriority != b.mPriority) return a.mPriority.compareTo(b.mPriority);
+            return a.mSequence < b.mSequence ? -1 : a.mSequence == b.mSequence ? 0 : 1;
+        }
+    });
+    private final ArrayList<Slot> mRunning = new ArrayList<>();
+    private final HashMap<String, int[]> mRunningPerHost = new HashMap<>();
+    private long mSequence;
+
+    /** Preempted requests that have not given back their slot yet **/
+    private int mPreempting;
+
+
+    public static RequestScheduler getInstance() {
+        return INSTANCE;
+    }
+
+
+    public RequestScheduler(int maxRunning, int maxPerHost) {
+        mMaxRunning = maxRunning;
+        mMaxPerHost = maxPerHost;
+    }
+
+
+    /**
+     * Wait for a slot to request the url in. The request must be made with the token of the
+     * slot, which is canceled with the given token or when the request is preempted, and the
+     * slot released when the request is done.
+     *
+     * @throws FetchCanceledException if the token was canceled while waiting
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public Slot acquire(String url, Priority priority, CancellationToken token) throws InterruptedIOException {
+
+        token.throwIfCanceled();
+        long start = System.nanoTime();
+        Slot slot = new Slot(hostOf(url), priority, token);
+
+        // a cancel has to wake us up, whoever else is waiting
+        CancellationToken.OnCancelListener wake = new CancellationToken.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                synchronized (RequestScheduler.this) {
+                    RequestScheduler.this.notifyAll();
+                }
+            }
+        };
+        slot.mToken.addOnCancelListener(wake);
+
+        ArrayList<Slot> preempt = new ArrayList<>();
+        boolean granted = false;
+        try {
+            synchronized (this) {
+                slot.mSequence = mSequence++;
+                mWaiting.add(slot);
+                dispatch(preempt);
+            }
+            preempt(preempt);
+
+            synchronized (this) {
+                while (!slot.mGranted) {
+                    if (token.isCanceled()) {
+                        mWaiting.remove(slot);
+                        throw new FetchCanceledException();
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        mWaiting.remove(slot);
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for a request slot");
+                    }
+                }
+            }
+            granted = true;
+        } finally {
+            slot.mToken.removeOnCancelListener(wake);
+            if (!granted) slot.mToken.detach();
+        }
+
+        Metrics.getInstance().histogram(METRIC_WAIT + "." + priority.name().toLowerCase(Locale.US))
+                .recordNanos(System.nanoTime() - start);
+        return slot;
+    }
+
+
+    /**
+     * Grant every waiting request that fits, in order, and pick a background request to
+     * preempt for a visible one that does not fit. Called with the lock held.
+     *
+     * @param preempt filled with the slots to preempt, which is done without the lock
+     */
+    private void dispatch(ArrayList<Slot> preempt) {
+        boolean granted = false;
+        Iterator<Slot> waiting = mWaiting.iterator();
+        while (waiting.hasNext()) {
+            Slot slot = waiting.next();
+            if (fits(slot)) {
+                waiting.remove();
+                slot.mGranted = true;
+                mRunning.add(slot);
+                runningOn(slot.mHost)[0]++;
+                granted = true;
+            } else if (slot.mPriority == Priority.VISIBLE && mPreempting == 0) {
+                Slot victim = findVictim(slot);
+                if (victim != null) {
+                    victim.mPreempted = true;
+                    mPreempting++;
+                    preempt.add(victim);
+                }
+            }
+        }
+        if (granted) notifyAll();
+    }
+
+
+    /**
+     * @return true if the request can start without taking a slot kept for a higher priority
+     */
+    private boolean fits(Slot slot) {
+        int reserved = slot.mPriority.ordinal();
+        return mRunning.size() < Math.max(1, mMaxRunning - reserved)
+                && runningOn(slot.mHost)[0] < Math.max(1, mMaxPerHost - reserved);
+    }
+
+
+    /**
+     * @return a running background request whose slot the waiting one could take, or null
+     */
+    private Slot findVictim(Slot waiting) {
+        boolean full = mRunning.size() >= mMaxRunning;
+        for (Slot running : mRunning) {
+            if (running.mPriority == Priority.BACKGROUND && !running.mPreempted
+                    && (full || running.mHost.equals(waiting.mHost))) {
+                return running;
+            }
+        }
+        return null;
+    }
+
+
+    private static void preempt(ArrayList<Slot> slots) {
+        for (Slot slot : slots) {
+            CoreLog.d(TAG, "Preempting a background request to " + slot.mHost);
+            Metrics.getInstance().counter(METRIC_PREEMPTED).increment();
+            slot.mToken.cancel();
+        }
+    }
+
+
+    private void release(Slot slot) {
+        ArrayList<Slot> preempt = new ArrayList<>();
+        synchronized (this) {
+            if (!mRunning.remove(slot)) return;
+            runningOn(slot.mHost)[0]--;
+            if (slot.mPreempted) mPreempting--;
+            dispatch(preempt);
+        }
+        preempt(preempt);
+    }
+
+
+    private int[] runningOn(String host) {
+        int[] running = mRunningPerHost.get(host);
+        if (running == null) {
+            running = new int[1];
+            mRunningPerHost.put(host, running);
+        }
+        return running;
+    }
+
+
+    private static String hostOf(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase(Locale.US);
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+
+    /**
+     * The right to make one request
+     */
+    public final class Slot {
+
+        private final String mHost;
+        private final Priority mPriority;
+        private long mSequence;
+
+        /** Canceled with the caller's token, or to preempt the request **/
+        private final CancellationToken mToken;
+
+        /** Guarded by the scheduler **/
+        private boolean mGranted;
+        private volatile boolean mPreempted;
+
+        private Slot(String host, Priority priority, CancellationToken token) {
+            mHost = host;
+            mPriority = priority;
+            mToken = new CancellationToken(token);
+        }
+
+        /**
+         * @return the token to make the request with
+         */
+        public CancellationToken getToken() {
+            return mToken;
+        }
+
+        /**
+         * @return true if the request was aborted to make room for a more important one, and
+         * should wait for another slot and be made again
+         */
+        public boolean wasPreempted() {
+            return mPreempted;
+        }
+
+        /**
+         * Give the slot back, once the request is done
+         */
+        public void release() {
+            mToken.detach();
+            RequestScheduler.this.release(this);
+        }
+    }
+}
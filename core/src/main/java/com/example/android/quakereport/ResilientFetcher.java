@@ -0,0 +1,376 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes requests to USGS hold up when the network or the server does not: failures that may
+ * go away are retried after a jittered, growing delay ({@link RetryPolicy}), a request that is
+ * slower than 95% of requests gets a second identical request sent alongside it and the first
+ * answer wins, and a server that keeps failing is left alone for a while
+ * ({@link CircuitBreaker}), so callers fail at once and can serve what they have cached.
+ *
+ * Every request is a GET, which may safely be sent twice. Each one waits for a slot of the
+ * {@link RequestScheduler} at the priority of its caller, and is made again if it was preempted.
+ * Failures come out as {@link FetchException}s so they can be told apart from a query without
+ * results.
+ */
+public final class ResilientFetcher {
+
+
+    private static final String TAG = ResilientFetcher.class.getSimpleName();
+
+
+    /**
+     * Names of the {@link Metrics}. The latency is of hedged requests that succeeded, and is
+     * what the hedge delay is taken from.
+     */
+    static final String METRIC_LATENCY = "fetch.latency";
+    static final String METRIC_RETRIES = "fetch.retries";
+    static final String METRIC_HEDGED = "fetch.hedged";
+    static final String METRIC_HEDGE_WON = "fetch.hedge_won";
+
+
+    /**
+     * Failures in a row that stop requests to a host, and for how long
+     */
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long COOL_DOWN_MS = 30 * 1000;
+
+
+    /**
+     * Requests measured before any is hedged, fewer say little about the p95
+     */
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+
+    /**
+     * Hedges never go out sooner than this, however fast requests usually are
+     */
+    private static final long MIN_HEDGE_DELAY_MS = 200;
+
+
+    private static final ResilientFetcher INSTANCE =
+            new ResilientFetcher(RetryPolicy.DEFAULT, RequestScheduler.getInstance());
+
+
+    /**
+     * Sends the hedged requests. Few requests are hedged, and a hedge that waits for a thread
+     * only goes out a little later.
+     */
+    private static final ScheduledThreadPoolExecutor HEDGER = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "usgs-hedge");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+
+    /**
+     * One request, made again for a retry or a hedge
+     */
+    private interface Attempt<T> {
+        T run(String url, CancellationToken token) throws IOException;
+    }
+
+
+    private static final Attempt<EarthquakeTable> TABLE = new Attempt<EarthquakeTable>() {
+        @Override
+        public EarthquakeTable run(String url, CancellationToken token) throws IOException {
+            EarthquakeTable table = new EarthquakeTable();
+            if (!QueryUtils.fetchEarthquakes(url, table, token)) {
+                throw new FetchException(FetchException.Kind.PARSE, "Could not parse " + url);
+            }
+            return table;
+        }
+    };
+
+
+    private static final Attempt<Integer> COUNT = new Attempt<Integer>() {
+        @Override
+        public Integer run(String url, CancellationToken token) throws IOException {
+            return QueryUtils.fetchCount(url, token);
+        }
+    };
+
+
+    private final RetryPolicy mRetryPolicy;
+    private final RequestScheduler mScheduler;
+
+    /** Breakers by host, guarded by itself **/
+    private final HashMap<String, CircuitBreaker> mBreakers = new HashMap<>();
+
+
+    public static ResilientFetcher getInstance() {
+        return INSTANCE;
+    }
+
+
+    public ResilientFetcher(RetryPolicy retryPolicy, RequestScheduler scheduler) {
+        mRetryPolicy = retryPolicy;
+        mScheduler = scheduler;
+    }
+
+
+    /**
+     * Fetch every event of a url into a new table
+     *
+     * @param priority how soon the request should go out, compared to others
+     * @param hedge true to send a second request when the first is slow. Only for requests
+     *              the size of a page, the p95 of pages says nothing about larger ones.
+     * @throws FetchException if the request still failed after its retries, or was not made
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public EarthquakeTable fetchTable(String url, RequestScheduler.Priority priority, boolean hedge,
+                                      CancellationToken token) throws IOException {
+        return execute(url, TABLE, priority, hedge, token);
+    }
+
+
+    /**
+     * Ask a url of the USGS count endpoint for its count
+     *
+     * @throws FetchException if the request still failed after its retries, or was not made
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public int fetchCount(String url, RequestScheduler.Priority priority, CancellationToken token)
+            throws IOException {
+        return execute(url, COUNT, priority, false, token);
+    }
+
+
+    private <T> T execute(String url, Attempt<T> attempt, RequestScheduler.Priority priority, boolean hedge,
+                          CancellationToken token) throws IOException {
+
+        CircuitBreaker breaker = getBreaker(url);
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            token.throwIfCanceled();
+            if (!breaker.allowRequest()) {
+                throw new FetchException(FetchException.Kind.CIRCUIT_OPEN,
+                        "Not asking again so soon after repeated failures: " + url);
+            }
+
+            try {
+                return hedge ? runHedged(url, attempt, priority, breaker, token)
+                        : runOnce(url, attempt, priority, breaker, false, token);
+            } catch (FetchException e) {
+                if (!mRetryPolicy.shouldRetry(e, attemptNumber)) throw e;
+                long delay = mRetryPolicy.getDelayMs(e, attemptNumber);
+                CoreLog.w(TAG, "Attempt " + attemptNumber + " failed (" + e.getKind() + "), retrying in "
+                        + delay + " ms: " + url);
+                Metrics.getInstance().counter(METRIC_RETRIES).increment();
+                token.sleep(delay);
+            }
+        }
+    }
+
+
+    /**
+     * Make the request once in a slot of the scheduler and tell the breaker how it went. A
+     * request preempted for a more important one waits for another slot and is made again.
+     *
+     * @param timed true to add the latency to the one hedges are sent at
+     */
+    private <T> T runOnce(String url, Attempt<T> attempt, RequestScheduler.Priority priority,
+                          CircuitBreaker breaker, boolean timed, CancellationToken token) throws IOException {
+        while (true) {
+            RequestScheduler.Slot slot = mScheduler.acquire(url, priority, token);
+            // the wait for the slot is not the server's latency
+            long start = System.nanoTime();
+            try {
+                T result = attempt.run(url, slot.getToken());
+                breaker.onSuccess();
+                if (timed) {
+                    Metrics.getInstance().histogram(METRIC_LATENCY).recordNanos(System.nanoTime() - start);
+                }
+                return result;
+            } catch (FetchCanceledException e) {
+                breaker.onAbandoned();
+                if (!slot.wasPreempted() || token.isCanceled()) throw e;
+                CoreLog.d(TAG, "Preempted, requeueing: " + url);
+            } catch (IOException e) {
+                FetchException failure = FetchException.from(e);
+                if (failure.isRetryable()) {
+                    breaker.onFailure();
+                } else {
+                    // the server answered, the query or its response was the problem
+                    breaker.onSuccess();
+                }
+                throw failure;
+            } finally {
+                slot.release();
+            }
+        }
+    }
+
+
+    /**
+     * Make the request on this thread, and a second one on the hedge pool if the first has not
+     * finished by the p95 latency. Whichever succeeds first is returned and the other aborted.
+     */
+    private <T> T runHedged(String url, Attempt<T> attempt, RequestScheduler.Priority priority,
+                            CircuitBreaker breaker, CancellationToken token) throws IOException {
+
+        long hedgeDelay = getHedgeDelayMs();
+        if (hedgeDelay < 0 || !breaker.isClosed()) {
+            return runOnce(url, attempt, priority, breaker, true, token);
+        }
+
+        CancellationToken primary = new CancellationToken(token);
+        Hedge<T> hedge = new Hedge<>(url, attempt, priority, breaker, token, primary);
+        ScheduledFuture<?> scheduled = HEDGER.schedule(hedge, hedgeDelay, TimeUnit.MILLISECONDS);
+        try {
+            return runOnce(url, attempt, priority, breaker, true, primary);
+        } catch (IOException e) {
+            // a hedge that went out may still answer, or already did and canceled us
+            if (token.isCanceled() || hedge.skip()) throw e;
+            return hedge.await(token, e);
+        } finally {
+            scheduled.cancel(false);
+            hedge.cancel();
+            primary.detach();
+        }
+    }
+
+
+    /**
+     * @return the p95 latency of hedged requests, or -1 if too few were measured yet
+     */
+    private static long getHedgeDelayMs() {
+        Metrics.Histogram latency = Metrics.getInstance().histogram(METRIC_LATENCY);
+        if (latency.getCount() < MIN_HEDGE_SAMPLES) return -1;
+        return Math.max(MIN_HEDGE_DELAY_MS, latency.getPercentile(0.95) / 1000);
+    }
+
+
+    private CircuitBreaker getBreaker(String url) {
+        String host;
+        try {
+            host = new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            host = "";
+        }
+        synchronized (mBreakers) {
+            CircuitBreaker breaker = mBreakers.get(host);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(FAILURE_THRESHOLD, COOL_DOWN_MS);
+                mBreakers.put(host, breaker);
+            }
+            return breaker;
+        }
+    }
+
+
+    /**
+     * The second request of a hedged fetch, run on the hedge pool
+     */
+    private final class Hedge<T> implements Runnable {
+
+        private final String mUrl;
+        private final Attempt<T> mAttempt;
+        private final RequestScheduler.Priority mPriority;
+        private final CircuitBreaker mBreaker;
+        private final CancellationToken mToken;
+        private final CancellationToken mPrimary;
+
+        /** Guarded by this **/
+        private boolean mStarted;
+        private boolean mDone;
+        private T mResult;
+        private IOException mError;
+
+        Hedge(String url, Attempt<T> attempt, RequestScheduler.Priority priority, CircuitBreaker breaker,
+              CancellationToken parent, CancellationToken primary) {
+            mUrl = url;
+            mAttempt = attempt;
+            mPriority = priority;
+            mBreaker = breaker;
+            mToken = new CancellationToken(parent);
+            mPrimary = primary;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!start()) return;
+                mToken.throwIfCanceled();
+                if (!mBreaker.allowRequest()) {
+                    throw new FetchException(FetchException.Kind.CIRCUIT_OPEN, "Not hedging " + mUrl);
+                }
+                Metrics.getInstance().counter(METRIC_HEDGED).increment();
+                T result = runOnce(mUrl, mAttempt, mPriority, mBreaker, true, mToken);
+                finish(result, null);
+                // we won, the first request is not needed anymore
+                Metrics.getInstance().counter(METRIC_HEDGE_WON).increment();
+                mPrimary.cancel();
+            } catch (IOException e) {
+                finish(null, e);
+            } finally {
+                mToken.detach();
+            }
+        }
+
+        /**
+         * @return false if the hedge was skipped before it could start
+         */
+        private synchronized boolean start() {
+            if (mDone) return false;
+            mStarted = true;
+            return true;
+        }
+
+        /**
+         * Keep the hedge from starting, as the first request failed before it went out. Whether
+         * the scheduled future can still be canceled does not tell, it can be while the hedge
+         * runs.
+         *
+         * @return false if the hedge already started, and its result is to be awaited
+         */
+        synchronized boolean skip() {
+            if (mStarted) return false;
+            mDone = true;
+            return true;
+        }
+
+        private synchronized void finish(T result, IOException error) {
+            mResult = result;
+            mError = error;
+            mDone = true;
+            notifyAll();
+        }
+
+        void cancel() {
+            mToken.cancel();
+        }
+
+        /**
+         * Wait for the hedge after the first request failed. Canceling the parent token
+         * cancels the hedge, so this does not wait long then.
+         *
+         * @throws IOException the failure of the first request if the hedge failed as well
+         */
+        T await(CancellationToken token, IOException primaryError) throws IOException {
+            synchronized (this) {
+                while (!mDone) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw primaryError;
+                    }
+                }
+            }
+            token.throwIfCanceled();
+            if (mError == null) return mResult;
+            throw primaryError instanceof FetchCanceledException ? mError : primaryError;
+        }
+    }
+}
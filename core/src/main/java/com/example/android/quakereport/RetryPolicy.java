@@ -0,0 +1,58 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * When to repeat a failed request and how long to wait before it. The wait doubles with every
+ * attempt up to a cap, and the actual wait is picked at random below it ("full jitter"), so
+ * clients that failed together do not all come back at the same moment.
+ */
+public final class RetryPolicy {
+
+
+    /**
+     * Three attempts, the retries after up to 0.5 and 1 second
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 500, 8000);
+
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+    private final Random mRandom = new Random();
+
+
+    /**
+     * @param maxAttempts attempts in total, 1 for no retries
+     * @param baseDelayMs cap of the wait before the first retry
+     * @param maxDelayMs  cap of any wait
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+
+    /**
+     * @param attempt the attempt that failed, counting from 1
+     * @return true if the failure may go away when the request is made again and attempts
+     * are left
+     */
+    public boolean shouldRetry(IOException e, int attempt) {
+        return attempt < mMaxAttempts && e instanceof FetchException && ((FetchException) e).isRetryable();
+    }
+
+
+    /**
+     * @param attempt the attempt that failed, counting from 1
+     * @return how long to wait before the next attempt, at least as long as the server asked for
+     */
+    public long getDelayMs(IOException e, int attempt) {
+        long cap = Math.min(mMaxDelayMs, mBaseDelayMs << Math.min(attempt - 1, 20));
+        long delay = cap > 0 ? (long) (mRandom.nextDouble() * cap) : 0;
+        long retryAfter = e instanceof FetchException ? ((FetchException) e).getRetryAfterMs() : -1;
+        return Math.max(delay, Math.min(retryAfter, mMaxDelayMs));
+    }
+}
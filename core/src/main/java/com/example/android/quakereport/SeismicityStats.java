@@ -0,0 +1,365 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Running statistics over the earthquakes of a sliding time window: counts per hour (or per
+ * day for long windows), a magnitude histogram and a Gutenberg-Richter b-value, kept up to date
+ * as events are added, updated and removed instead of by scanning every event again.
+ *
+ * The window is a ring of time slots, each with its own count and magnitude histogram, so a
+ * slot leaving the window is taken out of the totals in one step. Adding, updating or removing
+ * an event is constant time, and every query only looks at the slots and the histogram, never
+ * at the events. Events are matched up by USGS event id, so feeding the same event again only
+ * counts it once. Not thread safe, meant to be used from the UI thread.
+ */
+public class SeismicityStats implements EarthquakeSink {
+
+
+    /**
+     * Width of a magnitude bin, USGS reports magnitudes to a tenth
+     */
+    public static final double BIN_WIDTH = 0.1;
+
+
+    /**
+     * Magnitude of the lowest bin, anything below it is counted there and anything above the
+     * highest bin in the highest one
+     */
+    public static final double MIN_MAGNITUDE = -2.0;
+    private static final int BINS = 121; /* -2.0 to 10.0 */
+
+
+    /**
+     * Fewer events above the completeness magnitude than this give no useful b-value
+     */
+    public static final int MIN_EVENTS_FOR_B_VALUE = 50;
+
+
+    /**
+     * Maximum curvature is known to underestimate the completeness magnitude, this is the usual
+     * correction (Woessner & Wiemer, 2005)
+     */
+    private static final double COMPLETENESS_CORRECTION = 0.2;
+
+
+    public static final long HOUR_MS = 60 * 60 * 1000;
+    public static final long DAY_MS = 24 * HOUR_MS;
+
+
+    /**
+     * Bin of events without a magnitude, they are counted but not in the histogram
+     */
+    private static final int NO_BIN = 255;
+
+
+    private final int mSlots;
+    private final long mSlotMs;
+
+    /** Per slot, slot i holds the period mSlotPeriod[i] **/
+    private final long[] mSlotPeriod;
+    private final int[] mSlotCount;
+    private final int[][] mSlotBins;
+
+    /** Totals of the slots in the window **/
+    private int mCount;
+    private final int[] mBins = new int[BINS];
+
+    /**
+     * Newest period of the window, periods are the time divided by the slot length
+     */
+    private long mNewestPeriod = Long.MIN_VALUE;
+
+    /**
+     * Period and bin every event was counted in, by event id, to take it out again. Entries of
+     * periods that left the window are dropped from time to time.
+     */
+    private final HashMap<String, Long> mEvents = new HashMap<>();
+
+
+    /**
+     * @param slots  number of slots in the window
+     * @param slotMs length of a slot, such as {@link #HOUR_MS}
+     */
+    public SeismicityStats(int slots, long slotMs) {
+        mSlots = Math.max(1, slots);
+        mSlotMs = slotMs;
+        mSlotPeriod = new long[mSlots];
+        mSlotCount = new int[mSlots];
+        mSlotBins = new int[mSlots][BINS];
+        Arrays.fill(mSlotPeriod, Long.MIN_VALUE);
+    }
+
+
+    /**
+     * @return the length of the window
+     */
+    public long getWindowMs() {
+        return mSlots * mSlotMs;
+    }
+
+
+    public long getSlotMs() {
+        return mSlotMs;
+    }
+
+
+    @Override
+    public void onEarthquake(Earthquake earthquake) {
+        add(earthquake.getId(), earthquake.getmDate(), earthquake.getmMagnitude());
+    }
+
+
+    /**
+     * Add or update one row of a table
+     */
+    public void add(EarthquakeTable table, int row) {
+        add(table.getId(row), table.getTime(row), table.getMagnitude(row));
+    }
+
+
+    /**
+     * Add or update every row of a table
+     */
+    public void addAll(EarthquakeTable table) {
+        for (int row = 0; row < table.size(); row++) {
+            add(table, row);
+        }
+    }
+
+
+    /**
+     * Add an event, or update it if an event with the same id was added before. Events older
+     * than the window are not counted, a newer one moves the window forward.
+     */
+    public void add(String id, long time, double magnitude) {
+
+        if (id != null) remove(id);
+
+        long period = time / mSlotMs;
+        advanceToPeriod(period);
+        if (period <= mNewestPeriod - mSlots) return;
+
+        int bin = bin(magnitude);
+        int slot = slot(period);
+        mSlotCount[slot]++;
+        mCount++;
+        if (bin != NO_BIN) {
+            mSlotBins[slot][bin]++;
+            mBins[bin]++;
+        }
+
+        if (id != null) {
+            mEvents.put(id, period << 8 | bin);
+            // forget events whose period has left the window once they are the majority
+            if (mEvents.size() > 2 * mCount + 64) purge();
+        }
+    }
+
+
+    /**
+     * Take out the event with the given id, if it is counted
+     */
+    public void remove(String id) {
+
+        Long event = mEvents.remove(id);
+        if (event == null) return;
+
+        long period = event >> 8;
+        int bin = (int) (event & 0xff);
+        int slot = slot(period);
+        if (mSlotPeriod[slot] != period) return; /* already left the window */
+
+        mSlotCount[slot]--;
+        mCount--;
+        if (bin != NO_BIN) {
+            mSlotBins[slot][bin]--;
+            mBins[bin]--;
+        }
+    }
+
+
+    /**
+     * Move the window so it ends at the given time, dropping the slots before it
+     */
+    public void advanceTo(long time) {
+        advanceToPeriod(time / mSlotMs);
+    }
+
+
+    /**
+     * Start over with an empty window
+     */
+    public void clear() {
+        for (int slot = 0; slot < mSlots; slot++) {
+            mSlotPeriod[slot] = Long.MIN_VALUE;
+            mSlotCount[slot] = 0;
+            Arrays.fill(mSlotBins[slot], 0);
+        }
+        mCount = 0;
+        Arrays.fill(mBins, 0);
+        mNewestPeriod = Long.MIN_VALUE;
+        mEvents.clear();
+    }
+
+
+    /**
+     * @return the number of events in the window
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+
+    /**
+     * @return the average number of events per hour over the window
+     */
+    public double getRatePerHour() {
+        return (double) mCount * HOUR_MS / getWindowMs();
+    }
+
+
+    /**
+     * @return the number of events in every slot of the window, oldest first
+     */
+    public int[] getSlotCounts() {
+        int[] counts = new int[mSlots];
+        if (mNewestPeriod == Long.MIN_VALUE) return counts;
+
+        for (int i = 0; i < mSlots; i++) {
+            long period = mNewestPeriod - mSlots + 1 + i;
+            int slot = slot(period);
+            counts[i] = mSlotPeriod[slot] == period ? mSlotCount[slot] : 0;
+        }
+        return counts;
+    }
+
+
+    /**
+     * @return the number of events in every magnitude bin, see {@link #getBinMagnitude(int)}
+     */
+    public int[] getMagnitudeCounts() {
+        return mBins.clone();
+    }
+
+
+    /**
+     * @return the magnitude at the center of a bin
+     */
+    public static double getBinMagnitude(int bin) {
+        return MIN_MAGNITUDE + bin * BIN_WIDTH;
+    }
+
+
+    /**
+     * @return the number of events of at least the given magnitude
+     */
+    public int getCountAtLeast(double magnitude) {
+        int count = 0;
+        for (int bin = Math.max(0, bin(magnitude)); bin < BINS; bin++) {
+            count += mBins[bin];
+        }
+        return count;
+    }
+
+
+    /**
+     * Magnitude of completeness by maximum curvature: the most populated bin, plus the usual
+     * correction. NaN when there are no events with a magnitude.
+     */
+    public double getCompletenessMagnitude() {
+        int mode = -1;
+        for (int bin = 0; bin < BINS; bin++) {
+            if (mBins[bin] > 0 && (mode < 0 || mBins[bin] > mBins[mode])) mode = bin;
+        }
+        if (mode < 0) return Double.NaN;
+        return getBinMagnitude(Math.min(BINS - 1, mode + (int) Math.round(COMPLETENESS_CORRECTION / BIN_WIDTH)));
+    }
+
+
+    /**
+     * Maximum likelihood b-value of the events at or above the completeness magnitude (Aki,
+     * 1965, with Utsu's correction for binned magnitudes). NaN when fewer than
+     * {@link #MIN_EVENTS_FOR_B_VALUE} events are that large.
+     */
+    public double getBValue() {
+
+        double completeness = getCompletenessMagnitude();
+        if (Double.isNaN(completeness)) return Double.NaN;
+
+        int count = 0;
+        double sum = 0;
+        for (int bin = bin(completeness); bin < BINS; bin++) {
+            count += mBins[bin];
+            sum += mBins[bin] * getBinMagnitude(bin);
+        }
+        if (count < MIN_EVENTS_FOR_B_VALUE) return Double.NaN;
+
+        double spread = sum / count - (completeness - BIN_WIDTH / 2);
+        return spread > 0 ? Math.log10(Math.E) / spread : Double.NaN;
+    }
+
+
+    /**
+     * Standard error of {@link #getBValue()} (Aki, 1965)
+     */
+    public double getBValueError() {
+        double b = getBValue();
+        if (Double.isNaN(b)) return Double.NaN;
+        return b / Math.sqrt(getCountAtLeast(getCompletenessMagnitude()));
+    }
+
+
+    /**
+     * Make the given period the newest of the window, emptying the slots of the periods that
+     * left it
+     */
+    private void advanceToPeriod(long period) {
+
+        if (period <= mNewestPeriod) return;
+
+        // periods entering the window get the slots of the periods leaving it, after a long
+        // gap that is every slot
+        long first = mNewestPeriod == Long.MIN_VALUE ? period - mSlots + 1
+                : Math.max(mNewestPeriod + 1, period - mSlots + 1);
+        for (long entering = first; entering <= period; entering++) {
+            int slot = slot(entering);
+            mCount -= mSlotCount[slot];
+            mSlotCount[slot] = 0;
+            int[] bins = mSlotBins[slot];
+            for (int bin = 0; bin < BINS; bin++) {
+                mBins[bin] -= bins[bin];
+                bins[bin] = 0;
+            }
+            mSlotPeriod[slot] = entering;
+        }
+        mNewestPeriod = period;
+    }
+
+
+    /**
+     * Drop the events of periods that left the window
+     */
+    private void purge() {
+        Iterator<Long> events = mEvents.values().iterator();
+        while (events.hasNext()) {
+            long period = events.next() >> 8;
+            if (mSlotPeriod[slot(period)] != period) events.remove();
+        }
+    }
+
+
+    private int slot(long period) {
+        int slot = (int) (period % mSlots);
+        return slot < 0 ? slot + mSlots : slot;
+    }
+
+
+    private static int bin(double magnitude) {
+        if (Double.isNaN(magnitude)) return NO_BIN;
+        int bin = (int) Math.round((magnitude - MIN_MAGNITUDE) / BIN_WIDTH);
+        return Math.max(0, Math.min(BINS - 1, bin));
+    }
+}
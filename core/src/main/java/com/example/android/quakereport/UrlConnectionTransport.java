@@ -0,0 +1,316 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link HttpTransport} over HttpURLConnection with keep-alive connections.
+ *
+ * HttpURLConnection pools connections by itself, but only gets a connection back when the
+ * response body was read to the end and closed, and never when disconnect() is called. So
+ * bodies are drained when they are closed, and exchanges finish by closing the body; only an
+ * aborted exchange disconnects. How many idle connections are kept is set through the
+ * http.maxConnections system property, which the platform reads when it makes its first
+ * connection.
+ *
+ * New connections are counted by wrapping the SSL socket factory, one shared instance so the
+ * platform still pools connections made through it. That only works for https, which is all
+ * USGS serves; for plain http whether a connection was reused is unknown.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+
+    private static final String TAG = UrlConnectionTransport.class.getSimpleName();
+
+
+    /**
+     * Idle connections kept by default, enough for the parallel windows of a time range fetch
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+
+
+    /**
+     * A body with more left than this is not worth reading to save a handshake
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+
+    /**
+     * Disconnects aborted exchanges. Closing a TLS connection writes to the network, which the
+     * UI thread may not do, and its thread is only kept while there is something to abort.
+     */
+    private static final Executor ABORTER = newAborter();
+
+
+    private final CountingSocketFactory mSocketFactory =
+            new CountingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_MAX_IDLE_CONNECTIONS);
+    }
+
+
+    /**
+     * @param maxIdleConnections idle connections to keep for reuse, only applied if no
+     *                           connection was made yet
+     */
+    public UrlConnectionTransport(int maxIdleConnections) {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+    }
+
+
+    @Override
+    public Exchange newExchange(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(mSocketFactory);
+        }
+        return new UrlConnectionExchange(connection);
+    }
+
+
+    private final class UrlConnectionExchange implements Exchange {
+
+        private final HttpURLConnection mConnection;
+        private InputStream mBody;
+        private int mConnectionReuse = CONNECTION_UNKNOWN;
+        private int mResponseCode = -1;
+        private volatile boolean mAborted;
+
+        UrlConnectionExchange(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public void setTimeouts(int connectMillis, int readMillis) {
+            mConnection.setConnectTimeout(connectMillis);
+            mConnection.setReadTimeout(readMillis);
+        }
+
+        @Override
+        public void setUseCaches(boolean useCaches) {
+            mConnection.setUseCaches(useCaches);
+        }
+
+        @Override
+        public void setRequestHeader(String name, String value) {
+            mConnection.setRequestProperty(name, value);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            // the connection is made on this thread, so a socket opened by this thread in the
+            // meantime is ours. Plain http does not go through the factory.
+            int opened = mSocketFactory.getOpenedOnThisThread();
+            mConnection.connect();
+            if (mConnection instanceof HttpsURLConnection) {
+                mConnectionReuse = mSocketFactory.getOpenedOnThisThread() != opened
+                        ? CONNECTION_NEW : CONNECTION_REUSED;
+            }
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            mResponseCode = mConnection.getResponseCode();
+            return mResponseCode;
+        }
+
+        @Override
+        public String getResponseHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            mBody = new DrainingInputStream(mConnection.getInputStream(), this);
+            return mBody;
+        }
+
+        @Override
+        public InputStream getErrorBody() {
+            InputStream errorBody = mConnection.getErrorStream();
+            mBody = errorBody != null ? new DrainingInputStream(errorBody, this) : null;
+            return mBody;
+        }
+
+        @Override
+        public int getConnectionReuse() {
+            return mConnectionReuse;
+        }
+
+        @Override
+        public void close() {
+            if (mAborted) return;
+            if (mBody == null && mResponseCode >= 0) {
+                // a 304 or a response nobody asked the body of still has to be read to its
+                // (possibly empty) end to release the connection
+                try {
+                    mBody = mResponseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mConnection.getInputStream() : mConnection.getErrorStream();
+                } catch (IOException e) {
+                    mBody = mConnection.getErrorStream();
+                }
+                if (mBody != null) mBody = new DrainingInputStream(mBody, this);
+            }
+            if (mBody == null) return;
+            try {
+                mBody.close();
+            } catch (IOException e) {
+                CoreLog.e(TAG, "!!! Could not close the input stream !!!", e);
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (mAborted) return;
+            mAborted = true;
+            // the one case for disconnect(), the connection is of no use anymore
+            ABORTER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mConnection.disconnect();
+                }
+            });
+        }
+    }
+
+
+    private static Executor newAborter() {
+        ThreadPoolExecutor aborter = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "http-abort");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        aborter.allowCoreThreadTimeOut(true);
+        return aborter;
+    }
+
+
+    /**
+     * Reads what is left before closing, usually nothing or a trailing newline the parser
+     * stopped short of, so closing the body early (as the parsers do) does not lose the
+     * connection. The body of an aborted exchange is closed without reading it.
+     */
+    private static final class DrainingInputStream extends FilterInputStream {
+
+        private final UrlConnectionExchange mExchange;
+        private boolean mClosed;
+
+        DrainingInputStream(InputStream in, UrlConnectionExchange exchange) {
+            super(in);
+            mExchange = exchange;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) return;
+            mClosed = true;
+            if (mExchange.mAborted) {
+                in.close();
+                return;
+            }
+            try {
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = in.read(buffer)) != -1) {
+                    drained += read;
+                }
+            } catch (IOException e) {
+                CoreLog.w(TAG, "Could not drain the response body, the connection will not be reused");
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+
+    /**
+     * Counts the sockets it creates, per thread
+     */
+    private static final class CountingSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory mDelegate;
+
+        private final ThreadLocal<int[]> mOpened = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        CountingSocketFactory(SSLSocketFactory delegate) {
+            mDelegate = delegate;
+        }
+
+        int getOpenedOnThisThread() {
+            return mOpened.get()[0];
+        }
+
+        private Socket opened(Socket socket) {
+            mOpened.get()[0]++;
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return mDelegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return mDelegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return opened(mDelegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return opened(mDelegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return opened(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return opened(mDelegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return opened(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return opened(mDelegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
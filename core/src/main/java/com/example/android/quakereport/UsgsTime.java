@@ -0,0 +1,112 @@
+package com.example.android.quakereport;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats times the way the USGS FDSN parameters (starttime, endtime, updatedafter) expect them,
+ * and parses the times of the USGS CSV format.
+ */
+public final class UsgsTime {
+
+
+    /**
+     * This class only holds static methods, so no instances are needed.
+     */
+    private UsgsTime() {
+    }
+
+
+    /**
+     * Format milliseconds since the epoch as an ISO 8601 time in UTC
+     */
+    public static String format(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+
+    /**
+     * Parse an ISO 8601 time in UTC as USGS writes them in CSV, such as 2016-12-24T18:40:55.630Z,
+     * into milliseconds since the epoch. The fraction of a second and the Z are optional.
+     *
+     * @throws IllegalArgumentException if the time is not in that form
+     */
+    public static long parse(CharSequence time) {
+        byte[] bytes = time.toString().getBytes(Charset.forName("US-ASCII"));
+        return parse(bytes, 0, bytes.length);
+    }
+
+
+    /**
+     * Parse a time as {@link #parse(CharSequence)} does, from the ASCII bytes between start and
+     * end. Done by hand because SimpleDateFormat is slow and not thread safe, and catalogs and
+     * CSV responses have a lot of these.
+     *
+     * @throws IllegalArgumentException if the time is not in that form
+     */
+    public static long parse(byte[] time, int start, int end) {
+
+        if (end - start < 19 || time[start + 4] != '-' || time[start + 7] != '-' || time[start + 10] != 'T'
+                || time[start + 13] != ':' || time[start + 16] != ':') {
+            throw notATime(time, start, end);
+        }
+        int year = digits(time, start, 4, end);
+        int month = digits(time, start + 5, 2, end);
+        int day = digits(time, start + 8, 2, end);
+        int hour = digits(time, start + 11, 2, end);
+        int minute = digits(time, start + 14, 2, end);
+        int second = digits(time, start + 17, 2, end);
+
+        // milliseconds, from however many fraction digits there are
+        int millis = 0;
+        int i = start + 19;
+        if (i < end && time[i] == '.') {
+            int scale = 100;
+            for (i++; i < end && time[i] >= '0' && time[i] <= '9'; i++) {
+                millis += (time[i] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        if (i < end && !(time[i] == 'Z' && i == end - 1)) {
+            throw notATime(time, start, end);
+        }
+
+        return ((daysSinceEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+
+    /**
+     * Days from 1970-01-01 to the given date of the proleptic Gregorian calendar (Hinnant's
+     * days_from_civil)
+     */
+    static long daysSinceEpoch(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+
+    private static int digits(byte[] time, int from, int count, int end) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            byte b = time[i];
+            if (b < '0' || b > '9') throw notATime(time, from, end);
+            value = value * 10 + b - '0';
+        }
+        return value;
+    }
+
+
+    private static IllegalArgumentException notATime(byte[] time, int start, int end) {
+        return new IllegalArgumentException("Not a USGS time: "
+                + new String(time, start, end - start, Charset.forName("US-ASCII")));
+    }
+}
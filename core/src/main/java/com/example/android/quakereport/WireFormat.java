@@ -0,0 +1,119 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Formats USGS delivers events in, chosen per query with its format parameter.
+ *
+ * GeoJSON carries every property of an event. CSV carries what a list shows (time, position,
+ * depth, magnitude, place and id) in well under half the bytes, and parses faster, but has no
+ * title or felt reports.
+ */
+public enum WireFormat {
+
+    GEOJSON("geojson"),
+    CSV("csv");
+
+
+    private final String mValue;
+
+
+    WireFormat(String value) {
+        mValue = value;
+    }
+
+
+    /**
+     * @return the value of the format parameter of a query, and the extension of a feed file
+     */
+    public String getValue() {
+        return mValue;
+    }
+
+
+    /**
+     * The format a url asks for: its format parameter for queries, the extension for feeds
+     * such as all_hour.csv. GeoJSON when it does not say.
+     */
+    public static WireFormat ofUrl(String url) {
+        if (url == null) return GEOJSON;
+
+        int query = url.indexOf('?');
+        String path = query < 0 ? url : url.substring(0, query);
+        if (query >= 0) {
+            for (String parameter : url.substring(query + 1).split("&")) {
+                if (parameter.startsWith("format=")) {
+                    return CSV.mValue.equalsIgnoreCase(parameter.substring("format=".length())) ? CSV : GEOJSON;
+                }
+            }
+        }
+        return ofFileName(path);
+    }
+
+
+    /**
+     * The format a file name suggests, .csv for CSV and anything else for GeoJSON, with or
+     * without a .gz suffix
+     */
+    public static WireFormat ofFileName(String fileName) {
+        String name = fileName.toLowerCase(Locale.US);
+        if (name.endsWith(".gz")) name = name.substring(0, name.length() - 3);
+        return name.endsWith(".csv") ? CSV : GEOJSON;
+    }
+
+
+    /**
+     * The url with its format parameter set to this format, added if it has none
+     */
+    public String applyTo(String url) {
+        int query = url.indexOf('?');
+        if (query < 0) return url + "?format=" + mValue;
+
+        StringBuilder result = new StringBuilder(url.length() + 16).append(url, 0, query + 1);
+        boolean found = false;
+        String separator = "";
+        for (String parameter : url.substring(query + 1).split("&")) {
+            result.append(separator);
+            if (parameter.startsWith("format=")) {
+                result.append("format=").append(mValue);
+                found = true;
+            } else {
+                result.append(parameter);
+            }
+            separator = "&";
+        }
+        if (!found) result.append(separator).append("format=").append(mValue);
+        return result.toString();
+    }
+
+
+    /**
+     * Parse a response in this format, passing every event to the sink
+     *
+     * @return the number of events passed to the sink
+     * @throws IllegalStateException if the response does not have the expected structure
+     */
+    public int parse(InputStream inputStream, EarthquakeSink sink) throws IOException {
+        return parse(inputStream, sink, CancellationToken.NONE);
+    }
+
+
+    /**
+     * Parse a response in this format, stopping before the next event once the token is
+     * canceled
+     *
+     * @throws FetchCanceledException if the token was canceled
+     */
+    public int parse(InputStream inputStream, EarthquakeSink sink, CancellationToken token) throws IOException {
+        // a table copies every row, so the parser does not need a new object per event
+        if (sink instanceof EarthquakeTable) {
+            EarthquakeTable table = (EarthquakeTable) sink;
+            return this == CSV ? EarthquakeCsvParser.parse(inputStream, table, token)
+                    : EarthquakeJsonParser.parse(inputStream, table, token);
+        }
+        return this == CSV ? EarthquakeCsvParser.parse(inputStream, sink, token)
+                : EarthquakeJsonParser.parse(inputStream, sink, token);
+    }
+}
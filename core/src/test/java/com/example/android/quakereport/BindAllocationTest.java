@@ -0,0 +1,144 @@
+package com.example.android.quakereport;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Binding a list row reads a formatted {@link EarthquakeTable} through one reused
+ * {@link EarthquakeTable.Row}, the way EarthquakeEventAdapter.getView does. Once every row has
+ * been bound, binding them again must not allocate at all.
+ */
+public class BindAllocationTest {
+
+
+    private static final int ROWS = 200;
+    private static final int BINDS = 100000;
+
+
+    // what a bind hands to the views, kept so the reads are not optimized away
+    private long mSink;
+
+
+    @Test
+    public void bindingATableDoesNotAllocate() {
+        EarthquakeTable table = TestEarthquakes.table(0, ROWS);
+        EarthquakeFormatter.format(table);
+        assertEquals(0, bytesPerBind(table));
+    }
+
+
+    @Test
+    public void bindingAParsedTableDoesNotAllocate() throws IOException {
+        EarthquakeTable table = parsedTable();
+        EarthquakeFormatter.format(table);
+
+        assertEquals(ROWS, table.size());
+        assertEquals(0, bytesPerBind(table));
+    }
+
+
+    @Test
+    public void theFormatterDecodesTheFirstRowsAhead() throws IOException {
+
+        // compiled on another table, so the first pass below only has decoding left to do
+        EarthquakeTable warmUp = parsedTable();
+        EarthquakeFormatter.format(warmUp);
+        bytesPerBind(warmUp);
+
+        EarthquakeTable table = parsedTable();
+        EarthquakeFormatter.format(table);
+        assertEquals(0, bytesPerFirstBind(table));
+    }
+
+
+    /**
+     * A table parsed from CSV, its titles and places still bytes
+     */
+    private static EarthquakeTable parsedTable() throws IOException {
+        StringBuilder csv = new StringBuilder("time,latitude,longitude,depth,mag,magType,id,updated,place\n");
+        for (int n = 0; n < ROWS; n++) {
+            Earthquake earthquake = TestEarthquakes.earthquake(n);
+            csv.append(UsgsTime.format(earthquake.getmDate())).append("Z,")
+                    .append(earthquake.getmLatitude()).append(',')
+                    .append(earthquake.getmLongitude()).append(',')
+                    .append(earthquake.getDepth()).append(',')
+                    .append(earthquake.getmMagnitude()).append(",ml,")
+                    .append(earthquake.getId()).append(',')
+                    .append(UsgsTime.format(earthquake.getUpdated())).append("Z,\"")
+                    .append(earthquake.getmPlace()).append("\"\n");
+        }
+        EarthquakeTable table = new EarthquakeTable();
+        EarthquakeCsvParser.parse(new ByteArrayInputStream(csv.toString().getBytes(Charset.forName("UTF-8"))), table);
+        return table;
+    }
+
+
+    /**
+     * Bind every row until the places are decoded and the code is compiled, then count what
+     * binding them again allocates
+     *
+     * @return bytes allocated per bind, rounded down
+     */
+    private long bytesPerBind(EarthquakeTable table) {
+        EarthquakeTable.Row row = table.row(0);
+        bind(table, row, BINDS);
+        return bytesPerBind(table, row, BINDS);
+    }
+
+
+    /**
+     * Count what binding every row once allocates, without binding them first
+     *
+     * @return bytes allocated per bind, rounded down
+     */
+    private long bytesPerFirstBind(EarthquakeTable table) {
+        return bytesPerBind(table, table.row(0), table.size());
+    }
+
+
+    /**
+     * Count what binding rows allocates, from the row the cursor is on
+     */
+    private long bytesPerBind(EarthquakeTable table, EarthquakeTable.Row row, int binds) {
+
+        com.sun.management.ThreadMXBean threads = null;
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        }
+        Assume.assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        // what asking for the count costs by itself
+        long before = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+        before = threads.getThreadAllocatedBytes(thread);
+        bind(table, row, binds);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+        return Math.max(0, allocated) / binds;
+    }
+
+
+    private void bind(EarthquakeTable table, EarthquakeTable.Row row, int binds) {
+        long sink = 0;
+        for (int bind = 0; bind < binds; bind++) {
+            EarthquakeTable.Row event = row.moveTo(bind % table.size());
+            sink += event.getDisplayMagnitude().length();
+            String proximity = event.getProximity();
+            sink += proximity == null ? 0 : proximity.length();
+            String region = event.getRegion();
+            sink += region == null ? 0 : region.length();
+            sink += event.getDisplayDate().length();
+            sink += (int) Math.floor(event.getMagnitude());
+        }
+        mSink += sink;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ByteNumbersTest {
+
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+
+    @Test
+    public void parseDouble_matchesDoubleParseDouble() {
+        Random random = new Random(42);
+        for (int n = 0; n < 200000; n++) {
+            String text = randomDecimal(random);
+            assertEquals(text, Double.parseDouble(text), parse(text), 0);
+        }
+    }
+
+
+    @Test
+    public void parseDouble_roundsLongMantissasCorrectly() {
+        // 17 digits, more than a double holds exactly
+        assertEquals(Double.parseDouble("9007199254740993"), parse("9007199254740993"), 0);
+        assertEquals(Double.parseDouble("1.2345678901234567"), parse("1.2345678901234567"), 0);
+        assertEquals(Double.parseDouble("-98765432109876.543"), parse("-98765432109876.543"), 0);
+    }
+
+
+    @Test
+    public void parseDouble_readsSignsExponentsAndFallsBack() {
+        assertEquals(-117.5985, parse("-117.5985"), 0);
+        assertEquals(2.5, parse("+2.5"), 0);
+        assertEquals(1.5e-3, parse("1.5e-3"), 0);
+        assertEquals(-1, parse(""), 0);
+        assertEquals(-1, parse("-"), 0);
+        assertEquals(-1, parse("abc"), 0);
+    }
+
+
+    @Test
+    public void parseLong_readsWholeNumbers() {
+        byte[] bytes = "1526323283920".getBytes(US_ASCII);
+        assertEquals(1526323283920L, ByteNumbers.parseLong(bytes, 0, bytes.length, -1));
+        bytes = "-42".getBytes(US_ASCII);
+        assertEquals(-42L, ByteNumbers.parseLong(bytes, 0, bytes.length, -1));
+        bytes = "".getBytes(US_ASCII);
+        assertEquals(-1L, ByteNumbers.parseLong(bytes, 0, bytes.length, -1));
+    }
+
+
+    private static double parse(String text) {
+        byte[] bytes = text.getBytes(US_ASCII);
+        return ByteNumbers.parseDouble(bytes, 0, bytes.length, -1);
+    }
+
+
+    /**
+     * Up to 19 digits with the point anywhere, so both the fast and the slow path are taken
+     */
+    private static String randomDecimal(Random random) {
+        int digits = 1 + random.nextInt(19);
+        int point = random.nextInt(digits + 1);
+        StringBuilder text = new StringBuilder();
+        if (random.nextBoolean()) text.append('-');
+        for (int i = 0; i < digits; i++) {
+            if (i == point && i > 0) text.append('.');
+            text.append((char) ('0' + random.nextInt(10)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Hands out its bytes a few at a time, as a slow network does, so a parser has to refill its
+ * buffer in the middle of every token
+ */
+final class ChunkedInputStream extends ByteArrayInputStream {
+
+
+    private final int mChunk;
+
+
+    ChunkedInputStream(byte[] bytes, int chunk) {
+        super(bytes);
+        mChunk = chunk;
+    }
+
+
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int length) {
+        return super.read(buffer, offset, Math.min(length, mChunk));
+    }
+}
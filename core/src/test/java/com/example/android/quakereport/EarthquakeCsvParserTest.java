@@ -0,0 +1,174 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The CSV parser against events written out by hand, numbers checked against
+ * Double.parseDouble. Every fixture is also read a few bytes at a time, so records, quoted
+ * fields, doubled quotes and line breaks all end up split across refills of the buffer.
+ */
+public class EarthquakeCsvParserTest {
+
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int[] CHUNKS = {1, 2, 3, 7, 64, Integer.MAX_VALUE};
+
+
+    private static final String HEADER = "time,latitude,longitude,depth,mag,magType,id,updated,place,type";
+
+
+    @Test
+    public void readsPlainRows() throws IOException {
+        String csv = HEADER + "\n"
+                + row("2017-04-26T00:00:00.000Z", "38.8215", "-122.8085", "1.6", "2.3", "nc72800001",
+                "2017-04-26T00:10:00.000Z", "12km N of The Geysers") + "\n"
+                + row("2017-04-25T23:00:00.5Z", "-17.9", "-178.5", "550.25", "4.5e0", "us20001",
+                "2017-04-25T23:30:00Z", "South of the Fiji Islands") + "\n";
+
+        EarthquakeTable expected = new EarthquakeTable();
+        expected.add(earthquake("2017-04-26T00:00:00.000Z", "38.8215", "-122.8085", "1.6", "2.3", "nc72800001",
+                "2017-04-26T00:10:00.000Z", "12km N of The Geysers"));
+        expected.add(earthquake("2017-04-25T23:00:00.5Z", "-17.9", "-178.5", "550.25", "4.5e0", "us20001",
+                "2017-04-25T23:30:00Z", "South of the Fiji Islands"));
+
+        assertParses(expected, csv);
+    }
+
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        String csv = HEADER + "\n"
+                // doubled quotes, and a comma and a line break inside the quotes
+                + row("2017-04-26T00:00:00.000Z", "38.8", "-122.8", "1.6", "2.3", "nc1",
+                "2017-04-26T00:10:00.000Z", "\"12km N of \"\"The Geysers\"\", CA\"") + "\n"
+                + row("2017-04-25T23:00:00.000Z", "33.5", "-116.5", "10", "1.1", "ci2",
+                "2017-04-25T23:10:00.000Z", "\"5km E of Anza,\nCA\"") + "\n"
+                + row("2017-04-25T22:00:00.000Z", "33.5", "-116.5", "10", "1.1", "ci3",
+                "2017-04-25T22:10:00.000Z", "\"\"\"\"") + "\n";
+
+        EarthquakeTable expected = new EarthquakeTable();
+        expected.add(earthquake("2017-04-26T00:00:00.000Z", "38.8", "-122.8", "1.6", "2.3", "nc1",
+                "2017-04-26T00:10:00.000Z", "12km N of \"The Geysers\", CA"));
+        expected.add(earthquake("2017-04-25T23:00:00.000Z", "33.5", "-116.5", "10", "1.1", "ci2",
+                "2017-04-25T23:10:00.000Z", "5km E of Anza,\nCA"));
+        expected.add(earthquake("2017-04-25T22:00:00.000Z", "33.5", "-116.5", "10", "1.1", "ci3",
+                "2017-04-25T22:10:00.000Z", "\""));
+
+        assertParses(expected, csv);
+    }
+
+
+    @Test
+    public void readsCrlfAndALastLineWithoutALineBreak() throws IOException {
+        String csv = HEADER + "\r\n"
+                + row("2017-04-26T00:00:00.000Z", "38.8", "-122.8", "1.6", "2.3", "nc1",
+                "2017-04-26T00:10:00.000Z", "\"Quoted, CA\"") + "\r\n"
+                + "\r\n"
+                + row("2017-04-25T23:00:00.000Z", "33.5", "-116.5", "10", "1.1", "ci2",
+                "2017-04-25T23:10:00.000Z", "Unquoted") + "\r\n"
+                + row("2017-04-25T22:00:00.000Z", "-15.3", "-173.1", "35", "5.2", "us3",
+                "2017-04-25T22:10:00.000Z", "Tonga");
+
+        EarthquakeTable expected = new EarthquakeTable();
+        expected.add(earthquake("2017-04-26T00:00:00.000Z", "38.8", "-122.8", "1.6", "2.3", "nc1",
+                "2017-04-26T00:10:00.000Z", "Quoted, CA"));
+        expected.add(earthquake("2017-04-25T23:00:00.000Z", "33.5", "-116.5", "10", "1.1", "ci2",
+                "2017-04-25T23:10:00.000Z", "Unquoted"));
+        expected.add(earthquake("2017-04-25T22:00:00.000Z", "-15.3", "-173.1", "35", "5.2", "us3",
+                "2017-04-25T22:10:00.000Z", "Tonga"));
+
+        assertParses(expected, csv);
+    }
+
+
+    @Test
+    public void leavesEmptyFieldsUnknown() throws IOException {
+        String csv = "time,latitude,longitude,depth,mag,id,updated,place\n"
+                + "2017-04-26T00:00:00.000Z,,,,,,,\n"
+                + "2017-04-25T23:00:00.000Z,1,2,3,4,us1,2017-04-25T23:10:00.000Z,";
+
+        EarthquakeTable table = parseTable(csv.getBytes(UTF_8), Integer.MAX_VALUE);
+
+        assertEquals(2, table.size());
+        assertTrue(Double.isNaN(table.getMagnitude(0)));
+        assertTrue(Double.isNaN(table.getDepth(0)));
+        assertEquals(null, table.getId(0));
+        assertEquals(0, table.getUpdated(0));
+        assertEquals("", table.getPlace(0));
+        assertEquals("", table.getPlace(1));
+        assertEquals(4, table.getMagnitude(1), 0);
+    }
+
+
+    @Test
+    public void growsTheBufferForARecordLongerThanIt() throws IOException {
+        String place = "A place name far longer than the buffer, \"\" with quotes and, commas";
+        String csv = "id,place\nus1,\"" + place + "\"\nus2,short\n";
+
+        CsvTokenizer tokenizer = new CsvTokenizer(new ChunkedInputStream(csv.getBytes(UTF_8), 5), 8);
+        assertTrue(tokenizer.nextRecord());
+        assertTrue(tokenizer.fieldEquals(1, "place"));
+        assertTrue(tokenizer.nextRecord());
+        assertEquals("us1", tokenizer.getString(0, null));
+        assertEquals(place.replace("\"\"", "\""), tokenizer.getString(1, null));
+        assertTrue(tokenizer.nextRecord());
+        assertEquals("short", tokenizer.getString(1, null));
+        assertFalse(tokenizer.nextRecord());
+    }
+
+
+    /**
+     * Parse the CSV in every chunk size, into a table and into a sink, and compare with the
+     * expected rows
+     */
+    private static void assertParses(EarthquakeTable expected, String csv) throws IOException {
+        byte[] bytes = csv.getBytes(UTF_8);
+        for (int chunk : CHUNKS) {
+            TestEarthquakes.assertSameRows(expected, parseTable(bytes, chunk));
+
+            EarthquakeTable viaSink = new EarthquakeTable();
+            EarthquakeCsvParser.parse(new ChunkedInputStream(bytes, chunk), (EarthquakeSink) viaSink);
+            TestEarthquakes.assertSameRows(expected, viaSink);
+        }
+    }
+
+
+    private static EarthquakeTable parseTable(byte[] bytes, int chunk) throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        EarthquakeCsvParser.parse(new ChunkedInputStream(bytes, chunk), table);
+        return table;
+    }
+
+
+    private static String row(String time, String latitude, String longitude, String depth, String magnitude,
+                              String id, String updated, String place) {
+        return time + "," + latitude + "," + longitude + "," + depth + "," + magnitude + ",ml," + id + ","
+                + updated + "," + place + ",earthquake";
+    }
+
+
+    /**
+     * The event a row holds, its numbers read with Double.parseDouble
+     */
+    private static Earthquake earthquake(String time, String latitude, String longitude, String depth,
+                                         String magnitude, String id, String updated, String place) {
+        Earthquake earthquake = new Earthquake();
+        earthquake.setmDate(UsgsTime.parse(time));
+        earthquake.setmLatitude(Double.parseDouble(latitude));
+        earthquake.setmLongitude(Double.parseDouble(longitude));
+        earthquake.setDepth(Double.parseDouble(depth));
+        earthquake.setmMagnitude(Double.parseDouble(magnitude));
+        earthquake.setId(id);
+        earthquake.setUpdated(UsgsTime.parse(updated));
+        earthquake.setmPlace(place);
+        return earthquake;
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class EarthquakeResultCacheTest {
+
+
+    private static final String URL = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=csv&minmag=6";
+
+
+    @Test
+    public void get_servesACachedResultWithoutFetchingAgain() throws IOException {
+        EarthquakeResultCache cache = new EarthquakeResultCache(60000, 4);
+        CountingFetcher fetcher = new CountingFetcher(null);
+
+        EarthquakeTable first = cache.get(URL, fetcher);
+        EarthquakeTable second = cache.get(URL.replace("format=csv&minmag=6", "minmag=6&format=csv"), fetcher);
+
+        assertEquals(1, fetcher.mCalls.get());
+        assertEquals(1, second.size());
+        assertNotSame(first, second);
+    }
+
+
+    @Test
+    public void get_coalescesCallersWhileAFetchIsInFlight() throws Exception {
+        final EarthquakeResultCache cache = new EarthquakeResultCache(60000, 4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingFetcher fetcher = new CountingFetcher(release);
+
+        Thread[] callers = new Thread[4];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new Thread(new Getter(cache, fetcher));
+            callers[i].start();
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        assertEquals(1, fetcher.mCalls.get());
+    }
+
+
+    /**
+     * A caller arriving just as the fetch completes must find its result, not start another
+     */
+    @Test
+    public void get_neverFetchesTwiceAroundTheEndOfAFetch() throws Exception {
+        for (int round = 0; round < 500; round++) {
+            final EarthquakeResultCache cache = new EarthquakeResultCache(60000, 4);
+            final CountingFetcher fetcher = new CountingFetcher(null);
+            final CountDownLatch started = new CountDownLatch(1);
+
+            Thread follower = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        started.await();
+                        while (fetcher.mCalls.get() == 0) {
+                            Thread.yield();
+                        }
+                        cache.get(URL, fetcher);
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            follower.start();
+            started.countDown();
+            cache.get(URL, fetcher);
+            follower.join();
+
+            assertEquals("round " + round, 1, fetcher.mCalls.get());
+        }
+    }
+
+
+    @Test
+    public void get_doesNotWaitBehindAFetchOfLowerPriority() throws Exception {
+        final EarthquakeResultCache cache = new EarthquakeResultCache(60000, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        final CountingFetcher background = new CountingFetcher(release);
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.get(URL, RequestScheduler.Priority.BACKGROUND, background, CancellationToken.NONE);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        leader.start();
+        while (background.mCalls.get() == 0) {
+            Thread.sleep(1);
+        }
+
+        // the background fetch is stuck, a visible caller fetches on its own
+        CountingFetcher visible = new CountingFetcher(null);
+        EarthquakeTable table = cache.get(URL, RequestScheduler.Priority.VISIBLE, visible, CancellationToken.NONE);
+        assertEquals(1, table.size());
+        assertEquals(1, visible.mCalls.get());
+        assertEquals(1, background.mCalls.get());
+
+        release.countDown();
+        leader.join();
+    }
+
+
+    @Test
+    public void get_joinsAFetchOfHigherPriority() throws Exception {
+        final EarthquakeResultCache cache = new EarthquakeResultCache(60000, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        final CountingFetcher fetcher = new CountingFetcher(release);
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.get(URL, RequestScheduler.Priority.VISIBLE, fetcher, CancellationToken.NONE);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        leader.start();
+        while (fetcher.mCalls.get() == 0) {
+            Thread.sleep(1);
+        }
+        Thread follower = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.get(URL, RequestScheduler.Priority.BACKGROUND, fetcher, CancellationToken.NONE);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        follower.start();
+        Thread.sleep(50);
+        release.countDown();
+        leader.join();
+        follower.join();
+
+        assertEquals(1, fetcher.mCalls.get());
+    }
+
+
+    private static final class CountingFetcher implements EarthquakeResultCache.Fetcher {
+
+        final AtomicInteger mCalls = new AtomicInteger();
+        private final CountDownLatch mRelease;
+
+        CountingFetcher(CountDownLatch release) {
+            mRelease = release;
+        }
+
+        @Override
+        public EarthquakeTable fetch(String url, CancellationToken token) throws IOException {
+            mCalls.incrementAndGet();
+            if (mRelease != null) {
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            EarthquakeTable table = new EarthquakeTable();
+            Earthquake earthquake = new Earthquake();
+            earthquake.setId("us1000abcd");
+            earthquake.setmMagnitude(6.1);
+            table.add(earthquake);
+            return table;
+        }
+    }
+
+
+    private static final class Getter implements Runnable {
+
+        private final EarthquakeResultCache mCache;
+        private final EarthquakeResultCache.Fetcher mFetcher;
+
+        Getter(EarthquakeResultCache cache, EarthquakeResultCache.Fetcher fetcher) {
+            mCache = cache;
+            mFetcher = fetcher;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mCache.get(URL, mFetcher);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.quakereport;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeSnapshotTest {
+
+
+    private static final String QUERY = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=csv&limit=20";
+
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+
+    @Test
+    public void write_readsBackTheSameRows() throws Exception {
+        File file = EarthquakeSnapshot.getFile(mFolder.getRoot());
+        EarthquakeTable table = TestEarthquakes.table(0, 50);
+        table.setDisplay(3, "4.5", "Apr 26, 2017");
+
+        assertTrue(EarthquakeSnapshot.write(file, QUERY, table));
+        EarthquakeTable read = EarthquakeSnapshot.read(file, QUERY);
+
+        assertNotNull(read);
+        assertEquals(50, read.size());
+        for (int row = 0; row < 50; row++) {
+            assertEquals(table.getId(row), read.getId(row));
+            assertEquals(table.getMagnitude(row), read.getMagnitude(row), 0);
+            assertEquals(table.getTime(row), read.getTime(row));
+            assertEquals(table.getFelt(row), read.getFelt(row));
+            assertEquals(table.getTitle(row), read.getTitle(row));
+        }
+        assertEquals("4.5", read.getDisplayMagnitude(3));
+        assertNull(EarthquakeSnapshot.read(file, QUERY + "&minmag=6"));
+    }
+
+
+    /**
+     * The loader and the prefetch job may write at the same time, the snapshot left behind has
+     * to be one of them whole
+     */
+    @Test
+    public void write_concurrentWritersLeaveOneWholeSnapshot() throws Exception {
+        final File file = EarthquakeSnapshot.getFile(mFolder.getRoot());
+        final AtomicInteger failed = new AtomicInteger();
+        for (int round = 0; round < 50; round++) {
+            List<Thread> writers = new ArrayList<>();
+            for (int w = 0; w < 8; w++) {
+                final EarthquakeTable table = TestEarthquakes.table(w * 1000, 200 + w * 100);
+                writers.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 20; i++) {
+                            if (!EarthquakeSnapshot.write(file, QUERY, table)) failed.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Thread writer : writers) writer.start();
+            for (Thread writer : writers) writer.join();
+
+            assertEquals(0, failed.get());
+            EarthquakeTable read = EarthquakeSnapshot.read(file, QUERY);
+            assertNotNull(read);
+            int writer = (read.size() - 200) / 100;
+            assertEquals(200 + writer * 100, read.size());
+            assertEquals(TestEarthquakes.table(writer * 1000, 1).getId(0), read.getId(0));
+            assertEquals(1, mFolder.getRoot().list().length);
+        }
+    }
+}
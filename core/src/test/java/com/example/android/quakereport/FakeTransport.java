@@ -0,0 +1,237 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link HttpTransport} answering from a {@link Server} in the test instead of the network.
+ * It counts the requests in flight per host, and a request can block until the test lets it
+ * go or the exchange is aborted.
+ */
+final class FakeTransport implements HttpTransport {
+
+
+    /**
+     * Answers one request, called on the requesting thread while it waits for the headers
+     */
+    interface Server {
+        Response serve(FakeExchange exchange) throws IOException;
+    }
+
+
+    static final class Response {
+
+        final int mCode;
+        final byte[] mBody;
+
+        Response(int code, String body) {
+            mCode = code;
+            mBody = body.getBytes(Charset.forName("UTF-8"));
+        }
+    }
+
+
+    /**
+     * A format=csv response holding the given earthquakes
+     */
+    static Response csv(EarthquakeTable earthquakes) {
+        StringBuilder csv = new StringBuilder("time,latitude,longitude,depth,mag,id,updated,place\n");
+        for (int row = 0; row < earthquakes.size(); row++) {
+            csv.append(UsgsTime.format(earthquakes.getTime(row))).append("Z,")
+                    .append(earthquakes.getLatitude(row)).append(',')
+                    .append(earthquakes.getLongitude(row)).append(',')
+                    .append(earthquakes.getDepth(row)).append(',')
+                    .append(earthquakes.getMagnitude(row)).append(',')
+                    .append(earthquakes.getId(row)).append(',')
+                    .append(UsgsTime.format(earthquakes.getUpdated(row))).append("Z,\"")
+                    .append(earthquakes.getPlace(row)).append("\"\n");
+        }
+        return new Response(200, csv.toString());
+    }
+
+
+    private final Server mServer;
+
+    /** Guarded by this **/
+    private final ArrayList<FakeExchange> mExchanges = new ArrayList<>();
+    private final HashMap<String, int[]> mInFlight = new HashMap<>();
+    private final HashMap<String, int[]> mMaxInFlight = new HashMap<>();
+
+
+    FakeTransport(Server server) {
+        mServer = server;
+    }
+
+
+    @Override
+    public Exchange newExchange(URL url) {
+        FakeExchange exchange = new FakeExchange(url);
+        synchronized (this) {
+            mExchanges.add(exchange);
+        }
+        return exchange;
+    }
+
+
+    /**
+     * @return every exchange so far, in the order they were started
+     */
+    synchronized ArrayList<FakeExchange> getExchanges() {
+        return new ArrayList<>(mExchanges);
+    }
+
+
+    synchronized int getInFlight(String host) {
+        int[] count = mInFlight.get(host);
+        return count == null ? 0 : count[0];
+    }
+
+
+    synchronized int getMaxInFlight(String host) {
+        int[] count = mMaxInFlight.get(host);
+        return count == null ? 0 : count[0];
+    }
+
+
+    /**
+     * Wait until the given number of requests to the host are being served
+     */
+    void awaitInFlight(String host, int requests) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        synchronized (this) {
+            while (getInFlight(host) < requests) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) throw new AssertionError(requests + " requests to " + host + " never started");
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        }
+    }
+
+
+    private synchronized void started(String host) {
+        int[] count = counter(mInFlight, host);
+        count[0]++;
+        int[] max = counter(mMaxInFlight, host);
+        max[0] = Math.max(max[0], count[0]);
+        notifyAll();
+    }
+
+
+    private synchronized void finished(String host) {
+        counter(mInFlight, host)[0]--;
+        notifyAll();
+    }
+
+
+    private static int[] counter(HashMap<String, int[]> counters, String host) {
+        int[] count = counters.get(host);
+        if (count == null) {
+            count = new int[1];
+            counters.put(host, count);
+        }
+        return count;
+    }
+
+
+    final class FakeExchange implements Exchange {
+
+        private final URL mUrl;
+        private final CountDownLatch mAborted = new CountDownLatch(1);
+        private Response mResponse;
+
+        FakeExchange(URL url) {
+            mUrl = url;
+        }
+
+        URL getUrl() {
+            return mUrl;
+        }
+
+        boolean isAborted() {
+            return mAborted.getCount() == 0;
+        }
+
+        /**
+         * Hold the request until the latch is released
+         *
+         * @throws IOException if the exchange is aborted first, as a read of a closed
+         *                     connection would
+         */
+        void block(CountDownLatch release) throws IOException {
+            try {
+                while (!release.await(5, TimeUnit.MILLISECONDS)) {
+                    if (isAborted()) throw new IOException("Connection aborted");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void setTimeouts(int connectMillis, int readMillis) {
+        }
+
+        @Override
+        public void setUseCaches(boolean useCaches) {
+        }
+
+        @Override
+        public void setRequestHeader(String name, String value) {
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (isAborted()) throw new IOException("Connection aborted");
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            if (mResponse == null) {
+                started(mUrl.getHost());
+                try {
+                    mResponse = mServer.serve(this);
+                } finally {
+                    finished(mUrl.getHost());
+                }
+            }
+            return mResponse.mCode;
+        }
+
+        @Override
+        public String getResponseHeader(String name) {
+            return null;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(mResponse.mBody);
+        }
+
+        @Override
+        public InputStream getErrorBody() {
+            return new ByteArrayInputStream(mResponse.mBody);
+        }
+
+        @Override
+        public int getConnectionReuse() {
+            return CONNECTION_UNKNOWN;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void abort() {
+            mAborted.countDown();
+        }
+    }
+}
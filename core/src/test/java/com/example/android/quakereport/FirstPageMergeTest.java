@@ -0,0 +1,66 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FirstPageMergeTest {
+
+
+    private static final String ORDER_BY = "time";
+
+
+    @Test
+    public void keepsTheEventsPushedOffTheFirstPage() {
+
+        // page 0 is events 100 to 119, page 1 events 120 to 139
+        EarthquakeTable shown = TestEarthquakes.table(100, 40);
+
+        // three new events arrive at the top and push 117 to 119 off the first page
+        FirstPageMerge merge = FirstPageMerge.merge(shown, 20, TestEarthquakes.table(97, 20), true, ORDER_BY);
+
+        assertIds(merge.merged, 97, 43);
+        // the pages after page 1 start after the 23 events now ahead of it
+        assertEquals(23, merge.firstPageRows);
+    }
+
+
+    @Test
+    public void dropsEventsRemovedFromTheFirstPage() {
+
+        EarthquakeTable shown = TestEarthquakes.table(100, 40);
+
+        // event 105 is gone, 120 moves up into the first page
+        EarthquakeTable firstPage = new EarthquakeTable();
+        firstPage.addAll(TestEarthquakes.table(100, 5));
+        firstPage.addAll(TestEarthquakes.table(106, 15));
+        FirstPageMerge merge = FirstPageMerge.merge(shown, 20, firstPage, true, ORDER_BY);
+
+        assertEquals(39, merge.merged.size());
+        assertEquals(20, merge.firstPageRows);
+        for (int row = 0; row < merge.merged.size(); row++) {
+            int n = 100 + (row < 5 ? row : row + 1);
+            assertEquals(TestEarthquakes.earthquake(n).getId(), merge.merged.getId(row));
+        }
+    }
+
+
+    @Test
+    public void keepsNothingAfterAFirstPageThatIsNotFull() {
+
+        // everything the query has fits in the first page, the rest is gone
+        EarthquakeTable shown = TestEarthquakes.table(100, 20);
+        FirstPageMerge merge = FirstPageMerge.merge(shown, 20, TestEarthquakes.table(98, 12), false, ORDER_BY);
+
+        assertIds(merge.merged, 98, 12);
+        assertEquals(12, merge.firstPageRows);
+    }
+
+
+    private static void assertIds(EarthquakeTable table, int first, int rows) {
+        assertEquals(rows, table.size());
+        for (int row = 0; row < rows; row++) {
+            assertEquals(TestEarthquakes.earthquake(first + row).getId(), table.getId(row));
+        }
+    }
+}
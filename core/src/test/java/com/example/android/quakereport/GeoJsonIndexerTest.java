@@ -0,0 +1,147 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The GeoJSON indexer against the Gson parser, which reads numbers with Double.parseDouble.
+ * Every fixture is also read a few bytes at a time, so tokens, escapes and multi-byte
+ * characters end up split across refills of the buffer.
+ */
+public class GeoJsonIndexerTest {
+
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int[] CHUNKS = {1, 2, 3, 7, 4096, Integer.MAX_VALUE};
+
+
+    @Test
+    public void readsFeatures() throws IOException {
+        String json = collection(
+                feature("nc72800001", "2.3", "M 2.3 - 12km N of The Geysers, CA", "12km N of The Geysers, CA",
+                        "[-122.8085,38.8215,1.6]"),
+                feature("us20001", "4.5e0", "M 4.5 - South of the Fiji Islands", "South of the Fiji Islands",
+                        "[-178.5E+0,-17.9,550.25]"),
+                // numbers with as many digits as USGS ever sends, and more
+                feature("ak1", "1.23456789012345678", "M 1.2 - Alaska", "Alaska",
+                        "[-150.12345678901234,61.000000000000001,-0.0]"));
+
+        EarthquakeTable table = assertParsesLikeGson(json);
+        assertEquals(3, table.size());
+        assertEquals(Double.parseDouble("1.23456789012345678"), table.getMagnitude(2), 0);
+        assertEquals(Double.parseDouble("61.000000000000001"), table.getLatitude(2), 0);
+    }
+
+
+    @Test
+    public void decodesStringEscapes() throws IOException {
+        String json = collection(
+                feature("us1", "5.0", "M 5.0 - \\\"Quoted\\\" \\\\ slash \\/ caf\\u00e9\\ntab\\t",
+                        "Caf\\u00e9 \\ud83c\\udf0b, Tonga", "[-173.1,-15.3,35]"),
+                // raw UTF-8 next to escapes
+                feature("us2", "4.0", "M 4.0 - Zoë \\u00e9", "Señora, Chile", "[-70.1,-20.2,10]"));
+
+        EarthquakeTable table = assertParsesLikeGson(json);
+        assertEquals("M 5.0 - \"Quoted\" \\ slash / café\ntab\t", table.getTitle(0));
+        assertEquals("Café 🌋, Tonga", table.getPlace(0));
+        assertEquals("M 4.0 - Zoë é", table.getTitle(1));
+        assertEquals("Señora, Chile", table.getPlace(1));
+    }
+
+
+    @Test
+    public void readsAFeatureLargerThanTheBuffer() throws IOException {
+
+        // a skipped property of 200 KB before the title, and a nested array after it
+        StringBuilder detail = new StringBuilder(200 * 1024);
+        while (detail.length() < 200 * 1024) {
+            detail.append("padding \\\" {[,]} ");
+        }
+        StringBuilder nested = new StringBuilder("[");
+        for (int i = 0; i < 5000; i++) {
+            nested.append(i == 0 ? "" : ",").append("{\"a\":[").append(i).append(",\"x\",null,true]}");
+        }
+        nested.append(']');
+
+        String big = "{\"type\":\"Feature\",\"properties\":{\"mag\":6.1,\"detail\":\"" + detail
+                + "\",\"place\":\"Off the coast\",\"time\":1493164800000,\"updated\":1493164860000,"
+                + "\"products\":" + nested + ",\"title\":\"M 6.1 - Off the coast\",\"felt\":12},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[140.5,35.25,10]},\"id\":\"us3\"}";
+        String json = collection(
+                feature("us1", "2.0", "M 2.0 - Before", "Before", "[1,2,3]"),
+                big,
+                feature("us4", "3.0", "M 3.0 - After", "After", "[4,5,6]"));
+
+        EarthquakeTable table = assertParsesLikeGson(json);
+        assertEquals(3, table.size());
+        assertEquals("M 6.1 - Off the coast", table.getTitle(1));
+        assertEquals(12, table.getFelt(1));
+        assertEquals("After", table.getPlace(2));
+    }
+
+
+    @Test
+    public void readsMembersInAnyOrderAndNulls() throws IOException {
+        String json = "{\"features\":["
+                + "{\"id\":\"us1\",\"geometry\":null,\"properties\":{\"mag\":null,\"place\":null,\"title\":null,"
+                + "\"felt\":null,\"time\":1493164800000,\"updated\":null}},"
+                + "{\"geometry\":{\"coordinates\":[1.5,2.5]},\"properties\":{},\"id\":\"us2\"}"
+                + "],\"type\":\"FeatureCollection\",\"metadata\":{\"count\":2,\"title\":\"ignored\"}}";
+
+        EarthquakeTable table = assertParsesLikeGson(json);
+        assertEquals(2, table.size());
+        assertTrue(Double.isNaN(table.getMagnitude(0)));
+        assertTrue(Double.isNaN(table.getDepth(1)));
+        assertEquals(2.5, table.getLatitude(1), 0);
+    }
+
+
+    /**
+     * Index the JSON in every chunk size and compare with what Gson makes of it
+     *
+     * @return the indexed table
+     */
+    private static EarthquakeTable assertParsesLikeGson(String json) throws IOException {
+        byte[] bytes = json.getBytes(UTF_8);
+
+        EarthquakeTable expected = new EarthquakeTable();
+        EarthquakeJsonParser.parse(new ByteArrayInputStream(bytes), (EarthquakeSink) expected);
+
+        EarthquakeTable table = null;
+        for (int chunk : CHUNKS) {
+            table = new EarthquakeTable();
+            EarthquakeJsonParser.parse(new ChunkedInputStream(bytes, chunk), table);
+            TestEarthquakes.assertSameRows(expected, table);
+        }
+        return table;
+    }
+
+
+    private static String collection(String... features) {
+        StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":1,"
+                + "\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query\"},\"features\":[");
+        for (int i = 0; i < features.length; i++) {
+            json.append(i == 0 ? "" : ",").append(features[i]);
+        }
+        return json.append("],\"bbox\":[-180,-90,0,180,90,700]}").toString();
+    }
+
+
+    /**
+     * A feature shaped like USGS sends them, the strings already escaped as JSON
+     */
+    private static String feature(String id, String magnitude, String title, String place, String coordinates) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude + ",\"place\":\"" + place
+                + "\",\"time\":1493164800000,\"updated\":1493164860000,\"tz\":-480,"
+                + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + id + "\",\"felt\":null,"
+                + "\"cdi\":null,\"types\":\",origin,phase-data,\",\"title\":\"" + title + "\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":" + coordinates + "},\"id\":\"" + id + "\"}";
+    }
+}
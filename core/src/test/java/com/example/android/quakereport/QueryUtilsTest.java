@@ -0,0 +1,64 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * How {@link QueryUtils} reports a response it cannot read, over a {@link FakeTransport}
+ */
+public class QueryUtilsTest {
+
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(new UrlConnectionTransport());
+    }
+
+
+    @Test
+    public void aNumberThatIsNotOneFailsTheGsonParse() throws IOException {
+        serve("{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\"properties\":"
+                + "{\"mag\":\"strong\",\"place\":\"Tonga\",\"time\":1493164800000,\"updated\":1493164860000},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[-173.1,-15.3,35]},\"id\":\"us1\"}]}");
+
+        // any sink but a table goes through Gson, the table's indexer reads the number as unknown
+        try {
+            QueryUtils.fetchIfChanged("https://a.test/feed.geojson", new QueryUtils.Validators(), new EarthquakeSink() {
+                @Override
+                public void onEarthquake(Earthquake earthquake) {
+                }
+            }, RequestScheduler.Priority.VISIBLE);
+            fail("The feed was read");
+        } catch (FetchException e) {
+            assertEquals(FetchException.Kind.PARSE, e.getKind());
+        }
+    }
+
+
+    @Test
+    public void aCountThatIsNotANumberIsAParseFailure() throws IOException {
+        serve("{\"count\":\"many\",\"maxAllowed\":20000}");
+
+        try {
+            QueryUtils.fetchCount("https://a.test/count?format=geojson", CancellationToken.NONE);
+            fail("The count was read");
+        } catch (FetchException e) {
+            assertEquals(FetchException.Kind.PARSE, e.getKind());
+        }
+    }
+
+
+    private static void serve(final String body) {
+        QueryUtils.setTransport(new FakeTransport(new FakeTransport.Server() {
+            @Override
+            public FakeTransport.Response serve(FakeTransport.FakeExchange exchange) {
+                return new FakeTransport.Response(200, body);
+            }
+        }));
+    }
+}
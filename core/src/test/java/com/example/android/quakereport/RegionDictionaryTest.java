@@ -0,0 +1,63 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Regions are coded per {@link EarthquakeTable}, so rows copied from one table to another must
+ * keep their region, whatever code it has in either table
+ */
+public class RegionDictionaryTest {
+
+
+    @Test
+    public void copiedRowsKeepTheirRegion() {
+        EarthquakeTable first = new EarthquakeTable();
+        first.add(earthquake("us1", "12km SSW of Anchorage, Alaska"));
+        first.add(earthquake("us2", "Fiji region"));
+        first.add(earthquake("us3", null));
+
+        // the regions are coded in another order here
+        EarthquakeTable second = new EarthquakeTable();
+        second.add(earthquake("us4", "Fiji region"));
+        second.add(earthquake("us5", "Tonga"));
+        for (int row = first.size() - 1; row >= 0; row--) {
+            second.addRow(first, row);
+        }
+
+        assertEquals("Anchorage, Alaska", second.getRegion(4));
+        assertEquals("12km SSW of Anchorage, Alaska", second.getPlace(4));
+        assertEquals("Fiji region", second.getRegion(3));
+        assertNull(second.getRegion(2));
+        assertSame(second.getRegion(0), second.getRegion(3));
+        assertEquals("Tonga", second.getRegion(1));
+    }
+
+
+    @Test
+    public void aTableOnlyCodesItsOwnRegions() {
+        EarthquakeTable table = new EarthquakeTable();
+        table.add(earthquake("us1", "5km N of Ridgecrest, CA"));
+        table.add(earthquake("us2", "10km E of Ridgecrest, CA"));
+
+        // codes start over in every table, however many regions other tables hold
+        assertEquals(0, table.getRegionCode(0));
+        assertEquals(0, table.getRegionCode(1));
+
+        table.clear();
+        table.add(earthquake("us3", "Tonga"));
+        assertEquals(0, table.getRegionCode(0));
+        assertEquals("Tonga", table.getRegion(0));
+    }
+
+
+    private static Earthquake earthquake(String id, String place) {
+        Earthquake earthquake = new Earthquake();
+        earthquake.setId(id);
+        earthquake.setmPlace(place);
+        return earthquake;
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The fetcher and the scheduler together, over a {@link FakeTransport}
+ */
+public class ResilientFetcherTest {
+
+
+    private static final RetryPolicy NO_RETRIES = new RetryPolicy(1, 0, 0);
+
+
+    private final ExecutorService mCallers = Executors.newCachedThreadPool();
+
+
+    @Before
+    public void setUp() {
+        Metrics.getInstance().reset();
+    }
+
+
+    @After
+    public void tearDown() {
+        mCallers.shutdownNow();
+        QueryUtils.setTransport(new UrlConnectionTransport());
+    }
+
+
+    @Test
+    public void preemptsABackgroundRequestAndRequeuesIt() throws Exception {
+
+        // the background request holds the only slot until it is aborted
+        final CountDownLatch release = new CountDownLatch(1);
+        FakeTransport transport = install(new FakeTransport.Server() {
+            @Override
+            public FakeTransport.Response serve(FakeTransport.FakeExchange exchange) throws IOException {
+                if (exchange.getUrl().getQuery().contains("background")) exchange.block(release);
+                return FakeTransport.csv(TestEarthquakes.table(0, 3));
+            }
+        });
+        final ResilientFetcher fetcher = new ResilientFetcher(NO_RETRIES, new RequestScheduler(1, 1));
+
+        Future<EarthquakeTable> background = fetchLater(fetcher, "https://a.test/q?format=csv&background",
+                RequestScheduler.Priority.BACKGROUND);
+        transport.awaitInFlight("a.test", 1);
+
+        EarthquakeTable visible = fetcher.fetchTable("https://a.test/q?format=csv&visible",
+                RequestScheduler.Priority.VISIBLE, false, CancellationToken.NONE);
+        assertEquals(3, visible.size());
+
+        // made again once the visible request gave the slot back
+        release.countDown();
+        assertEquals(3, background.get(5, TimeUnit.SECONDS).size());
+
+        ArrayList<FakeTransport.FakeExchange> exchanges = transport.getExchanges();
+        assertEquals(3, exchanges.size());
+        assertTrue(exchanges.get(0).isAborted());
+        assertTrue(exchanges.get(1).getUrl().getQuery().contains("visible"));
+        assertTrue(exchanges.get(2).getUrl().getQuery().contains("background"));
+        assertEquals(1, Metrics.getInstance().counter(RequestScheduler.METRIC_PREEMPTED).get());
+    }
+
+
+    @Test
+    public void keepsRequestsToAHostWithinItsCap() throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        FakeTransport transport = install(new FakeTransport.Server() {
+            @Override
+            public FakeTransport.Response serve(FakeTransport.FakeExchange exchange) throws IOException {
+                if (exchange.getUrl().getHost().equals("a.test")) exchange.block(release);
+                return FakeTransport.csv(TestEarthquakes.table(0, 1));
+            }
+        });
+        ResilientFetcher fetcher = new ResilientFetcher(NO_RETRIES, new RequestScheduler(6, 2));
+
+        ArrayList<Future<EarthquakeTable>> requests = new ArrayList<>();
+        for (int n = 0; n < 4; n++) {
+            requests.add(fetchLater(fetcher, "https://a.test/q?format=csv&n=" + n, RequestScheduler.Priority.VISIBLE));
+        }
+        transport.awaitInFlight("a.test", 2);
+
+        // another host is not held up by the first one
+        fetcher.fetchTable("https://b.test/q?format=csv", RequestScheduler.Priority.VISIBLE, false,
+                CancellationToken.NONE);
+        assertEquals(2, transport.getInFlight("a.test"));
+
+        release.countDown();
+        for (Future<EarthquakeTable> request : requests) {
+            assertEquals(1, request.get(5, TimeUnit.SECONDS).size());
+        }
+        assertEquals(2, transport.getMaxInFlight("a.test"));
+    }
+
+
+    @Test
+    public void aHedgeThatWinsCancelsThePrimary() throws Exception {
+
+        // enough fast requests measured for the hedge to go out at its minimum delay
+        for (int n = 0; n < 20; n++) {
+            Metrics.getInstance().histogram(ResilientFetcher.METRIC_LATENCY).record(1000);
+        }
+
+        // the first request hangs, the hedge answers at once
+        final CountDownLatch never = new CountDownLatch(1);
+        FakeTransport transport = install(new FakeTransport.Server() {
+            private int mRequests;
+
+            @Override
+            public FakeTransport.Response serve(FakeTransport.FakeExchange exchange) throws IOException {
+                boolean first;
+                synchronized (this) {
+                    first = mRequests++ == 0;
+                }
+                if (first) exchange.block(never);
+                return FakeTransport.csv(TestEarthquakes.table(0, 2));
+            }
+        });
+        ResilientFetcher fetcher = new ResilientFetcher(NO_RETRIES, new RequestScheduler(6, 2));
+
+        EarthquakeTable table = fetcher.fetchTable("https://a.test/q?format=csv", RequestScheduler.Priority.VISIBLE,
+                true, CancellationToken.NONE);
+
+        assertEquals(2, table.size());
+        ArrayList<FakeTransport.FakeExchange> exchanges = transport.getExchanges();
+        assertEquals(2, exchanges.size());
+        assertTrue(exchanges.get(0).isAborted());
+        assertFalse(exchanges.get(1).isAborted());
+        assertEquals(1, Metrics.getInstance().counter(ResilientFetcher.METRIC_HEDGE_WON).get());
+    }
+
+
+    @Test
+    public void stopsAskingAServerThatKeepsFailing() throws Exception {
+
+        FakeTransport transport = install(new FakeTransport.Server() {
+            @Override
+            public FakeTransport.Response serve(FakeTransport.FakeExchange exchange) {
+                return new FakeTransport.Response(503, "Service Unavailable");
+            }
+        });
+        ResilientFetcher fetcher = new ResilientFetcher(NO_RETRIES, new RequestScheduler(6, 2));
+
+        for (int n = 0; n < 5; n++) {
+            assertEquals(FetchException.Kind.SERVER, fetchFailure(fetcher, "https://a.test/q?format=csv").getKind());
+        }
+        assertEquals(FetchException.Kind.CIRCUIT_OPEN, fetchFailure(fetcher, "https://a.test/q?format=csv").getKind());
+        assertEquals(5, transport.getExchanges().size());
+
+        // the breakers are per host
+        assertEquals(FetchException.Kind.SERVER, fetchFailure(fetcher, "https://b.test/q?format=csv").getKind());
+    }
+
+
+    @Test
+    public void breakerOpensTriesOnceAndCloses() throws Exception {
+
+        CircuitBreaker breaker = new CircuitBreaker(2, 50);
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertTrue(breaker.isClosed());
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+
+        // open: nothing goes through until the cool down is over
+        assertFalse(breaker.isClosed());
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(60);
+
+        // half open: a single trial, and its failure opens the breaker again
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(60);
+
+        // a trial that was abandoned says nothing, the next one may go
+        assertTrue(breaker.allowRequest());
+        breaker.onAbandoned();
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertTrue(breaker.isClosed());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+
+    @Test
+    public void cancelingTheCallerAbortsItsRequestAndFreesTheSlot() throws Exception {
+
+        final CountDownLatch never = new CountDownLatch(1);
+        FakeTransport transport = install(new FakeTransport.Server() {
+            @Override
+            public FakeTransport.Response serve(FakeTransport.FakeExchange exchange) throws IOException {
+                if (exchange.getUrl().getQuery().contains("hang")) exchange.block(never);
+                return FakeTransport.csv(TestEarthquakes.table(0, 1));
+            }
+        });
+        final ResilientFetcher fetcher = new ResilientFetcher(NO_RETRIES, new RequestScheduler(1, 1));
+
+        final CancellationToken caller = new CancellationToken();
+        Future<EarthquakeTable> hanging = mCallers.submit(new Callable<EarthquakeTable>() {
+            @Override
+            public EarthquakeTable call() throws Exception {
+                return fetcher.fetchTable("https://a.test/q?format=csv&hang", RequestScheduler.Priority.VISIBLE,
+                        false, caller);
+            }
+        });
+        transport.awaitInFlight("a.test", 1);
+
+        caller.cancel();
+        try {
+            hanging.get(5, TimeUnit.SECONDS);
+            fail("The canceled request returned");
+        } catch (java.util.concurrent.ExecutionException e) {
+            assertTrue(e.getCause() instanceof FetchCanceledException);
+        }
+        assertTrue(transport.getExchanges().get(0).isAborted());
+
+        // the slot went back, and canceling the caller did not leave the scheduler waiting
+        assertEquals(1, fetcher.fetchTable("https://a.test/q?format=csv", RequestScheduler.Priority.VISIBLE,
+                false, CancellationToken.NONE).size());
+    }
+
+
+    @Test
+    public void childTokensFollowTheirParentUntilDetached() {
+
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = new CancellationToken(parent);
+        CancellationToken grandchild = new CancellationToken(child);
+        CancellationToken detached = new CancellationToken(parent);
+        detached.detach();
+
+        // a child canceled on its own leaves its parent alone
+        CancellationToken sibling = new CancellationToken(parent);
+        sibling.cancel();
+        assertFalse(parent.isCanceled());
+        assertFalse(child.isCanceled());
+
+        parent.cancel();
+        assertTrue(child.isCanceled());
+        assertTrue(grandchild.isCanceled());
+        assertFalse(detached.isCanceled());
+
+        // a child of a canceled token starts out canceled
+        assertTrue(new CancellationToken(parent).isCanceled());
+    }
+
+
+    private static FakeTransport install(FakeTransport.Server server) {
+        FakeTransport transport = new FakeTransport(server);
+        QueryUtils.setTransport(transport);
+        return transport;
+    }
+
+
+    private Future<EarthquakeTable> fetchLater(final ResilientFetcher fetcher, final String url,
+                                               final RequestScheduler.Priority priority) {
+        return mCallers.submit(new Callable<EarthquakeTable>() {
+            @Override
+            public EarthquakeTable call() throws Exception {
+                return fetcher.fetchTable(url, priority, false, CancellationToken.NONE);
+            }
+        });
+    }
+
+
+    private static FetchException fetchFailure(ResilientFetcher fetcher, String url) throws IOException {
+        try {
+            fetcher.fetchTable(url, RequestScheduler.Priority.VISIBLE, false, CancellationToken.NONE);
+        } catch (FetchException e) {
+            return e;
+        }
+        throw new AssertionError("Fetching " + url + " did not fail");
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.quakereport;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Earthquakes for the tests, made up but shaped like USGS events
+ */
+final class TestEarthquakes {
+
+
+    private static final String[] REGIONS = {"Ridgecrest, CA", "Pahala, Hawaii", "Tonga", "Fiji"};
+
+
+    private TestEarthquakes() {
+    }
+
+
+    /**
+     * One earthquake, its fields derived from the given number
+     */
+    static Earthquake earthquake(int n) {
+        Earthquake earthquake = new Earthquake();
+        earthquake.setId("us" + (1000000 + n));
+        earthquake.setmTitle("M " + (2 + n % 50 / 10.0) + " - " + (n % 90) + "km N of " + REGIONS[n % REGIONS.length]);
+        earthquake.setmPlace((n % 90) + "km N of " + REGIONS[n % REGIONS.length]);
+        earthquake.setmLatitude(-60 + n % 120 + 0.25);
+        earthquake.setmLongitude(-170 + n % 340 + 0.5);
+        earthquake.setmMagnitude(2 + n % 50 / 10.0);
+        earthquake.setDepth(n % 700 + 0.1);
+        earthquake.setmDate(1493164800000L - n * 60000L);
+        earthquake.setmFelt(n % 7 == 0 ? n % 100 : null);
+        earthquake.setUpdated(1493164800000L - n * 30000L);
+        return earthquake;
+    }
+
+
+    /**
+     * Earthquakes first to first + rows - 1, newest first
+     */
+    static EarthquakeTable table(int first, int rows) {
+        EarthquakeTable table = new EarthquakeTable(rows);
+        for (int n = first; n < first + rows; n++) {
+            table.add(earthquake(n));
+        }
+        return table;
+    }
+
+
+    /**
+     * Assert that two tables hold the same events, field by field and in the same order.
+     * Numbers have to be the same double, not only close.
+     */
+    static void assertSameRows(EarthquakeTable expected, EarthquakeTable actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            String at = "row " + row + " ";
+            assertEquals(at + "id", expected.getId(row), actual.getId(row));
+            assertEquals(at + "title", expected.getTitle(row), actual.getTitle(row));
+            assertEquals(at + "place", expected.getPlace(row), actual.getPlace(row));
+            assertEquals(at + "magnitude", expected.getMagnitude(row), actual.getMagnitude(row), 0);
+            assertEquals(at + "latitude", expected.getLatitude(row), actual.getLatitude(row), 0);
+            assertEquals(at + "longitude", expected.getLongitude(row), actual.getLongitude(row), 0);
+            assertEquals(at + "depth", expected.getDepth(row), actual.getDepth(row), 0);
+            assertEquals(at + "time", expected.getTime(row), actual.getTime(row));
+            assertEquals(at + "updated", expected.getUpdated(row), actual.getUpdated(row));
+            assertEquals(at + "felt", expected.getFelt(row), actual.getFelt(row));
+        }
+    }
+}